@@ -4,10 +4,12 @@ setlocal
 set JAR=SmsApp.jar
 set NEW_JAR=SmsApp-new.jar
 set JRE=jre\bin\java.exe
+rem AppCDS archive; the JVM (re)creates it on exit whenever the jar changed
+set CDS=-XX:SharedArchiveFile=SmsApp.jsa -XX:+AutoCreateSharedArchive
 
 :loop
 echo [%date% %time%] Starting %JAR% ...
-"%JRE%" -jar "%JAR%" config.yml
+"%JRE%" %CDS% -jar "%JAR%" config.yml
 set EC=%ERRORLEVEL%
 
 if %EC%==42 (
@@ -0,0 +1,67 @@
+package kfs.sc.sms;
+
+import com.sun.net.httpserver.HttpServer;
+import kfs.sc.sms.at.SimulatedModem;
+import kfs.sc.sms.utils.KfsSmsException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Training run for the AppCDS archive ({@code -Dkfs.sms.training=true}).
+ * The app is wired as usual but talks to a {@link SimulatedModem} and a local stub
+ * REST server, processes one poll cycle and exits, so the JVM can dump the loaded classes.
+ * <p>
+ * Lives in the shipped jar on purpose: the archive is dumped by {@code java -jar SmsApp.jar}
+ * ({@code -Pcds}) and is only accepted at run time when the dump-time classpath is a prefix of the
+ * run-time one. Training from test classes would add a classpath entry that production
+ * ({@code -jar SmsApp.jar}) does not have, and the JVM would reject the archive. Without the
+ * property nothing here runs; {@link SimulatedModem} is then never loaded.
+ */
+final class CdsTraining {
+
+    static final String PROPERTY = "kfs.sms.training";
+
+    private CdsTraining() {
+    }
+
+    static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    static SimulatedModem simulatedModem() {
+        SimulatedModem modem = new SimulatedModem();
+        modem.deliver("+420111111111", "CDS training message");
+        modem.deliver("+420222222222", "Second training message");
+        return modem;
+    }
+
+    /**
+     * Stub of the sms-server API: every request gets 200 with an empty JSON object.
+     */
+    static HttpServer startStubServer() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", exchange -> {
+                exchange.getRequestBody().readAllBytes();
+                byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            });
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot start training stub server", e);
+        }
+    }
+
+    static String baseUrl(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
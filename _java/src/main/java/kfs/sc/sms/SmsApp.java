@@ -1,19 +1,45 @@
 package kfs.sc.sms;
 
+import kfs.sc.sms.admin.AdminServer;
+import kfs.sc.sms.archive.MessageArchive;
 import kfs.sc.sms.at.AtModemSmsGateway;
+import kfs.sc.sms.at.ModemCharset;
+import kfs.sc.sms.at.ModemSupervisor;
 import kfs.sc.sms.config.AppConfig;
+import kfs.sc.sms.config.ConfigReloader;
+import kfs.sc.sms.logging.RestLogAppender;
+import kfs.sc.sms.model.ModemState;
 import kfs.sc.sms.model.SmsGateway;
+import kfs.sc.sms.model.SmsSender;
 import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.routing.NumberNormalizer;
+import kfs.sc.sms.routing.ReplyAffinity;
+import kfs.sc.sms.routing.RouteTable;
+import kfs.sc.sms.routing.RoutingSmsGateway;
+import kfs.sc.sms.service.CircuitBreaker;
+import kfs.sc.sms.service.HandoffStore;
+import kfs.sc.sms.service.LatencyTracer;
+import kfs.sc.sms.service.OutgoingHandoffStore;
+import kfs.sc.sms.service.OutgoingScheduler;
 import kfs.sc.sms.service.OutgoingSmsService;
+import kfs.sc.sms.service.RetryPolicy;
+import kfs.sc.sms.service.RingBufferQueue;
+import kfs.sc.sms.service.ShutdownCoordinator;
 import kfs.sc.sms.service.SmsDispatchService;
 import kfs.sc.sms.service.SmsPollingService;
 import kfs.sc.sms.service.SmsRestClient;
+import kfs.sc.sms.service.SpillingQueue;
 import kfs.sc.sms.updater.GitHubUpdater;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -25,6 +51,7 @@ public class SmsApp {
 
     public static void main(String[] args) throws InterruptedException {
         String externalPath = args.length > 0 ? args[0] : null;
+        boolean training = CdsTraining.isEnabled();
 
         logger.info("Start SmsApp with config: '{}'", externalPath);
         AppConfig config = AppConfig.loadConfig(externalPath, "application.yml");
@@ -33,85 +60,198 @@ public class SmsApp {
         initLogger(config.logging().level());
         initLoggerPackages(config.logging().packages());
 
-        // check updates
+        // update checks run in the background, startup never waits on GitHub
         GitHubUpdater updater = new GitHubUpdater(
                 "k0fis",
                 "kfsSms",
                 getVersion()
         );
+        updater.setAllowUnverified(config.cfg().updateAllowUnverified());
 
-        if (updater.updateIfAvailable()) {
-            logger.info("Update downloaded. Exiting with code 42 for wrapper to swap JARs.");
-            System.exit(42);
-        }
+        // SMS Gateway (supervisor reconnects the modem in-process, no JVM restart needed)
+        AtModemSmsGateway modemGateway = createModemGateway(config.sms());
+        ModemSupervisor supervisor = config.sms().openModem() && !training
+                ? createSupervisor(config.sms(), modemGateway)
+                : null;
+        SmsGateway smsGateway = supervisor != null ? supervisor : modemGateway;
 
-        // SMS Gateway
-        SmsGateway smsGateway = new AtModemSmsGateway(config.sms().portName(), config.sms().baudRate());
-        if (config.sms().openModem()) {
-            try {
-                smsGateway.open(config.getMsisdn().pin());
-            } catch (Exception ex) {
-                logger.error("Error initialize modem", ex);
-                System.exit(-1);
-            }
+        String baseUrl = config.api().baseUrl();
+        if (training) {
+            logger.info("CDS training run: simulated modem and local stub server");
+            modemGateway.setExecutor(CdsTraining.simulatedModem().newExecutor());
+            baseUrl = CdsTraining.baseUrl(CdsTraining.startStubServer());
         }
 
         // REST client
-        SmsRestClient smsRestClient = new SmsRestClient(
-                config.api().baseUrl(),
-                config.api().user(),
-                config.api().password()
-        );
+        SmsRestClient smsRestClient = createRestClient(config.api(), baseUrl);
 
-        // Fronta pro SMS
-        BlockingQueue<SmsMessage> queue = new ArrayBlockingQueue<>(1000);
+        // Vzdálené logy (/log), dávkově na pozadí
+        RestLogAppender remoteLog = training ? null : initRemoteLog(config.logging().remote(), smsRestClient);
+
+        // Fronta pro SMS (spill | array | ring)
+        AppConfig.SmsConfig sms = config.sms();
+        BlockingQueue<SmsMessage> queue = createQueue(sms, training);
 
         // Polling service (modem → fronta)
-        SmsPollingService pollingService = new SmsPollingService(
-                smsGateway,
-                Duration.of(config.sms().pollIntervalMs(), ChronoUnit.MILLIS),
-                queue, config.sms().poolRetryCount(), config.sms().sendRetryDelayMs()
-        );
+        SmsPollingService pollingService = createPollingService(sms, smsGateway, queue);
+
+        // Další modemy (SIM): každý vlastní supervisor a polling do společné fronty, odchozí přes routing
+        List<ExtraModem> extraModems = new ArrayList<>();
+        for (AppConfig.ModemConfig modemConfig : training ? List.<AppConfig.ModemConfig>of() : config.modems()) {
+            AtModemSmsGateway modem = createModemGateway(sms, modemConfig);
+            ModemSupervisor modemSupervisor = sms.openModem() ? createSupervisor(sms, modem) : null;
+            SmsGateway gateway = modemSupervisor != null ? modemSupervisor : modem;
+            extraModems.add(new ExtraModem(modemConfig, modemSupervisor, gateway,
+                    createPollingService(sms, gateway, queue)));
+        }
+        RoutingSmsGateway routing = extraModems.isEmpty() ? null
+                : createRoutingGateway(config, smsGateway, extraModems);
+
+        // Odpověď jde ze SIM, na kterou zákazník psal
+        ReplyAffinity affinity = routing == null ? null : createReplyAffinity(config.routing(), routing);
+        if (affinity != null) {
+            pollingService.setReceivedListener(msg -> affinity.record(msg.getSender(), 0, System.currentTimeMillis()));
+            for (int i = 0; i < extraModems.size(); i++) {
+                int modemId = i + 1; // pořadí jako v createRoutingGateway
+                extraModems.get(i).polling().setReceivedListener(
+                        msg -> affinity.record(msg.getSender(), modemId, System.currentTimeMillis()));
+            }
+        }
 
         // Dispatch service (fronta → REST)
-        SmsDispatchService dispatchService = new SmsDispatchService(
-                queue,
-                smsRestClient,
-                config.sms().sendMaxRetries(),
-                config.sms().sendRetryDelayMs()
-        );
+        SmsDispatchService dispatchService = createDispatchService(sms, queue, smsRestClient);
 
         // Outgoing service (REST → modem)
-        OutgoingSmsService outgoingService = new OutgoingSmsService(
-                smsGateway,
-                smsRestClient,
-                config.sms().outgoingPollIntervalMs()
-        );
+        OutgoingSmsService outgoingService = createOutgoingService(sms, routing != null ? routing : smsGateway,
+                smsRestClient);
 
-        // Spuštění služeb
-        pollingService.start();
+        // Latence po fázích (SIM, fronta, retry, odeslání) pro /status a log pomalých SMS
+        LatencyTracer tracer = new LatencyTracer(sms.traceSlowMs());
+        dispatchService.setTracer(tracer);
+        outgoingService.setTracer(tracer);
+
+        // Lokální archiv doručených a odeslaných SMS, zápis mimo doručovací vlákna
+        MessageArchive archive = training ? null : createArchive(config);
+        if (archive != null) {
+            dispatchService.setArchive(archive);
+            outgoingService.setArchive(archive);
+            archive.start();
+        }
+
+        // Modem služby běží jen ve stavu READY; s routingem odchozí jdou dál přes ostatní modemy
+        if (supervisor != null) {
+            supervisor.addStateListener(state -> {
+                if (state == ModemState.READY) {
+                    pollingService.resume();
+                    outgoingService.resume();
+                } else {
+                    pollingService.pause();
+                    if (routing == null) {
+                        outgoingService.pause();
+                    }
+                }
+            });
+        }
+        for (ExtraModem extra : extraModems) {
+            if (extra.supervisor() != null) {
+                extra.supervisor().addStateListener(state -> {
+                    if (state == ModemState.READY) {
+                        extra.polling().resume();
+                    } else {
+                        extra.polling().pause();
+                    }
+                });
+            }
+        }
+
+        // Spuštění služeb; nedoručené SMS z minulého běhu jdou do fronty před prvním pollem
+        HandoffStore handoffStore = new HandoffStore(Path.of(config.sms().handoffFile()));
+        outgoingService.setHandoffStore(new OutgoingHandoffStore(Path.of(config.sms().outgoingHandoffFile())));
         dispatchService.start();
+        for (SmsMessage msg : handoffStore.loadAndClear()) {
+            queue.put(msg);
+        }
+        pollingService.start();
+        for (ExtraModem extra : extraModems) {
+            extra.polling().start();
+        }
         outgoingService.start();
+        if (supervisor != null) {
+            supervisor.open(config.getMsisdn().pin());
+        }
+        for (ExtraModem extra : extraModems) {
+            if (extra.supervisor() != null) {
+                extra.supervisor().open(extra.config().pin());
+            }
+        }
 
-        CountDownLatch shutdownLatch = new CountDownLatch(1);
+        // Změny config.yml za běhu (intervaly, retry, logy, přihlášení)
+        ConfigReloader reloader = training ? null
+                : startConfigReloader(externalPath, config, pollingService, outgoingService, dispatchService,
+                smsRestClient, routing);
 
-        // JVM shutdown hook
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            logger.info("Shutdown signal received");
+        AdminServer admin = training ? null : startAdmin(config.admin(), pollingService, outgoingService,
+                dispatchService, queue, smsRestClient, supervisor, tracer, routing, archive);
+
+        List<SmsPollingService> pollingServices = new ArrayList<>();
+        pollingServices.add(pollingService);
+        for (ExtraModem extra : extraModems) {
+            pollingServices.add(extra.polling());
+        }
+        CountDownLatch shutdownLatch = new CountDownLatch(1);
+        ShutdownCoordinator coordinator = new ShutdownCoordinator(
+                pollingServices,
+                outgoingService,
+                dispatchService,
+                routing != null ? routing : smsGateway,
+                handoffStore,
+                Duration.ofMillis(config.sms().shutdownTimeoutMs())
+        );
 
+        Runnable shutdown = () -> {
             try {
-                pollingService.stop();
-                dispatchService.stop();
-                outgoingService.stop();
-                smsGateway.close();
+                updater.stop();
+                if (reloader != null) {
+                    reloader.stop();
+                }
+                if (admin != null) {
+                    admin.stop();
+                }
+                coordinator.shutdown();
+                if (affinity != null) {
+                    affinity.stop();
+                }
+                if (archive != null) {
+                    archive.stop(Duration.ofSeconds(5));
+                }
+                if (remoteLog != null) {
+                    remoteLog.stop(Duration.ofSeconds(3));
+                }
             } catch (Exception e) {
                 logger.error("Error during shutdown", e);
             }
-
             shutdownLatch.countDown();
             logger.info("SmsApp stopped");
+        };
+
+        // JVM shutdown hook
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Shutdown signal received");
+            shutdown.run();
         }));
 
+        if (!training && config.cfg().updateCheckIntervalMs() > 0) {
+            updater.start(
+                    Duration.ofMillis(config.cfg().updateInitialDelayMs()),
+                    Duration.ofMillis(config.cfg().updateCheckIntervalMs()),
+                    () -> {
+                        logger.info("Update downloaded, draining services before restart");
+                        shutdown.run();
+                        logger.info("Exiting with code 42 for wrapper to swap JARs.");
+                        System.exit(42);
+                    });
+        }
+
         if (config.cfg().terminate() != null && !config.cfg().terminate().isEmpty()) {
             new Thread(() -> {
                 try (java.util.Scanner scanner = new java.util.Scanner(System.in)) {
@@ -120,11 +260,7 @@ public class SmsApp {
                         String line = scanner.nextLine();
                         if (config.cfg().terminate().equalsIgnoreCase(line.trim())) {
                             logger.info("Manual shutdown requested");
-                            pollingService.stop();
-                            dispatchService.stop();
-                            outgoingService.stop();
-                            smsGateway.close();
-                            shutdownLatch.countDown();
+                            shutdown.run();
                             break;
                         }
                     }
@@ -135,9 +271,27 @@ public class SmsApp {
         }
 
         logger.info("SmsApp started, waiting for shutdown signal");
+
+        if (pollingService.awaitFirstPoll(Duration.ofMinutes(10))) {
+            logStartupTime();
+        }
+        if (training) {
+            // nech dispatch odeslat vyčtené SMS, pak konec (JVM zapíše CDS archiv)
+            long end = System.currentTimeMillis() + 10_000;
+            while (!queue.isEmpty() && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            System.exit(0);
+        }
+
         shutdownLatch.await();
     }
 
+    private static void logStartupTime() {
+        long uptime = java.lang.management.ManagementFactory.getRuntimeMXBean().getUptime();
+        logger.info("Startup: time-to-first-poll={} ms", uptime);
+    }
+
     private static void initLogger(String levelName) {
         ch.qos.logback.classic.Logger rootLogger =
                 (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
@@ -156,6 +310,286 @@ public class SmsApp {
         }
     }
 
+    private static AdminServer startAdmin(AppConfig.AdminConfig cfg,
+                                          SmsPollingService pollingService,
+                                          OutgoingSmsService outgoingService,
+                                          SmsDispatchService dispatchService,
+                                          BlockingQueue<SmsMessage> queue,
+                                          SmsRestClient client,
+                                          ModemSupervisor supervisor,
+                                          LatencyTracer tracer,
+                                          RoutingSmsGateway routing,
+                                          MessageArchive archive) {
+        if (cfg.port() <= 0) return null;
+
+        try {
+            AdminServer admin = new AdminServer(cfg.host(), cfg.port(), cfg.token(),
+                    pollingService, outgoingService, dispatchService, queue, client,
+                    () -> supervisor != null ? supervisor.getState().name() : "UNSUPERVISED");
+            if (supervisor != null) {
+                admin.setRadioTelemetry(supervisor.getTelemetry());
+            }
+            admin.setLatencyTracer(tracer);
+            admin.setRouting(routing);
+            admin.setArchive(archive);
+            admin.start();
+            return admin;
+        } catch (IOException e) {
+            logger.error("Cannot start admin endpoint on {}:{}: {}", cfg.host(), cfg.port(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static ConfigReloader startConfigReloader(String externalPath, AppConfig config,
+                                                      SmsPollingService pollingService,
+                                                      OutgoingSmsService outgoingService,
+                                                      SmsDispatchService dispatchService,
+                                                      SmsRestClient client,
+                                                      RoutingSmsGateway routing) {
+        if (externalPath == null || !Files.exists(Path.of(externalPath))) return null;
+
+        ConfigReloader reloader = new ConfigReloader(Path.of(externalPath), config, (previous, next, changed) -> {
+            AppConfig.SmsConfig sms = next.sms();
+            // první: chybná tabulka shodí reload dřív, než se použije cokoli jiného
+            if (routing != null && changed.stream().anyMatch(key -> key.startsWith("routing."))) {
+                routing.setTable(createRouteTable(next.routing(), routing.getModems().stream()
+                        .map(RoutingSmsGateway.Modem::getName).toList()));
+                logger.info("Routing table reloaded");
+            }
+            if (routing != null && changed.contains("sms.maxSendsPerMinute")) {
+                routing.getModems().get(0).setMaxPerMinute(sms.maxSendsPerMinute());
+            }
+            if (changed.contains("sms.pollIntervalMs")) {
+                pollingService.setInterval(Duration.ofMillis(sms.pollIntervalMs()));
+            }
+            if (changed.contains("sms.outgoingPollIntervalMs")) {
+                outgoingService.setPollInterval(sms.outgoingPollIntervalMs());
+            }
+            if (changed.contains("sms.outgoingAgingMs")) {
+                outgoingService.setAging(sms.outgoingAgingMs());
+            }
+            pollingService.setRetryPolicy(new RetryPolicy(sms.poolRetryCount(), sms.sendRetryDelayMs()));
+            dispatchService.setRetryPolicy(new RetryPolicy(sms.sendMaxRetries(), sms.sendRetryDelayMs()));
+            if (changed.contains("sms.dispatchWorkers")) {
+                dispatchService.setWorkers(sms.dispatchWorkers());
+            }
+            client.setCredentials(next.api().user(), next.api().password());
+            if (changed.contains("logging.level")) {
+                initLogger(next.logging().level());
+            }
+            if (changed.contains("logging.packages")) {
+                // odebrané balíčky zdědí úroveň od rodiče
+                for (String pkg : previous.logging().packages().keySet()) {
+                    if (!next.logging().packages().containsKey(pkg)) {
+                        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(pkg)).setLevel(null);
+                    }
+                }
+                initLoggerPackages(next.logging().packages());
+            }
+        });
+        if (routing == null) {
+            // jeden modem: routing a jeho limit se nepoužívají, změna se nehlásí jako použitá
+            reloader.setInactive(key -> key.startsWith("routing.") || key.equals("sms.maxSendsPerMinute"));
+        }
+        try {
+            reloader.start();
+        } catch (IOException e) {
+            logger.warn("Config hot reload disabled: {}", e.getMessage());
+            return null;
+        }
+        return reloader;
+    }
+
+    // ==========================
+    // Wiring (sdílí ho i end-to-end testy)
+    // ==========================
+
+    static ModemSupervisor createSupervisor(AppConfig.SmsConfig sms, AtModemSmsGateway modem) {
+        ModemSupervisor supervisor = new ModemSupervisor(
+                modem,
+                sms.reconnectMinDelayMs(),
+                sms.reconnectMaxDelayMs(),
+                sms.commandStuckMs(),
+                sms.modemFailureThreshold());
+        supervisor.setTelemetryInterval(sms.telemetryIntervalMs());
+        return supervisor;
+    }
+
+    /**
+     * Additional modem, port and baud rate from {@code modem}, everything else from {@code sms}.
+     * Auto-baud keeps its result in {@code <baudStateFile>.<name>}.
+     */
+    static AtModemSmsGateway createModemGateway(AppConfig.SmsConfig sms, AppConfig.ModemConfig modem) {
+        String baudFile = sms.baudStateFile();
+        return createModemGateway(sms, modem.portName(), modem.baudRate(),
+                baudFile.isBlank() ? baudFile : baudFile + "." + modem.name());
+    }
+
+    record ExtraModem(AppConfig.ModemConfig config, ModemSupervisor supervisor, SmsGateway gateway,
+                      SmsPollingService polling) {
+    }
+
+    /**
+     * Outbound gateway over the main modem ({@link AppConfig.ModemConfig#MAIN}) and {@code extras}.
+     */
+    static RoutingSmsGateway createRoutingGateway(AppConfig config, SmsGateway main, List<ExtraModem> extras) {
+        List<RoutingSmsGateway.Modem> modems = new ArrayList<>();
+        modems.add(new RoutingSmsGateway.Modem(AppConfig.ModemConfig.MAIN, main, config.sms().maxSendsPerMinute()));
+        for (ExtraModem extra : extras) {
+            modems.add(new RoutingSmsGateway.Modem(extra.config().name(), extra.gateway(),
+                    extra.config().maxSendsPerMinute()));
+        }
+        List<String> names = modems.stream().map(RoutingSmsGateway.Modem::getName).toList();
+        logger.info("Outbound routing over modems {}", names);
+        return new RoutingSmsGateway(modems, createRouteTable(config.routing(), names));
+    }
+
+    /**
+     * Message archive from {@code archive}, numbers normalized like routing; null if disabled.
+     */
+    static MessageArchive createArchive(AppConfig config) {
+        AppConfig.ArchiveConfig cfg = config.archive();
+        if (!cfg.enabled()) {
+            return null;
+        }
+        return new MessageArchive(
+                Path.of(cfg.dir()),
+                new NumberNormalizer(config.routing().countryCode(), config.routing().nationalDigits()),
+                Duration.ofDays(cfg.retentionDays()),
+                cfg.segmentMb() * 1024L * 1024L,
+                Duration.ofMillis(cfg.segmentMs()),
+                cfg.queueCapacity());
+    }
+
+    /**
+     * Reply affinity over the modems of {@code routing}, loaded from and snapshotted to
+     * {@code routing.affinityFile}; null if {@code affinityCapacity} is 0.
+     */
+    static ReplyAffinity createReplyAffinity(AppConfig.RoutingConfig cfg, RoutingSmsGateway routing) {
+        if (cfg.affinityCapacity() <= 0) {
+            return null;
+        }
+        ReplyAffinity affinity = new ReplyAffinity(
+                routing.getTable().getNormalizer(),
+                routing.getModems().stream().map(RoutingSmsGateway.Modem::getName).toList(),
+                cfg.affinityCapacity(),
+                Duration.ofMillis(cfg.affinityTtlMs()));
+        if (!cfg.affinityFile().isBlank()) {
+            affinity.start(Path.of(cfg.affinityFile()), Duration.ofMillis(cfg.affinitySnapshotMs()));
+        }
+        routing.setAffinity(affinity);
+        return affinity;
+    }
+
+    static RouteTable createRouteTable(AppConfig.RoutingConfig routing, List<String> modems) {
+        return RouteTable.build(routing.countryCode(), routing.nationalDigits(),
+                routing.groups(), routing.routes(), routing.defaultRoute(), modems);
+    }
+
+    static AtModemSmsGateway createModemGateway(AppConfig.SmsConfig sms) {
+        return createModemGateway(sms, sms.portName(), sms.baudRate(), sms.baudStateFile());
+    }
+
+    private static AtModemSmsGateway createModemGateway(AppConfig.SmsConfig sms, String portName, int baudRate,
+                                                        String baudFile) {
+        AtModemSmsGateway gateway = new AtModemSmsGateway(portName, baudRate,
+                ModemCharset.from(sms.charset()),
+                "rtscts".equalsIgnoreCase(sms.flowControl()),
+                sms.writeChunkBytes());
+        if (sms.maxBaudRate() > 0) {
+            gateway.setAutoBaud(sms.maxBaudRate(), baudFile.isBlank() ? null : Path.of(baudFile));
+        }
+        gateway.setDirectInbound("direct".equalsIgnoreCase(sms.inboundMode()));
+        return gateway;
+    }
+
+    static SmsRestClient createRestClient(AppConfig.ApiConfig api, String baseUrl) {
+        return new SmsRestClient(
+                baseUrl,
+                api.user(),
+                api.password(),
+                SmsRestClient.WireMode.from(api.wireMode()),
+                api.gzipMinBytes(),
+                new SmsRestClient.Timeouts(
+                        Duration.ofMillis(api.connectTimeoutMs()),
+                        Duration.ofMillis(api.pollTimeoutMs()),
+                        Duration.ofMillis(api.postTimeoutMs()),
+                        Duration.ofMillis(api.idleWarmupMs())),
+                new CircuitBreaker(api.breakerFailureThreshold(), Duration.ofMillis(api.breakerOpenMs()))
+        );
+    }
+
+    static SmsPollingService createPollingService(AppConfig.SmsConfig sms, SmsGateway gateway,
+                                                  BlockingQueue<SmsMessage> queue) {
+        return new SmsPollingService(
+                gateway,
+                Duration.of(sms.pollIntervalMs(), ChronoUnit.MILLIS),
+                queue, sms.poolRetryCount(), sms.sendRetryDelayMs()
+        );
+    }
+
+    static SmsDispatchService createDispatchService(AppConfig.SmsConfig sms, BlockingQueue<SmsMessage> queue,
+                                                    SmsRestClient client) {
+        return new SmsDispatchService(
+                queue,
+                client,
+                sms.sendMaxRetries(),
+                sms.sendRetryDelayMs(),
+                sms.dispatchWorkers(),
+                sms.dispatchStripeCapacity()
+        );
+    }
+
+    static OutgoingSmsService createOutgoingService(AppConfig.SmsConfig sms, SmsSender gateway,
+                                                    SmsRestClient client) {
+        return new OutgoingSmsService(
+                gateway,
+                client,
+                sms.outgoingPollIntervalMs(),
+                sms.outgoingBurst(),
+                new OutgoingScheduler(sms.outgoingQueueCapacity(), sms.outgoingAgingMs())
+        );
+    }
+
+    /**
+     * Handoff queue between polling and dispatch. {@code spill} never blocks polling (overflow to disk),
+     * {@code ring} is the lock-free ring buffer, {@code array} the plain blocking queue.
+     */
+    static BlockingQueue<SmsMessage> createQueue(AppConfig.SmsConfig sms, boolean training) {
+        String type = sms.queueType().trim().toLowerCase();
+        // spill bez adresáře (nebo v tréninku) = obyčejná fronta v paměti
+        if (type.equals("spill") && (training || sms.spillDir().isBlank())) {
+            type = "array";
+        }
+        BlockingQueue<SmsMessage> queue = switch (type) {
+            case "spill" -> new SpillingQueue(sms.queueCapacity(), Path.of(sms.spillDir()), sms.spillSegmentMessages());
+            case "ring" -> new RingBufferQueue<>(sms.queueCapacity(),
+                    RingBufferQueue.WaitStrategy.from(sms.queueWaitStrategy()));
+            case "array" -> new ArrayBlockingQueue<>(sms.queueCapacity());
+            default -> throw new IllegalArgumentException("Unknown sms.queueType '" + sms.queueType() + "'");
+        };
+        logger.info("Handoff queue: {} (capacity {})", type, sms.queueCapacity());
+        return queue;
+    }
+
+    private static RestLogAppender initRemoteLog(AppConfig.RemoteLogConfig remote, SmsRestClient client) {
+        if (!remote.enabled()) return null;
+
+        ch.qos.logback.classic.Logger rootLogger =
+                (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        RestLogAppender appender = new RestLogAppender(
+                client::sendLog,
+                remote.capacity(),
+                remote.batchSize(),
+                Duration.ofMillis(remote.flushIntervalMs()),
+                ch.qos.logback.classic.Level.toLevel(remote.level(), ch.qos.logback.classic.Level.INFO));
+        appender.setContext(rootLogger.getLoggerContext());
+        appender.start();
+        rootLogger.addAppender(appender);
+        logger.info("Remote log shipping enabled (level {}, batch {})", remote.level(), remote.batchSize());
+        return appender;
+    }
+
     private static void setLevel(ch.qos.logback.classic.Logger logger, String level) {
         try {
             logger.setLevel(ch.qos.logback.classic.Level.valueOf(level.toUpperCase()));
@@ -0,0 +1,448 @@
+package kfs.sc.sms.admin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import kfs.sc.sms.archive.ArchivedSms;
+import kfs.sc.sms.archive.MessageArchive;
+import kfs.sc.sms.at.RadioTelemetry;
+import kfs.sc.sms.json.JsonWriter;
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.model.SmsPriority;
+import kfs.sc.sms.routing.ReplyAffinity;
+import kfs.sc.sms.routing.RoutingSmsGateway;
+import kfs.sc.sms.service.LatencyTracer;
+import kfs.sc.sms.service.OutgoingSmsService;
+import kfs.sc.sms.service.RetryPolicy;
+import kfs.sc.sms.service.SmsDispatchService;
+import kfs.sc.sms.service.SmsPollingService;
+import kfs.sc.sms.service.SmsRestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Small admin HTTP endpoint for operating the gateway at runtime. Bound to loopback by default.
+ *
+ * <pre>
+ * GET  /status                              modem state, queue depth, in-flight, intervals, REST breaker
+ * POST /pause?service=polling|outgoing|dispatch
+ * POST /resume?service=...
+ * POST /poll?service=polling|outgoing       one poll right now
+ * POST /drain?timeoutMs=30000               pause polling, wait for the dispatch queue to empty
+ * POST /tune?pollIntervalMs=&amp;outgoingPollIntervalMs=&amp;sendMaxRetries=&amp;sendRetryDelayMs=&amp;dispatchWorkers=
+ * GET  /archive?number=&amp;from=&amp;to=&amp;limit=100   newest archived SMS, from/to as ISO date-time (default: last day)
+ * </pre>
+ * With a configured token every request needs header {@code X-Admin-Token}.
+ */
+public class AdminServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminServer.class);
+
+    private final SmsPollingService polling;
+    private final OutgoingSmsService outgoing;
+    private final SmsDispatchService dispatch;
+    private final BlockingQueue<SmsMessage> queue;
+    private final SmsRestClient client;
+    private final Supplier<String> modemState;
+    private final byte[] token;
+    private final HttpServer server;
+    private volatile RadioTelemetry radio;
+    private volatile LatencyTracer tracer;
+    private volatile RoutingSmsGateway routing;
+    private volatile MessageArchive archive;
+
+    public AdminServer(String host, int port, String token,
+                       SmsPollingService polling,
+                       OutgoingSmsService outgoing,
+                       SmsDispatchService dispatch,
+                       BlockingQueue<SmsMessage> queue,
+                       SmsRestClient client,
+                       Supplier<String> modemState) throws IOException {
+        this.polling = polling;
+        this.outgoing = outgoing;
+        this.dispatch = dispatch;
+        this.queue = queue;
+        this.client = client;
+        this.modemState = modemState;
+        this.token = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/status", handler("GET", this::status));
+        server.createContext("/pause", handler("POST", q -> toggle(q, true)));
+        server.createContext("/resume", handler("POST", q -> toggle(q, false)));
+        server.createContext("/poll", handler("POST", this::poll));
+        server.createContext("/drain", handler("POST", this::drain));
+        server.createContext("/tune", handler("POST", this::tune));
+        server.createContext("/archive", handler("GET", this::archive));
+        // dvě vlákna: /status odpovídá i během /drain
+        server.setExecutor(Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "AdminHttpThread");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    /**
+     * Adds the modem's radio values to {@code /status}.
+     */
+    public void setRadioTelemetry(RadioTelemetry radio) {
+        this.radio = radio;
+    }
+
+    /**
+     * Adds per-stage latency percentiles to {@code /status}.
+     */
+    public void setLatencyTracer(LatencyTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Adds per-modem outbound routing state to {@code /status} (null = single modem).
+     */
+    public void setRouting(RoutingSmsGateway routing) {
+        this.routing = routing;
+    }
+
+    /**
+     * Enables {@code /archive} and adds archive counters to {@code /status} (null = no archive).
+     */
+    public void setArchive(MessageArchive archive) {
+        this.archive = archive;
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Admin endpoint on http://{}:{}/status",
+                server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // ==========================
+    // Endpoints
+    // ==========================
+
+    private Response status(Map<String, String> query) {
+        RetryPolicy retry = dispatch.getRetryPolicy();
+        JsonWriter json = new JsonWriter(512).beginObject()
+                .field("modem", modemState.get())
+                .name("queue").beginObject()
+                .name("depth").value(queue.size())
+                .name("remainingCapacity").value(queue.remainingCapacity())
+                .endObject()
+                .name("polling").beginObject()
+                .name("paused").value(polling.isPaused())
+                .name("intervalMs").value(polling.getInterval().toMillis())
+                .endObject()
+                .name("outgoing").beginObject()
+                .name("paused").value(outgoing.isPaused())
+                .name("intervalMs").value(outgoing.getPollIntervalMs())
+                .name("inFlight").value(outgoing.getInFlight())
+                .name("burst").value(outgoing.isBurstEnabled())
+                .name("sendMsSingle").value(Math.round(outgoing.getSingleLatency().avgMs()))
+                .name("sendMsBurst").value(Math.round(outgoing.getBurstLatency().avgMs()))
+                .name("queuedOtp").value(outgoing.getQueued(SmsPriority.OTP))
+                .name("queuedNormal").value(outgoing.getQueued(SmsPriority.NORMAL))
+                .name("queuedBulk").value(outgoing.getQueued(SmsPriority.BULK))
+                .endObject()
+                .name("dispatch").beginObject()
+                .name("paused").value(dispatch.isPaused())
+                .name("inFlight").value(dispatch.getInFlight())
+                .name("workers").value(dispatch.getWorkers())
+                .name("maxRetries").value(retry.maxRetries())
+                .name("retryDelayMs").value(retry.delayMs())
+                .endObject()
+                .name("rest").beginObject()
+                .field("circuit", client.getCircuitBreaker().getState().name())
+                .field("wireMode", client.getEffectiveWireMode().name())
+                .name("bytesSent").value(client.getBytesSent())
+                .endObject();
+        RadioTelemetry r = radio;
+        if (r != null) {
+            json.name("radio").beginObject()
+                    .name("registered").value(r.isRegistered())
+                    .name("registration").value(r.getRegistration() == RadioTelemetry.UNKNOWN ? -1 : r.getRegistration())
+                    .name("signalDbm").value(r.getSignalDbm() == RadioTelemetry.UNKNOWN ? 0 : r.getSignalDbm())
+                    .field("operator", r.getOperator() == null ? "" : r.getOperator())
+                    .name("samples").value(r.getSamples())
+                    .name("skipped").value(r.getSkipped())
+                    .name("busyMs").value(r.getBusyNanos() / 1_000_000)
+                    .endObject();
+        }
+        RoutingSmsGateway rt = routing;
+        if (rt != null) {
+            long now = System.currentTimeMillis();
+            json.name("routing").beginObject()
+                    .name("fallbacks").value(rt.getFallbacks())
+                    .name("sticky").value(rt.getSticky())
+                    .name("stickyUnavailable").value(rt.getStickyUnavailable());
+            ReplyAffinity affinity = rt.getAffinity();
+            if (affinity != null) {
+                json.name("affinity").beginObject()
+                        .name("capacity").value(affinity.capacity())
+                        .name("hits").value(affinity.getHits())
+                        .name("misses").value(affinity.getMisses())
+                        .endObject();
+            }
+            for (RoutingSmsGateway.Modem modem : rt.getModems()) {
+                json.name(modem.getName()).beginObject()
+                        .name("available").value(modem.isAvailable())
+                        .name("saturated").value(modem.isSaturated(now))
+                        .name("sent").value(modem.getSent())
+                        .name("failed").value(modem.getFailed())
+                        .name("burstRefused").value(modem.isBurstRefused())
+                        .endObject();
+            }
+            json.endObject();
+        }
+        MessageArchive a = archive;
+        if (a != null) {
+            json.name("archive").beginObject()
+                    .name("archived").value(a.getArchived())
+                    .name("dropped").value(a.getDropped())
+                    .name("queued").value(a.getQueued())
+                    .name("segments").value(a.getSegments())
+                    .endObject();
+        }
+        LatencyTracer t = tracer;
+        if (t != null) {
+            json.name("latency").beginObject()
+                    .name("slow").value(t.getSlowCount());
+            for (LatencyTracer.Direction direction : LatencyTracer.Direction.values()) {
+                json.name(direction.name().toLowerCase()).beginObject();
+                for (LatencyTracer.Span span : LatencyTracer.Span.values()) {
+                    if (t.count(direction, span) > 0) {
+                        json.name(span.name().toLowerCase()).beginObject()
+                                .name("count").value(t.count(direction, span))
+                                .name("p50Ms").value(Math.round(t.percentileMs(direction, span, 0.5)))
+                                .name("p99Ms").value(Math.round(t.percentileMs(direction, span, 0.99)))
+                                .endObject();
+                    }
+                }
+                json.endObject();
+            }
+            json.endObject();
+        }
+        json.endObject();
+        return Response.ok(json.toString());
+    }
+
+    private Response toggle(Map<String, String> query, boolean pause) {
+        String service = query.getOrDefault("service", "");
+        switch (service) {
+            case "polling" -> {
+                if (pause) polling.pause(); else polling.resume();
+            }
+            case "outgoing" -> {
+                if (pause) outgoing.pause(); else outgoing.resume();
+            }
+            case "dispatch" -> {
+                if (pause) dispatch.pause(); else dispatch.resume();
+            }
+            default -> {
+                return Response.error(400, "unknown service '" + service + "'");
+            }
+        }
+        logger.info("Admin: {} {}", pause ? "pause" : "resume", service);
+        return Response.ok("{\"ok\":true}");
+    }
+
+    private Response poll(Map<String, String> query) {
+        String service = query.getOrDefault("service", "");
+        switch (service) {
+            case "polling" -> polling.pollNow();
+            case "outgoing" -> outgoing.pollNow();
+            default -> {
+                return Response.error(400, "unknown service '" + service + "'");
+            }
+        }
+        return Response.ok("{\"ok\":true}");
+    }
+
+    /**
+     * Stops reading new SMS from the modem and waits until dispatch has emptied the queue.
+     * Polling stays paused; resume it explicitly.
+     */
+    private Response drain(Map<String, String> query) throws InterruptedException {
+        long timeoutMs = Long.parseLong(query.getOrDefault("timeoutMs", "30000"));
+        polling.pause();
+        dispatch.resume();
+        long deadline = System.nanoTime() + Duration.ofMillis(timeoutMs).toNanos();
+        while ((!queue.isEmpty() || dispatch.getInFlight() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        JsonWriter json = new JsonWriter().beginObject()
+                .name("drained").value(queue.isEmpty() && dispatch.getInFlight() == 0)
+                .name("remaining").value(queue.size())
+                .endObject();
+        return Response.ok(json.toString());
+    }
+
+    private Response tune(Map<String, String> query) {
+        String pollInterval = query.get("pollIntervalMs");
+        String outgoingInterval = query.get("outgoingPollIntervalMs");
+        String maxRetries = query.get("sendMaxRetries");
+        String retryDelay = query.get("sendRetryDelayMs");
+        String workers = query.get("dispatchWorkers");
+
+        // nejdřív validace všeho, pak změna — žádné napůl použité nastavení
+        Long poll = positive(pollInterval);
+        Long out = positive(outgoingInterval);
+        Long workerCount = positive(workers);
+        RetryPolicy current = dispatch.getRetryPolicy();
+        RetryPolicy retry = new RetryPolicy(
+                maxRetries == null ? current.maxRetries() : Integer.parseInt(maxRetries),
+                retryDelay == null ? current.delayMs() : Long.parseLong(retryDelay));
+        if (retry.maxRetries() < 0 || retry.delayMs() < 0) {
+            throw new IllegalArgumentException("retry values must not be negative");
+        }
+
+        if (poll != null) polling.setInterval(Duration.ofMillis(poll));
+        if (out != null) outgoing.setPollInterval(out);
+        dispatch.setRetryPolicy(retry);
+        if (workerCount != null) dispatch.setWorkers(workerCount.intValue());
+        logger.info("Admin: tune {}", query);
+        return status(query);
+    }
+
+    private Response archive(Map<String, String> query) {
+        MessageArchive a = archive;
+        if (a == null) {
+            return Response.error(404, "archive disabled");
+        }
+        long to = time(query.get("to"), System.currentTimeMillis());
+        long from = time(query.get("from"), to - Duration.ofDays(1).toMillis());
+        int limit = Integer.parseInt(query.getOrDefault("limit", "100"));
+        if (limit <= 0 || limit > 10_000) {
+            throw new IllegalArgumentException("limit must be 1..10000: " + limit);
+        }
+        List<ArchivedSms> found = a.query(query.get("number"), from, to, limit);
+        JsonWriter json = new JsonWriter(256 + found.size() * 128).beginObject()
+                .name("count").value(found.size())
+                .name("messages").beginArray();
+        for (ArchivedSms sms : found) {
+            json.beginObject()
+                    .field("direction", sms.direction().name())
+                    .field("time", Instant.ofEpochMilli(sms.time()).toString())
+                    .field("number", sms.number())
+                    .field("ref", sms.ref())
+                    .field("text", sms.text())
+                    .endObject();
+        }
+        json.endArray().endObject();
+        return Response.ok(json.toString());
+    }
+
+    private static long time(String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("not an ISO date-time: " + value);
+        }
+    }
+
+    private static Long positive(String value) {
+        if (value == null) return null;
+        long v = Long.parseLong(value);
+        if (v <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + value);
+        }
+        return v;
+    }
+
+    // ==========================
+    // Plumbing
+    // ==========================
+
+    private interface Endpoint {
+        Response handle(Map<String, String> query) throws Exception;
+    }
+
+    private record Response(int status, String body) {
+        static Response ok(String body) {
+            return new Response(200, body);
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, new JsonWriter().beginObject().field("error", message).endObject().toString());
+        }
+    }
+
+    private HttpHandler handler(String method, Endpoint endpoint) {
+        return exchange -> {
+            Response response;
+            try {
+                if (!authorized(exchange)) {
+                    response = Response.error(401, "missing or wrong X-Admin-Token");
+                } else if (!method.equals(exchange.getRequestMethod())) {
+                    response = Response.error(405, method + " expected");
+                } else {
+                    response = endpoint.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+                }
+            } catch (IllegalArgumentException e) {
+                response = Response.error(400, e.getMessage());
+            } catch (Exception e) {
+                logger.warn("Admin request {} failed", exchange.getRequestURI(), e);
+                response = Response.error(500, String.valueOf(e.getMessage()));
+            }
+            send(exchange, response);
+        };
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        if (token == null) {
+            return true;
+        }
+        String given = exchange.getRequestHeaders().getFirst("X-Admin-Token");
+        return given != null && MessageDigest.isEqual(token, given.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Map<String, String> parseQuery(String raw) {
+        Map<String, String> query = new HashMap<>();
+        if (raw == null || raw.isEmpty()) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status(), body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package kfs.sc.sms.archive;
+
+import kfs.sc.sms.routing.NumberNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * One append-only archive file {@code archive-N.seg}: header (magic, version, creation time) followed by
+ * length-prefixed {@link ArchivedSms} records.
+ * <p>
+ * Index: a sparse zone map (offset and min/max time of every {@value #BLOCK} records) and a number index
+ * (normalized number → record offset). While the segment is written both live in memory; {@link #seal()}
+ * writes them to {@code archive-N.idx} with the number pairs sorted, so a sealed segment keeps only the
+ * zone map in memory and looks numbers up by binary search in the file. A segment without a matching
+ * index file is rebuilt by scanning it (a torn last record is cut off).
+ */
+final class ArchiveSegment {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveSegment.class);
+
+    static final String PREFIX = "archive-";
+    static final String SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int BLOCK = 64;
+
+    private static final int MAGIC = 0x4b46534d; // "KFSM"
+    private static final int INDEX_MAGIC = 0x4b465349; // "KFSI"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int PAIR = 12;
+
+    final long seq;
+    final Path path;
+    final Path indexPath;
+    final long created;
+
+    private long[] blockOffset = new long[8];
+    private long[] blockMin = new long[8];
+    private long[] blockMax = new long[8];
+    private int blocks;
+    private int count;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private long size;
+    // zapsáno do OS, jen to vidí dotazy
+    private volatile long committed;
+
+    // aktivní segment: index čísel v paměti; zapečetěný: seřazené páry v indexPath od pairsStart
+    private long[] keys = new long[64];
+    private int[] offsets = new int[64];
+    private int pairs;
+    private long pairsStart = -1;
+
+    private DataOutputStream out;
+
+    private ArchiveSegment(long seq, Path path, long created) {
+        this.seq = seq;
+        this.path = path;
+        this.indexPath = path.resolveSibling(PREFIX + seq + INDEX_SUFFIX);
+        this.created = created;
+    }
+
+    static Path path(Path dir, long seq) {
+        return dir.resolve(PREFIX + seq + SUFFIX);
+    }
+
+    /**
+     * New empty segment open for {@link #append}.
+     */
+    static ArchiveSegment create(Path dir, long seq, long nowMillis) throws IOException {
+        ArchiveSegment segment = new ArchiveSegment(seq, path(dir, seq), nowMillis);
+        segment.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(segment.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+        segment.out.writeInt(MAGIC);
+        segment.out.writeInt(VERSION);
+        segment.out.writeLong(nowMillis);
+        segment.out.flush();
+        segment.size = HEADER;
+        segment.committed = HEADER;
+        return segment;
+    }
+
+    /**
+     * Existing segment: from its index file if that matches the data, otherwise rebuilt by a scan.
+     * The result is not open for append; {@link #reopen()} or {@link #seal()} it.
+     */
+    static ArchiveSegment open(Path path, long seq, NumberNormalizer normalizer) throws IOException {
+        long created;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown archive segment format: " + path);
+            }
+            created = in.readLong();
+        }
+        ArchiveSegment segment = new ArchiveSegment(seq, path, created);
+        if (!segment.loadIndex()) {
+            segment.rebuild(normalizer);
+        }
+        return segment;
+    }
+
+    private boolean loadIndex() {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            long dataSize = in.readLong();
+            if (dataSize != Files.size(path)) {
+                return false;
+            }
+            count = in.readInt();
+            minTime = in.readLong();
+            maxTime = in.readLong();
+            blocks = in.readInt();
+            blockOffset = new long[Math.max(1, blocks)];
+            blockMin = new long[blockOffset.length];
+            blockMax = new long[blockOffset.length];
+            for (int i = 0; i < blocks; i++) {
+                blockOffset[i] = in.readLong();
+                blockMin[i] = in.readLong();
+                blockMax[i] = in.readLong();
+            }
+            pairs = in.readInt();
+            pairsStart = 4 + 4 + 8 + 4 + 8 + 8 + 4 + (long) blocks * 24 + 4;
+            keys = null;
+            offsets = null;
+            size = dataSize;
+            committed = dataSize;
+            return true;
+        } catch (IOException e) {
+            logger.warn("Archive index {} unreadable, rebuilding: {}", indexPath, e.getMessage());
+            return false;
+        }
+    }
+
+    private void rebuild(NumberNormalizer normalizer) throws IOException {
+        long fileSize = Files.size(path);
+        long pos = HEADER;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            in.skipNBytes(HEADER);
+            while (pos + 4 <= fileSize) {
+                int len = in.readInt();
+                if (len <= 0 || pos + 4 + len > fileSize) {
+                    break;
+                }
+                byte[] record = in.readNBytes(len);
+                ArchivedSms sms;
+                try {
+                    sms = ArchivedSms.read(new DataInputStream(new ByteArrayInputStream(record)));
+                } catch (IOException e) {
+                    break;
+                }
+                index(normalizer.toLong(sms.number()), pos, sms.time());
+                pos += 4 + len;
+            }
+        }
+        if (pos < fileSize) {
+            logger.warn("Archive segment {}: torn record at {} cut off ({} B)", path, pos, fileSize - pos);
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ch.truncate(pos);
+            }
+        }
+        size = pos;
+        committed = pos;
+    }
+
+    /**
+     * Continues appending to a recovered segment.
+     */
+    void reopen() throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+    }
+
+    // ==========================
+    // Writing (archive writer thread)
+    // ==========================
+
+    /**
+     * Appends one encoded record; visible to queries after {@link #flush()}.
+     *
+     * @param key normalized number ({@link NumberNormalizer#toLong}), 0 = not indexed
+     */
+    synchronized void append(byte[] record, int length, long key, long time) throws IOException {
+        out.writeInt(length);
+        out.write(record, 0, length);
+        index(key, size, time);
+        size += 4 + length;
+    }
+
+    private void index(long key, long offset, long time) {
+        if (count % BLOCK == 0) {
+            if (blocks == blockOffset.length) {
+                blockOffset = Arrays.copyOf(blockOffset, blocks * 2);
+                blockMin = Arrays.copyOf(blockMin, blocks * 2);
+                blockMax = Arrays.copyOf(blockMax, blocks * 2);
+            }
+            blockOffset[blocks] = offset;
+            blockMin[blocks] = time;
+            blockMax[blocks] = time;
+            blocks++;
+        } else {
+            blockMin[blocks - 1] = Math.min(blockMin[blocks - 1], time);
+            blockMax[blocks - 1] = Math.max(blockMax[blocks - 1], time);
+        }
+        if (key != 0) {
+            if (pairs == keys.length) {
+                keys = Arrays.copyOf(keys, pairs * 2);
+                offsets = Arrays.copyOf(offsets, pairs * 2);
+            }
+            keys[pairs] = key;
+            offsets[pairs] = (int) offset;
+            pairs++;
+        }
+        count++;
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+    }
+
+    void flush() throws IOException {
+        out.flush();
+        committed = size;
+    }
+
+    /**
+     * Closes the data file and writes the index file; afterwards only the zone map stays in memory.
+     */
+    synchronized void seal() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            committed = size;
+        }
+        // stabilní řazení: offsety stejného čísla zůstanou vzestupně
+        int[] order = IntStream.range(0, pairs).boxed()
+                .sorted(Comparator.comparingLong(i -> keys[i]))
+                .mapToInt(Integer::intValue).toArray();
+        Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            idx.writeInt(INDEX_MAGIC);
+            idx.writeInt(VERSION);
+            idx.writeLong(size);
+            idx.writeInt(count);
+            idx.writeLong(minTime);
+            idx.writeLong(maxTime);
+            idx.writeInt(blocks);
+            for (int i = 0; i < blocks; i++) {
+                idx.writeLong(blockOffset[i]);
+                idx.writeLong(blockMin[i]);
+                idx.writeLong(blockMax[i]);
+            }
+            idx.writeInt(pairs);
+            for (int i : order) {
+                idx.writeLong(keys[i]);
+                idx.writeInt(offsets[i]);
+            }
+        }
+        Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        pairsStart = 4 + 4 + 8 + 4 + 8 + 8 + 4 + (long) blocks * 24 + 4;
+        keys = null;
+        offsets = null;
+    }
+
+    synchronized void delete() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        Files.deleteIfExists(indexPath);
+        Files.deleteIfExists(path);
+    }
+
+    synchronized boolean isSealed() {
+        return pairsStart >= 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized long maxTime() {
+        return maxTime;
+    }
+
+    // ==========================
+    // Queries (any thread)
+    // ==========================
+
+    /**
+     * Feeds records with {@code from <= time <= to} (and number {@code key}, unless 0) to {@code visitor}
+     * in file order.
+     *
+     * @return false if the visitor stopped the scan
+     */
+    boolean scan(long from, long to, long key, Predicate<ArchivedSms> visitor) throws IOException {
+        long[] starts;
+        long[] ends;
+        int n;
+        synchronized (this) {
+            if (count == 0 || maxTime < from || minTime > to) {
+                return true;
+            }
+            long limit = committed;
+            starts = new long[blocks];
+            ends = new long[blocks];
+            n = 0;
+            for (int i = 0; i < blocks && blockOffset[i] < limit; i++) {
+                if (blockMax[i] >= from && blockMin[i] <= to) {
+                    starts[n] = blockOffset[i];
+                    ends[n] = i + 1 < blocks ? Math.min(blockOffset[i + 1], limit) : limit;
+                    n++;
+                }
+            }
+        }
+        if (n == 0) {
+            return true;
+        }
+        try {
+            return key == 0 ? scanBlocks(starts, ends, n, from, to, visitor)
+                    : scanNumber(numberOffsets(key), from, to, visitor);
+        } catch (NoSuchFileException e) {
+            return true; // smazáno retencí během dotazu
+        }
+    }
+
+    private boolean scanBlocks(long[] starts, long[] ends, int n, long from, long to,
+                               Predicate<ArchivedSms> visitor) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int b = 0; b < n; b++) {
+                ch.position(starts[b]);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 16 * 1024));
+                for (long pos = starts[b]; pos < ends[b]; ) {
+                    int len = in.readInt();
+                    ArchivedSms sms = ArchivedSms.read(in);
+                    pos += 4 + len;
+                    if (sms.time() >= from && sms.time() <= to && !visitor.test(sms)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean scanNumber(int[] found, long from, long to, Predicate<ArchivedSms> visitor) throws IOException {
+        if (found.length == 0) {
+            return true;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
+            for (int offset : found) {
+                raf.seek(offset);
+                byte[] record = new byte[raf.readInt()];
+                raf.readFully(record);
+                ArchivedSms sms = ArchivedSms.read(new DataInputStream(new ByteArrayInputStream(record)));
+                if (sms.time() >= from && sms.time() <= to && !visitor.test(sms)) {
+                    return false;
+                }
+            }
+        } catch (java.io.FileNotFoundException e) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return true;
+    }
+
+    /**
+     * Offsets of records for {@code key}, ascending.
+     */
+    int[] numberOffsets(long key) throws IOException {
+        int total;
+        long start;
+        synchronized (this) {
+            if (pairsStart < 0) {
+                long limit = committed;
+                int[] found = new int[8];
+                int n = 0;
+                for (int i = 0; i < pairs; i++) {
+                    if (keys[i] == key && offsets[i] < limit) {
+                        if (n == found.length) {
+                            found = Arrays.copyOf(found, n * 2);
+                        }
+                        found[n++] = offsets[i];
+                    }
+                }
+                return Arrays.copyOf(found, n);
+            }
+            total = pairs;
+            start = pairsStart;
+        }
+        try (FileChannel ch = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer pair = ByteBuffer.allocate(PAIR);
+            int lo = 0;
+            int hi = total;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (readPair(ch, start, mid, pair) < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int[] found = new int[8];
+            int n = 0;
+            for (int i = lo; i < total && readPair(ch, start, i, pair) == key; i++) {
+                if (n == found.length) {
+                    found = Arrays.copyOf(found, n * 2);
+                }
+                found[n++] = pair.getInt(8);
+            }
+            return Arrays.copyOf(found, n);
+        }
+    }
+
+    private static long readPair(FileChannel ch, long start, int i, ByteBuffer pair) throws IOException {
+        pair.clear();
+        long position = start + (long) i * PAIR;
+        while (pair.hasRemaining()) {
+            if (ch.read(pair, position + pair.position()) < 0) {
+                throw new IOException("Archive index truncated");
+            }
+        }
+        return pair.getLong(0);
+    }
+}
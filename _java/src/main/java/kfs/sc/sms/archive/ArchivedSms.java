@@ -0,0 +1,44 @@
+package kfs.sc.sms.archive;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * One archived SMS.
+ *
+ * @param time   epoch millis: modem receive time for inbound (arrival if unknown), send time for outbound
+ * @param number sender of inbound, destination of outbound, as given
+ * @param ref    server id of outbound SMS, empty for inbound
+ */
+public record ArchivedSms(Direction direction, long time, String number, String ref, String text) {
+
+    public enum Direction {
+        IN, OUT
+    }
+
+    public ArchivedSms {
+        if (direction == null) {
+            throw new IllegalArgumentException("direction must not be null");
+        }
+        number = number == null ? "" : number;
+        ref = ref == null ? "" : ref;
+        text = text == null ? "" : text;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeByte(direction.ordinal());
+        out.writeLong(time);
+        out.writeUTF(number);
+        out.writeUTF(ref);
+        out.writeUTF(text);
+    }
+
+    static ArchivedSms read(DataInputStream in) throws IOException {
+        int direction = in.readByte();
+        if (direction < 0 || direction >= Direction.values().length) {
+            throw new IOException("Bad archive record direction " + direction);
+        }
+        return new ArchivedSms(Direction.values()[direction], in.readLong(), in.readUTF(), in.readUTF(), in.readUTF());
+    }
+}
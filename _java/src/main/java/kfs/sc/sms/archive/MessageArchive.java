@@ -0,0 +1,392 @@
+package kfs.sc.sms.archive;
+
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.routing.NumberNormalizer;
+import kfs.sc.sms.service.SmsRestClient;
+import kfs.sc.sms.utils.KfsSmsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Local archive of delivered inbound and sent outbound SMS, queryable by number and time.
+ * <p>
+ * {@link #inbound}/{@link #outbound} only put the message into a bounded queue (full = dropped and
+ * counted), so delivery never waits for the disk. A writer thread takes it in batches, appends to the
+ * current {@link ArchiveSegment} and flushes once per batch. A segment is sealed (index written) when it
+ * reaches {@code segmentBytes} or gets older than {@code segmentSpan}; sealed segments whose newest
+ * record is older than {@code retention} are deleted whole.
+ */
+public class MessageArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchive.class);
+
+    private static final int BATCH = 1000;
+    private static final long RETENTION_CHECK_MS = 60_000;
+
+    private final Path dir;
+    private final NumberNormalizer normalizer;
+    private final long retentionMs;
+    private final long segmentBytes;
+    private final long segmentSpanMs;
+    private final BlockingQueue<ArchivedSms> queue;
+    private final List<ArchiveSegment> segments = new ArrayList<>();
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+    private final DataOutputStream encoder = new DataOutputStream(buffer);
+    private ArchiveSegment active;
+    private long nextSeq = 1;
+    private long lastRetentionCheck;
+    private volatile boolean running;
+    private Thread writer;
+
+    public MessageArchive(Path dir, NumberNormalizer normalizer, Duration retention,
+                          long segmentBytes, Duration segmentSpan, int queueCapacity) {
+        this.dir = dir;
+        this.normalizer = normalizer;
+        this.retentionMs = retention.toMillis();
+        // offset záznamu v indexu je int
+        this.segmentBytes = Math.min(Math.max(64 * 1024, segmentBytes), Integer.MAX_VALUE);
+        this.segmentSpanMs = segmentSpan.toMillis();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        try {
+            Files.createDirectories(dir);
+            recover();
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot open archive directory " + dir, e);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                ArchiveSegment.PREFIX + "*" + ArchiveSegment.SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    seqs.add(Long.parseLong(name.substring(ArchiveSegment.PREFIX.length(),
+                            name.length() - ArchiveSegment.SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Archive: ignoring {}", file);
+                }
+            }
+        }
+        seqs.sort(Comparator.naturalOrder());
+        for (long seq : seqs) {
+            Path file = ArchiveSegment.path(dir, seq);
+            try {
+                ArchiveSegment segment = ArchiveSegment.open(file, seq, normalizer);
+                segments.add(segment);
+            } catch (IOException e) {
+                logger.warn("Archive segment {} unreadable, skipped: {}", file, e.getMessage());
+            }
+            nextSeq = seq + 1;
+        }
+        // jen poslední segment se dál zapisuje, dřívější bez indexu (pád) se zapečetí
+        for (int i = 0; i < segments.size(); i++) {
+            ArchiveSegment segment = segments.get(i);
+            if (segment.isSealed()) {
+                continue;
+            }
+            if (i == segments.size() - 1) {
+                segment.reopen();
+                active = segment;
+            } else {
+                segment.seal();
+            }
+        }
+        if (!segments.isEmpty()) {
+            logger.info("Archive: {} segments, {} SMS in {}", segments.size(),
+                    segments.stream().mapToLong(ArchiveSegment::count).sum(), dir);
+        }
+    }
+
+    // ==========================
+    // Archiving (hot path: enqueue only)
+    // ==========================
+
+    /**
+     * Archives an inbound SMS delivered to the server; false if the archive queue is full.
+     */
+    public boolean inbound(SmsMessage msg) {
+        long time = msg.timestamp() != null ? msg.timestamp().toInstant().toEpochMilli() : System.currentTimeMillis();
+        return add(new ArchivedSms(ArchivedSms.Direction.IN, time, msg.sender(), "", msg.text()));
+    }
+
+    /**
+     * Archives an outbound SMS sent by the modem; false if the archive queue is full.
+     */
+    public boolean outbound(SmsRestClient.OutgoingSms sms) {
+        return add(new ArchivedSms(ArchivedSms.Direction.OUT, System.currentTimeMillis(), sms.numb(), sms.id(), sms.text()));
+    }
+
+    public boolean add(ArchivedSms sms) {
+        if (!queue.offer(sms)) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // ==========================
+    // Writer
+    // ==========================
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::run, "MessageArchiveWriter");
+        writer.setDaemon(true);
+        writer.start();
+        logger.info("MessageArchive started in {}", dir);
+    }
+
+    /**
+     * Writes what is queued, flushes and stops the writer; waits at most {@code timeout}.
+     */
+    public void stop(Duration timeout) {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = writer;
+        }
+        try {
+            thread.join(timeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warn("Archive writer did not finish in time, {} SMS not archived", queue.size());
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        List<ArchivedSms> batch = new ArrayList<>(BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                ArchivedSms first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH - 1);
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastRetentionCheck >= RETENTION_CHECK_MS) {
+                lastRetentionCheck = now;
+                maintain(now);
+            }
+        }
+        ArchiveSegment segment = active;
+        if (segment != null) {
+            try {
+                segment.flush();
+            } catch (IOException e) {
+                logger.error("Archive flush failed: {}", e.getMessage());
+            }
+        }
+        logger.info("MessageArchive stopped");
+    }
+
+    private void write(List<ArchivedSms> batch) {
+        try {
+            for (ArchivedSms sms : batch) {
+                buffer.reset();
+                sms.write(encoder);
+                if (active == null || active.size() + 4 + buffer.size() > segmentBytes) {
+                    roll(System.currentTimeMillis());
+                }
+                active.append(buffer.toByteArray(), buffer.size(), normalizer.toLong(sms.number()), sms.time());
+            }
+            active.flush();
+            archived.add(batch.size());
+        } catch (IOException | RuntimeException e) {
+            // rozepsaný segment se zapečetí, další dávka začne nový
+            logger.error("Archive write failed, {} SMS not archived: {}", batch.size(), e.getMessage());
+            dropped.add(batch.size());
+            sealActive();
+        }
+    }
+
+    private void roll(long nowMillis) throws IOException {
+        sealActive();
+        ArchiveSegment segment = ArchiveSegment.create(dir, nextSeq++, nowMillis);
+        synchronized (segments) {
+            segments.add(segment);
+        }
+        active = segment;
+    }
+
+    private void sealActive() {
+        ArchiveSegment segment = active;
+        active = null;
+        if (segment == null) {
+            return;
+        }
+        try {
+            if (segment.count() == 0) {
+                synchronized (segments) {
+                    segments.remove(segment);
+                }
+                segment.delete();
+            } else {
+                segment.seal();
+            }
+        } catch (IOException e) {
+            logger.error("Cannot seal archive segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    /**
+     * Seals the current segment once it is older than the span and deletes segments past retention.
+     */
+    void maintain(long nowMillis) {
+        if (active != null && nowMillis - active.created >= segmentSpanMs) {
+            sealActive();
+        }
+        List<ArchiveSegment> expired = new ArrayList<>();
+        synchronized (segments) {
+            for (ArchiveSegment segment : segments) {
+                if (segment != active && segment.maxTime() < nowMillis - retentionMs) {
+                    expired.add(segment);
+                }
+            }
+            segments.removeAll(expired);
+        }
+        for (ArchiveSegment segment : expired) {
+            try {
+                segment.delete();
+                logger.info("Archive: segment {} past retention deleted ({} SMS)", segment.path, segment.count());
+            } catch (IOException e) {
+                logger.warn("Cannot delete archive segment {}: {}", segment.path, e.getMessage());
+            }
+        }
+    }
+
+    // ==========================
+    // Queries
+    // ==========================
+
+    /**
+     * Archived SMS with {@code from <= time <= to} (epoch millis), of {@code number} if given
+     * (any format, matched after normalization): the newest {@code limit} of them, sorted by time.
+     * <p>
+     * Segments are read newest first; once {@code limit} are found, only records newer than the oldest
+     * kept one can get in, so the zone maps skip the rest of older segments.
+     */
+    public List<ArchivedSms> query(String number, long from, long to, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        long key = 0;
+        if (number != null && !number.isBlank()) {
+            key = normalizer.toLong(number);
+            if (key == 0) {
+                return List.of();
+            }
+        }
+        PriorityQueue<ArchivedSms> newest = new PriorityQueue<>(Comparator.comparingLong(ArchivedSms::time));
+        List<ArchiveSegment> snapshot = snapshot();
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            // segmenty se časově překrývají (čas modemu u příchozích), starší se proto jen zužuje, nekončí
+            long lower = newest.size() < limit ? from : Math.max(from, newest.peek().time() + 1);
+            if (lower > to) {
+                break;
+            }
+            scan(snapshot.get(i), key, lower, to, sms -> {
+                if (newest.size() < limit) {
+                    newest.add(sms);
+                } else if (sms.time() > newest.peek().time()) {
+                    newest.poll();
+                    newest.add(sms);
+                }
+                return true;
+            });
+        }
+        List<ArchivedSms> result = new ArrayList<>(newest);
+        result.sort(Comparator.comparingLong(ArchivedSms::time));
+        return result;
+    }
+
+    /**
+     * Range scan: every archived SMS with {@code from <= time <= to} in archive order, until
+     * {@code visitor} returns false.
+     */
+    public void scan(long from, long to, Predicate<ArchivedSms> visitor) {
+        scan(0, from, to, visitor);
+    }
+
+    private void scan(long key, long from, long to, Predicate<ArchivedSms> visitor) {
+        for (ArchiveSegment segment : snapshot()) {
+            if (!scan(segment, key, from, to, visitor)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean scan(ArchiveSegment segment, long key, long from, long to, Predicate<ArchivedSms> visitor) {
+        try {
+            return segment.scan(from, to, key, visitor);
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot read archive segment " + segment.path, e);
+        }
+    }
+
+    private List<ArchiveSegment> snapshot() {
+        synchronized (segments) {
+            return new ArrayList<>(segments);
+        }
+    }
+
+    // ==========================
+    // Stats
+    // ==========================
+
+    public long getArchived() {
+        return archived.sum();
+    }
+
+    /**
+     * SMS not archived: queue full or a write error.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public int getSegments() {
+        synchronized (segments) {
+            return segments.size();
+        }
+    }
+}
@@ -1,19 +1,132 @@
 package kfs.sc.sms.at;
 
 import com.fazecast.jSerialComm.SerialPort;
+import kfs.sc.sms.utils.ModemCommandException;
 import kfs.sc.sms.utils.ModemException;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
+/**
+ * Not thread-safe (reuses its write buffer); {@link ModemSupervisor} serialises all modem access.
+ */
 public class AtCommandExecutor {
 
+    private static final byte CTRL_Z = 26;
+
     private final SerialPort port;
+    private final InputStream input;
+    private final OutputStream output;
+
+    private ModemCharset charset = ModemCharset.GSM;
+    private int chunkBytes;
+    private long nanosPerByte;
+    private byte[] buffer = new byte[512];
+
+    // +CMT (přímé doručení): hlavička a tělo se z odpovědí vyříznou a jdou listeneru
+    private BiConsumer<String, String> cmtListener;
+    private String cmtHeader;
+    private final StringBuilder idle = new StringBuilder();
 
     public AtCommandExecutor(SerialPort port) {
         this.port = port;
+        this.input = null;
+        this.output = null;
+    }
+
+    // Bez sériového portu, např. nad SimulatedModem
+    public AtCommandExecutor(InputStream input, OutputStream output) {
+        this.port = null;
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Charset of SMS bodies, must match what was set by {@code AT+CSCS}.
+     */
+    public void setCharset(ModemCharset charset) {
+        this.charset = charset;
+    }
+
+    public ModemCharset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Splits message bodies into {@code chunkBytes} writes, each followed by the time the UART needs
+     * to shift it out at {@code baudRate} (8N1 = 10 bits per byte). {@code chunkBytes <= 0} = one write.
+     */
+    public void setPacing(int baudRate, int chunkBytes) {
+        this.chunkBytes = chunkBytes;
+        this.nanosPerByte = baudRate > 0 ? 10_000_000_000L / baudRate : 0;
+    }
+
+    /**
+     * Receives {@code +CMT} deliveries ({@code header}, {@code body}) found while reading command
+     * responses or in {@link #pollUnsolicited()}; they never show up in a response.
+     */
+    public void setCmtListener(BiConsumer<String, String> cmtListener) {
+        this.cmtListener = cmtListener;
+    }
+
+    /**
+     * Reads what the modem sent on its own since the last command, without sending anything.
+     * An incomplete line is kept and continues in the next command's response.
+     */
+    public void pollUnsolicited() throws ModemException {
+        InputStream is = input();
+        try {
+            while (is.available() > 0) {
+                int b = is.read();
+                if (b == -1) break;
+                idle.append((char) b);
+                if (b == '\n') {
+                    int kept = endOfLine(idle, 0);
+                    if (kept > 0) {
+                        // jiné URC (RING, +CEREG ...) tu nikdo nečeká
+                        idle.setLength(0);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ModemException("Cannot read from modem", e);
+        }
+    }
+
+    /**
+     * Handles a completed line {@code sb[lineStart..]}; +CMT lines are cut out.
+     *
+     * @return start of the next line
+     */
+    private int endOfLine(StringBuilder sb, int lineStart) {
+        if (cmtListener == null) {
+            return sb.length();
+        }
+        if (cmtHeader != null) {
+            // řádek po hlavičce je celé tělo (i prázdné)
+            int end = sb.length() - 1;
+            if (end > lineStart && sb.charAt(end - 1) == '\r') {
+                end--;
+            }
+            String header = cmtHeader;
+            cmtHeader = null;
+            String body = sb.substring(lineStart, end);
+            sb.setLength(lineStart);
+            cmtListener.accept(header, body);
+            return lineStart;
+        }
+        String line = sb.substring(lineStart).trim();
+        if (line.startsWith("+CMT:")) {
+            cmtHeader = line;
+            sb.setLength(lineStart);
+            return lineStart;
+        }
+        return sb.length();
     }
 
     // Pošli AT příkaz a čekej na OK
@@ -22,6 +135,15 @@ public class AtCommandExecutor {
         return readUntil("OK", timeout);
     }
 
+    /**
+     * Like {@link #send}, but a final {@code ERROR} / {@code +CME ERROR} / {@code +CMS ERROR} line ends
+     * the wait at once with a {@link ModemCommandException} instead of a timeout.
+     */
+    public String sendChecked(String command, Duration timeout) throws ModemException {
+        writeLine(command);
+        return read("OK", timeout, true);
+    }
+
     // Pošli AT příkaz a čekej na prompt (např. >)
     public String sendExpectPrompt(String command, char prompt, Duration timeout) throws ModemException {
         writeLine(command);
@@ -33,19 +155,60 @@ public class AtCommandExecutor {
     }
 
     // Pošli zprávu (SMS body) + CTRL-Z
-    public void writeMessage(String message) throws Exception {
-        OutputStream os = port.getOutputStream();
-        os.write(message.getBytes());
-        os.write(26); // CTRL+Z
-        os.flush();
+    public void writeMessage(String message) throws ModemException {
+        byte[] buf = buffer(charset.maxBytes(message.length()) + 1);
+        int len = charset.encode(message, buf, 0);
+        buf[len++] = CTRL_Z;
+        try {
+            writePaced(buf, len);
+        } catch (IOException e) {
+            throw new ModemException("cannot write message", e);
+        }
+    }
+
+    private void writePaced(byte[] buf, int len) throws IOException {
+        OutputStream os = output();
+        if (chunkBytes <= 0 || len <= chunkBytes) {
+            os.write(buf, 0, len);
+            os.flush();
+            return;
+        }
+        for (int off = 0; off < len; off += chunkBytes) {
+            int n = Math.min(chunkBytes, len - off);
+            long start = System.nanoTime();
+            os.write(buf, off, n);
+            os.flush();
+            if (off + n < len) {
+                // počkat, až UART chunk odvysílá, modem má malý buffer
+                long until = start + n * nanosPerByte;
+                long left;
+                while ((left = until - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(left);
+                }
+            }
+        }
+    }
+
+    private byte[] buffer(int size) {
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, buffer.length * 2)];
+        }
+        return buffer;
     }
 
     // Čtení dat až do očekávaného stringu
     @SuppressWarnings("java:S2925")
     public String readUntil(String expected, Duration timeout) throws ModemException {
-        InputStream is = port.getInputStream();
+        return read(expected, timeout, false);
+    }
+
+    private String read(String expected, Duration timeout, boolean failOnError) throws ModemException {
+        InputStream is = input();
         long end = System.currentTimeMillis() + timeout.toMillis();
-        StringBuilder sb = new StringBuilder();
+        // nedočtený řádek z pollUnsolicited (např. půlka hlavičky +CMT) pokračuje tady
+        StringBuilder sb = new StringBuilder(idle);
+        idle.setLength(0);
+        int lineStart = 0;
 
         try {
             while (System.currentTimeMillis() < end) {
@@ -53,7 +216,17 @@ public class AtCommandExecutor {
                     int b = is.read();
                     if (b == -1) continue;
                     sb.append((char) b);
-                    if (sb.toString().contains(expected)) {
+                    if (b == '\n') {
+                        int next = endOfLine(sb, lineStart);
+                        if (failOnError && next > lineStart) {
+                            String line = sb.substring(lineStart, next).trim();
+                            if (isError(line)) {
+                                throw new ModemCommandException(line);
+                            }
+                        }
+                        lineStart = next;
+                    } else if (cmtHeader == null && sb.indexOf(expected, lineStart) >= 0) {
+                        // tělo +CMT (např. "OK") odpověď neukončí
                         return sb.toString();
                     }
                 }
@@ -66,13 +239,58 @@ public class AtCommandExecutor {
         throw new ModemException("Timeout waiting for: " + expected + ". Got: " + sb);
     }
 
+    private static boolean isError(String line) {
+        return line.equals("ERROR") || line.startsWith("+CME ERROR") || line.startsWith("+CMS ERROR");
+    }
+
+    // Čekání na jeden řádek (typicky URC jako +CPIN: READY), null při timeoutu
+    public String awaitLine(Predicate<String> matcher, Duration timeout) throws ModemException {
+        InputStream is = input();
+        long end = System.currentTimeMillis() + timeout.toMillis();
+        StringBuilder line = new StringBuilder();
+
+        try {
+            while (System.currentTimeMillis() < end) {
+                while (is.available() > 0) {
+                    int b = is.read();
+                    if (b == -1) continue;
+                    if (b == '\n' || b == '\r') {
+                        String candidate = line.toString().trim();
+                        line.setLength(0);
+                        if (!candidate.isEmpty() && matcher.test(candidate)) {
+                            return candidate;
+                        }
+                    } else {
+                        line.append((char) b);
+                    }
+                }
+                Thread.sleep(20);
+            }
+        } catch (InterruptedException | IOException e) {
+            throw new ModemException("Cannot read from modem", e);
+        }
+        return null;
+    }
+
     private void writeLine(String line) throws ModemException {
         try {
-            OutputStream os = port.getOutputStream();
-            os.write((line + "\r").getBytes());
+            // příkazy jsou vždy ASCII, bez alokace nového řetězce
+            byte[] buf = buffer(line.length() + 1);
+            int len = ModemCharset.IRA.encode(line, buf, 0);
+            buf[len++] = '\r';
+            OutputStream os = output();
+            os.write(buf, 0, len);
             os.flush();
         } catch (IOException e) {
             throw new ModemException("cannot write line: " + line, e);
         }
     }
+
+    private InputStream input() {
+        return port != null ? port.getInputStream() : input;
+    }
+
+    private OutputStream output() {
+        return port != null ? port.getOutputStream() : output;
+    }
 }
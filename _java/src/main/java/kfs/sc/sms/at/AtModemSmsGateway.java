@@ -1,69 +1,290 @@
 package kfs.sc.sms.at;
 
 import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+import kfs.sc.sms.model.ModemState;
 import kfs.sc.sms.model.SmsGateway;
 import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.utils.ModemCommandException;
 import kfs.sc.sms.utils.ModemException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * AT-command modem on a serial port. Commands are serialized on the instance: without a {@link ModemSupervisor}
+ * ({@code openModem: false}, the CDS training run) the polling and outgoing threads share one gateway.
+ */
 public class AtModemSmsGateway implements SmsGateway {
 
     private static final Logger logger = LoggerFactory.getLogger(AtModemSmsGateway.class);
 
+    private static final Duration SIM_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration REGISTRATION_TIMEOUT = Duration.ofMinutes(2);
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 2000;
+    // v režimu +CMT se SIM čte jen každý N-tý poll (class 2 zprávy, zprávy z doby offline)
+    private static final int SIM_FALLBACK_EVERY = 12;
+
     private final String portName;
     private final int baudRate;
+    private final ModemCharset charset;
+    private final boolean rtsCts;
+    private final int writeChunkBytes;
     private SerialPort port;
     private AtCommandExecutor executor;
+    private Consumer<ModemState> stateListener = s -> {};
+    private Runnable disconnectListener = () -> {};
+
+    private int maxBaudRate;
+    private Path baudStateFile;
+    private volatile int currentBaudRate;
+
+    private boolean directInbound;
+    private volatile boolean direct;
+    private boolean ackRequired;
+    private int pendingAcks;
+    private int pollsSinceSimRead;
+    private final ConcurrentLinkedQueue<SmsMessage> delivered = new ConcurrentLinkedQueue<>();
 
     public AtModemSmsGateway(String portName, int baudRate) {
+        this(portName, baudRate, ModemCharset.GSM, false, 0);
+    }
+
+    /**
+     * @param rtsCts          hardware flow control; the modem then throttles us itself and pacing is off
+     * @param writeChunkBytes SMS body write chunk paced to {@code baudRate}, 0 = one write
+     */
+    public AtModemSmsGateway(String portName, int baudRate, ModemCharset charset, boolean rtsCts,
+                             int writeChunkBytes) {
         this.portName = portName;
         this.baudRate = baudRate;
+        this.charset = charset;
+        this.rtsCts = rtsCts;
+        this.writeChunkBytes = writeChunkBytes;
     }
 
     public void setExecutor(AtCommandExecutor executor) {
         this.executor = executor;
     }
 
+    /**
+     * Receives the SIM/network phases reached while {@link #open(String)} runs.
+     */
+    public void setStateListener(Consumer<ModemState> stateListener) {
+        this.stateListener = stateListener;
+    }
+
+    /**
+     * Called from the jSerialComm event thread when the USB device disappears.
+     */
+    public void setDisconnectListener(Runnable disconnectListener) {
+        this.disconnectListener = disconnectListener;
+    }
+
+    /**
+     * Negotiates the fastest link rate up to {@code maxBaudRate} on {@link #open}; the result is saved to
+     * {@code baudStateFile} and tried first on the next open. {@code maxBaudRate <= 0} = stay at the
+     * configured rate.
+     */
+    public void setAutoBaud(int maxBaudRate, Path baudStateFile) {
+        this.maxBaudRate = maxBaudRate;
+        this.baudStateFile = baudStateFile;
+    }
+
+    /**
+     * Rate of the open link (after negotiation), 0 when closed.
+     */
+    public int getCurrentBaudRate() {
+        return currentBaudRate;
+    }
+
+    /**
+     * Incoming SMS routed straight to us ({@code +CMT}) instead of SIM storage; applied on {@link #open}.
+     */
+    public void setDirectInbound(boolean directInbound) {
+        this.directInbound = directInbound;
+    }
+
+    public boolean isDirectInbound() {
+        return direct;
+    }
+
+    public String getPortName() {
+        return portName;
+    }
+
+    public boolean isOpen() {
+        return port != null && port.isOpen();
+    }
+
     @Override
     public void open(String pin) throws ModemException {
         try {
+            // s auto-baud začínáme na rychlosti z minulého běhu
+            int startRate = maxBaudRate > 0 ? BaudNegotiator.load(baudStateFile, baudRate) : baudRate;
             port = SerialPort.getCommPort(portName);
-            port.setBaudRate(this.baudRate);
+            port.setBaudRate(startRate);
             port.setNumDataBits(8);
             port.setNumStopBits(1);
             port.setParity(SerialPort.NO_PARITY);
-            port.setFlowControl(SerialPort.FLOW_CONTROL_DISABLED);
+            port.setFlowControl(rtsCts
+                    ? SerialPort.FLOW_CONTROL_RTS_ENABLED | SerialPort.FLOW_CONTROL_CTS_ENABLED
+                    : SerialPort.FLOW_CONTROL_DISABLED);
 
             if (!port.openPort()) {
                 throw new ModemException("Cannot open port " + portName);
             }
 
+            port.addDataListener(new SerialPortDataListener() {
+                @Override
+                public int getListeningEvents() {
+                    return SerialPort.LISTENING_EVENT_PORT_DISCONNECTED;
+                }
+
+                @Override
+                public void serialEvent(SerialPortEvent event) {
+                    logger.warn("Port {} disconnected", portName);
+                    disconnectListener.run();
+                }
+            });
+
             executor = new AtCommandExecutor(port);
 
-            // basic init
-            executor.send("AT", Duration.ofSeconds(2));
-            executor.send("ATE0", Duration.ofSeconds(2));
+            // basic init (ATE0 slouží zároveň jako handshake)
+            int rate = handshake(startRate);
             executor.send("AT+CMGF=1", Duration.ofSeconds(2));
+            initCharset();
+            if (maxBaudRate > rate) {
+                SerialPort p = port;
+                rate = new BaudNegotiator(executor, p::setBaudRate, maxBaudRate, baudStateFile).negotiate(rate);
+            }
+            currentBaudRate = rate;
+            executor.setPacing(rate, rtsCts ? 0 : writeChunkBytes);
 
             ensureSimReady(pin);
+            initDirectInbound();
 
         } catch (Exception e) {
             throw new ModemException("Failed to initialize modem", e);
         }
     }
 
-    @SuppressWarnings("java:S2925")
-    private void ensureSimReady(String pin) throws ModemException {
+    /**
+     * ATE0 at {@code startRate}; a modem reset to its default answers at the configured rate instead.
+     */
+    private int handshake(int startRate) throws ModemException {
+        try {
+            executor.send("ATE0", Duration.ofSeconds(2));
+            return startRate;
+        } catch (ModemException e) {
+            if (startRate == baudRate) {
+                throw e;
+            }
+            logger.warn("No answer at saved {} Bd, falling back to {} Bd", startRate, baudRate);
+            port.setBaudRate(baudRate);
+            executor.send("ATE0", Duration.ofSeconds(2));
+            return baudRate;
+        }
+    }
+
+    /**
+     * Sets {@code AT+CSCS} to the configured charset; UCS2 also switches the data coding
+     * scheme to 16-bit ({@code AT+CSMP ...,8}) so the SMS arrives as Unicode.
+     */
+    void initCharset() throws ModemException {
+        executor.send("AT+CSCS=\"" + charset.name() + "\"", Duration.ofSeconds(2));
+        if (charset == ModemCharset.UCS2) {
+            executor.send("AT+CSMP=17,167,0,8", Duration.ofSeconds(2));
+        }
+        executor.setCharset(charset);
+    }
+
+    /**
+     * {@code AT+CNMI=2,2}: new SMS arrive inline as {@code +CMT}, no CMGL/CMGD round-trips.
+     * With SMS service 1 ({@code AT+CSMS}) each one has to be acknowledged by {@code AT+CNMA}.
+     * A modem that refuses stays on SIM storage.
+     */
+    void initDirectInbound() {
+        direct = false;
+        pendingAcks = 0;
+        if (!directInbound) {
+            return;
+        }
+        executor.setCmtListener(this::onCmt);
+        try {
+            ackRequired = smsService(executor.send("AT+CSMS?", Duration.ofSeconds(2))) == 1;
+            executor.send("AT+CNMI=2,2,0,0,0", Duration.ofSeconds(2));
+            direct = true;
+            pollsSinceSimRead = SIM_FALLBACK_EVERY; // první poll vyčte i SIM
+            logger.info("Direct SMS delivery (+CMT) enabled{}", ackRequired ? ", acknowledged by AT+CNMA" : "");
+        } catch (ModemException e) {
+            executor.setCmtListener(null);
+            logger.warn("Direct SMS delivery not available, using SIM storage: {}", e.getMessage());
+        }
+    }
+
+    private void onCmt(String header, String body) {
+        SmsMessage message = SmsParser.parseCmt(header, body);
+        if (message == null) {
+            logger.warn("Cannot parse direct SMS header: {}", header);
+        } else {
+            delivered.add(decode(message));
+        }
+        // potvrdit i nečitelnou, opakované doručení by dopadlo stejně
+        if (ackRequired) {
+            pendingAcks++;
+        }
+    }
+
+    /**
+     * {@code AT+CNMA} for every {@code +CMT} queued since the last call. Runs right after the command
+     * or poll that received it: until acknowledged the network holds further deliveries and then
+     * retransmits, so waiting for the server round-trip would stall the inbound path.
+     */
+    private void acknowledgePending() {
+        while (pendingAcks > 0) {
+            // odpověď na CNMA může přinést další +CMT, ten zvýší pendingAcks
+            pendingAcks--;
+            try {
+                executor.send("AT+CNMA", Duration.ofSeconds(2));
+            } catch (ModemException e) {
+                // bez potvrzení síť zprávu doručí znovu; nesmí vést k opakovanému vložení do fronty
+                logger.warn("AT+CNMA failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * {@code +CSMS: <service>,...}, -1 if missing.
+     */
+    static int smsService(String response) {
+        for (String line : response.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.startsWith("+CSMS:")) {
+                try {
+                    return Integer.parseInt(line.substring(6).split(",")[0].trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    void ensureSimReady(String pin) throws ModemException {
         logger.info("check PIN");
-        // 1. základní handshake
-        executor.send("AT", Duration.ofSeconds(2));
-        executor.send("ATE0", Duration.ofSeconds(2));
 
-        // 2. zjistit stav SIM
+        // 1. zjistit stav SIM
+        stateListener.accept(ModemState.WAITING_FOR_SIM);
         String cpinResponse = executor.send("AT+CPIN?", Duration.ofSeconds(5));
 
         if (cpinResponse.contains("READY")) {
@@ -74,20 +295,16 @@ public class AtModemSmsGateway implements SmsGateway {
                 throw new IllegalStateException("SIM requires PIN but no PIN provided.");
             }
 
-            System.out.println("Sending SIM PIN...");
+            logger.info("Sending SIM PIN...");
             executor.send("AT+CPIN=\"" + pin + "\"", Duration.ofSeconds(5));
 
-            // modem může chvíli nereagovat
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                throw new ModemException("Cannot wait", e);
-            }
-
-            // znovu ověřit
-            String verify = executor.send("AT+CPIN?", Duration.ofSeconds(5));
-            if (!verify.contains("READY")) {
-                throw new IllegalStateException("PIN was not accepted: " + verify);
+            // modem ohlásí +CPIN: READY sám, dotaz je jen fallback
+            boolean ready = awaitReadiness(
+                    line -> line.startsWith("+CPIN:") && line.contains("READY"),
+                    () -> executor.send("AT+CPIN?", Duration.ofSeconds(5)).contains("READY"),
+                    SIM_TIMEOUT);
+            if (!ready) {
+                throw new IllegalStateException("PIN was not accepted");
             }
 
             logger.info("SIM unlocked.");
@@ -99,43 +316,111 @@ public class AtModemSmsGateway implements SmsGateway {
             throw new ModemException("Unknown CPIN response: " + cpinResponse);
         }
 
-        // 3. čekání na registraci do sítě (LTE Cat-M může trvat déle)
-        logger.info("Waiting for network registration...");
+        // 2. čekání na registraci do sítě (LTE Cat-M může trvat déle)
+        stateListener.accept(ModemState.WAITING_FOR_NETWORK);
+        try {
+            // zapne URC +CEREG: <stat> při změně registrace
+            executor.send("AT+CEREG=1", Duration.ofSeconds(2));
+        } catch (ModemException e) {
+            logger.debug("AT+CEREG=1 not supported: {}", e.getMessage());
+        }
 
-        long start = System.currentTimeMillis();
-        long timeout = 120_000; // 2 min timeout
+        if (isRegistered(executor.send("AT+CEREG?", Duration.ofSeconds(5)))) {
+            logger.info("Network already registered.");
+            return;
+        }
 
-        while (System.currentTimeMillis() - start < timeout) {
+        logger.info("Waiting for network registration...");
+        boolean registered = awaitReadiness(
+                line -> line.startsWith("+CEREG:") && isRegistered(line),
+                () -> isRegistered(executor.send("AT+CEREG?", Duration.ofSeconds(5))),
+                REGISTRATION_TIMEOUT);
+        if (!registered) {
+            throw new ModemException("Network registration timeout.");
+        }
+        logger.info("Network registered.");
+    }
 
-            String reg = executor.send("AT+CEREG?", Duration.ofSeconds(5));
+    @FunctionalInterface
+    private interface ReadinessCheck {
+        boolean check() throws ModemException;
+    }
 
-            if (reg.contains(",1") || reg.contains(",5")) {
-                System.out.println("Network registered.");
-                return;
+    /**
+     * Waits for an unsolicited result code; between the waits the state is queried
+     * with exponential backoff in case the modem does not report it on its own.
+     */
+    private boolean awaitReadiness(Predicate<String> urc, ReadinessCheck fallback, Duration timeout)
+            throws ModemException {
+        long end = System.currentTimeMillis() + timeout.toMillis();
+        long backoff = INITIAL_BACKOFF_MS;
+
+        while (System.currentTimeMillis() < end) {
+            long wait = Math.min(backoff, Math.max(1, end - System.currentTimeMillis()));
+            if (executor.awaitLine(urc, Duration.ofMillis(wait)) != null) {
+                return true;
             }
-
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                throw new ModemException("Cannot wait", e);
+            if (fallback.check()) {
+                return true;
             }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
         }
+        return false;
+    }
 
-        throw new ModemException("Network registration timeout.");
+    /**
+     * Parses both the query response ({@code +CEREG: <n>,<stat>[,...]})
+     * and the URC ({@code +CEREG: <stat>[,"tac",...]}); 1 = home, 5 = roaming.
+     */
+    static boolean isRegistered(String response) {
+        if (response == null) {
+            return false;
+        }
+        for (String line : response.split("\\r?\\n")) {
+            line = line.trim();
+            if (!line.startsWith("+CEREG:")) {
+                continue;
+            }
+            String[] parts = line.substring(7).trim().split(",");
+            String stat = parts.length >= 2 && !parts[1].trim().startsWith("\"")
+                    ? parts[1].trim()
+                    : parts[0].trim();
+            if ("1".equals(stat) || "5".equals(stat)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 
     @Override
     public void close() {
+        direct = false;
+        currentBaudRate = 0;
         if (port != null && port.isOpen()) {
+            port.removeDataListener();
             port.closePort();
         }
     }
 
+    /**
+     * Raw AT command, used by the supervisor for liveness probes.
+     */
+    public synchronized String execute(String command, Duration timeout) throws ModemException {
+        if (executor == null) {
+            throw new ModemException("Modem is not open");
+        }
+        try {
+            return executor.send(command, timeout);
+        } finally {
+            acknowledgePending();
+        }
+    }
+
     @Override
-    public void sendSms(String number, String message) throws ModemException {
+    public synchronized void sendSms(String number, String message) throws ModemException {
         try {
-            executor.sendExpectPrompt("AT+CMGS=\"" + number + "\"", '>', Duration.ofSeconds(2));
+            executor.sendExpectPrompt("AT+CMGS=\"" + charset.encodeParameter(number) + "\"", '>', Duration.ofSeconds(2));
             executor.writeMessage(message);
             String response = executor.readUntil("OK", Duration.ofSeconds(10));
             if (!response.contains("+CMGS")) {
@@ -143,11 +428,55 @@ public class AtModemSmsGateway implements SmsGateway {
             }
         } catch (Exception e) {
             throw new ModemException("Failed to send SMS", e);
+        } finally {
+            acknowledgePending();
         }
     }
 
+    /**
+     * {@code AT+CMMS=2} keeps the relay link between messages, {@code AT+CMMS=0} releases it.
+     * A modem without CMMS answers {@code ERROR}, reported as {@link ModemCommandException}.
+     */
     @Override
-    public List<SmsMessage> readAll() throws ModemException {
+    public synchronized void setBurst(boolean on) throws ModemException {
+        try {
+            executor.sendChecked("AT+CMMS=" + (on ? 2 : 0), Duration.ofSeconds(2));
+        } finally {
+            acknowledgePending();
+        }
+    }
+
+    @Override
+    public synchronized List<SmsMessage> readAll() throws ModemException {
+        if (!direct) {
+            return readStored();
+        }
+        // +CMT mohly přijít i během jiných příkazů, pollUnsolicited je bez round-tripu
+        executor.pollUnsolicited();
+        acknowledgePending();
+        List<SmsMessage> messages = drainReceived();
+        if (++pollsSinceSimRead >= SIM_FALLBACK_EVERY) {
+            pollsSinceSimRead = 0;
+            messages.addAll(readStored());
+            acknowledgePending();
+        }
+        return messages;
+    }
+
+    /**
+     * {@code +CMT} received during other commands (e.g. {@link #sendSms}) and already acknowledged.
+     */
+    @Override
+    public List<SmsMessage> drainReceived() {
+        List<SmsMessage> messages = new ArrayList<>();
+        SmsMessage message;
+        while ((message = delivered.poll()) != null) {
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private List<SmsMessage> readStored() throws ModemException {
         try {
             String response = executor.send("AT+CMGL=\"ALL\"", Duration.ofSeconds(5));
             return parseMessages(response);
@@ -156,12 +485,21 @@ public class AtModemSmsGateway implements SmsGateway {
         }
     }
 
+    /**
+     * Removes a stored SMS; a directly delivered one ({@link SmsParser#DIRECT_INDEX}) is not stored and
+     * was already acknowledged when it arrived.
+     */
     @Override
-    public void delete(int index) throws ModemException {
+    public synchronized void delete(int index) throws ModemException {
+        if (index == SmsParser.DIRECT_INDEX) {
+            return;
+        }
         try {
             executor.send("AT+CMGD=" + index, Duration.ofSeconds(2));
         } catch (Exception e) {
             throw new ModemException("Failed to delete SMS", e);
+        } finally {
+            acknowledgePending();
         }
     }
 
@@ -171,7 +509,20 @@ public class AtModemSmsGateway implements SmsGateway {
         }
 
         List<String> lines = List.of(response.split("\\r?\\n"));
-        return SmsParser.parseCmglResponse(lines);
+        List<SmsMessage> messages = SmsParser.parseCmglResponse(lines);
+        if (charset != ModemCharset.UCS2) {
+            return messages;
+        }
+        return messages.stream().map(this::decode).toList();
+    }
+
+    // v UCS2 chodí odesílatel i text jako hex
+    private SmsMessage decode(SmsMessage m) {
+        if (charset != ModemCharset.UCS2) {
+            return m;
+        }
+        return new SmsMessage(m.index(), m.status(), charset.decode(m.sender()), m.timestamp(),
+                charset.decode(m.text()), m.trace());
     }
 
 }
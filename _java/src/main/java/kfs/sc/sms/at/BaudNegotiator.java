@@ -0,0 +1,198 @@
+package kfs.sc.sms.at;
+
+import kfs.sc.sms.utils.ModemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Moves the serial link to the fastest rate the modem offers ({@code AT+IPR=?}) that passes
+ * a verification handshake. Failed rates fall back to the next lower one; the result is saved
+ * so the next start opens the port at that rate right away.
+ */
+public class BaudNegotiator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BaudNegotiator.class);
+
+    // pro rozsahy "(300-921600)" bereme běžné rychlosti
+    static final int[] STANDARD_RATES = {9600, 19200, 38400, 57600, 115200, 230400, 460800, 921600,
+            1_000_000, 2_000_000, 3_000_000, 4_000_000};
+    private static final int VERIFY_ROUNDS = 3;
+    private static final Duration VERIFY_TIMEOUT = Duration.ofMillis(500);
+    private static final long SETTLE_NANOS = Duration.ofMillis(100).toNanos();
+    private static final Pattern GROUP = Pattern.compile("\\(([^)]*)\\)");
+
+    private final AtCommandExecutor executor;
+    private final IntConsumer portRate;
+    private final int maxRate;
+    private final Path stateFile;
+
+    /**
+     * @param portRate  switches the local port speed
+     * @param stateFile where the negotiated rate is kept, null = not persisted
+     */
+    public BaudNegotiator(AtCommandExecutor executor, IntConsumer portRate, int maxRate, Path stateFile) {
+        this.executor = executor;
+        this.portRate = portRate;
+        this.maxRate = maxRate;
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * @param current rate the link works at now
+     * @return rate the link works at afterwards (on total failure {@code current})
+     */
+    public int negotiate(int current) throws ModemException {
+        List<Integer> candidates;
+        try {
+            candidates = candidates(supportedRates(executor.send("AT+IPR=?", Duration.ofSeconds(2))), current);
+        } catch (ModemException e) {
+            logger.info("AT+IPR=? not supported, staying at {} Bd", current);
+            return current;
+        }
+
+        for (int rate : candidates) {
+            try {
+                executor.send("AT+IPR=" + rate, Duration.ofSeconds(2));
+            } catch (ModemException e) {
+                logger.debug("Modem refused {} Bd: {}", rate, e.getMessage());
+                continue;
+            }
+            portRate.accept(rate);
+            if (verify()) {
+                logger.info("Serial link switched {} -> {} Bd", current, rate);
+                save(rate);
+                return rate;
+            }
+            if (!revert(rate, current)) {
+                // modem nejspíš zůstal na nové rychlosti, další open to zkusí nejdřív
+                save(rate);
+                throw new ModemException("Lost modem after switching to " + rate + " Bd");
+            }
+        }
+        save(current);
+        return current;
+    }
+
+    /**
+     * Back to {@code previous} after a failed verification; the modem may or may not have switched.
+     */
+    private boolean revert(int failed, int previous) {
+        logger.warn("{} Bd not stable, falling back to {} Bd", failed, previous);
+        try {
+            executor.send("AT+IPR=" + previous, VERIFY_TIMEOUT);
+        } catch (ModemException e) {
+            // při nestabilní lince odpověď nemusí dorazit, modem přesto mohl přepnout
+        }
+        portRate.accept(previous);
+        if (verify()) {
+            return true;
+        }
+        // modem zůstal na nové rychlosti a přepnutí zpět neslyšel
+        portRate.accept(failed);
+        try {
+            executor.send("AT+IPR=" + previous, VERIFY_TIMEOUT);
+        } catch (ModemException e) {
+            logger.debug("Second fallback attempt: {}", e.getMessage());
+        }
+        portRate.accept(previous);
+        return verify();
+    }
+
+    private boolean verify() {
+        LockSupport.parkNanos(SETTLE_NANOS);
+        try {
+            for (int i = 0; i < VERIFY_ROUNDS; i++) {
+                executor.send("AT", VERIFY_TIMEOUT);
+            }
+            return true;
+        } catch (ModemException e) {
+            return false;
+        }
+    }
+
+    private List<Integer> candidates(TreeSet<Integer> supported, int current) {
+        List<Integer> result = new ArrayList<>();
+        for (int rate : supported.descendingSet()) {
+            if (rate > current && rate <= maxRate) {
+                result.add(rate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rates from {@code +IPR: (list)[,(list)]}; ranges {@code a-b} expand to {@link #STANDARD_RATES}.
+     * 0 (autobaud) is skipped.
+     */
+    static TreeSet<Integer> supportedRates(String response) {
+        TreeSet<Integer> rates = new TreeSet<>();
+        int start = response.indexOf("+IPR:");
+        if (start < 0) {
+            return rates;
+        }
+        Matcher m = GROUP.matcher(response.substring(start));
+        while (m.find()) {
+            for (String item : m.group(1).split(",")) {
+                item = item.trim();
+                try {
+                    int dash = item.indexOf('-');
+                    if (dash > 0) {
+                        int from = Integer.parseInt(item.substring(0, dash).trim());
+                        int to = Integer.parseInt(item.substring(dash + 1).trim());
+                        for (int rate : STANDARD_RATES) {
+                            if (rate >= from && rate <= to) {
+                                rates.add(rate);
+                            }
+                        }
+                    } else if (!item.isEmpty()) {
+                        int rate = Integer.parseInt(item);
+                        if (rate > 0) {
+                            rates.add(rate);
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    // neznámá položka
+                }
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * Rate saved by a previous run, {@code fallback} if none.
+     */
+    public static int load(Path stateFile, int fallback) {
+        if (stateFile == null || !Files.isRegularFile(stateFile)) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(Files.readString(stateFile).trim());
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Ignoring unreadable baud state {}: {}", stateFile, e.getMessage());
+            return fallback;
+        }
+    }
+
+    private void save(int rate) {
+        if (stateFile == null) {
+            return;
+        }
+        try {
+            Files.writeString(stateFile, Integer.toString(rate));
+        } catch (IOException e) {
+            logger.warn("Cannot save baud state {}: {}", stateFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package kfs.sc.sms.at;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+
+/**
+ * Text-mode character set as set by {@code AT+CSCS}. Command lines are always ASCII; this
+ * decides how SMS bodies (and for UCS2 also numbers) go over the wire.
+ */
+public enum ModemCharset {
+    /** GSM default alphabet; we send its ASCII subset, diacritics stripped ("č" → "c"). */
+    GSM,
+    /** International reference alphabet (ASCII), same treatment as GSM. */
+    IRA,
+    /** UCS2 as hex digits (4 per UTF-16 unit); the only set keeping Czech diacritics. */
+    UCS2;
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    public static ModemCharset from(String value) {
+        return value == null || value.isBlank() ? GSM : valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * Most bytes {@link #encode} produces for {@code chars} characters.
+     */
+    public int maxBytes(int chars) {
+        return this == UCS2 ? chars * 4 : chars * 3; // NFD může znak rozložit (hangul až na 3)
+    }
+
+    /**
+     * Encodes {@code text} into {@code buffer} from {@code offset}.
+     *
+     * @return offset after the last written byte
+     */
+    public int encode(CharSequence text, byte[] buffer, int offset) {
+        if (this == UCS2) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                buffer[offset++] = HEX[(c >> 12) & 0xf];
+                buffer[offset++] = HEX[(c >> 8) & 0xf];
+                buffer[offset++] = HEX[(c >> 4) & 0xf];
+                buffer[offset++] = HEX[c & 0xf];
+            }
+            return offset;
+        }
+        CharSequence ascii = text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7f) {
+                // jen když je potřeba, normalizace alokuje
+                ascii = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            char c = ascii.charAt(i);
+            if (c < 0x80) {
+                buffer[offset++] = (byte) c;
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                buffer[offset++] = '?';
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Value for a quoted command parameter (e.g. the number in {@code AT+CMGS}).
+     */
+    public String encodeParameter(String value) {
+        if (this != UCS2) {
+            return value;
+        }
+        byte[] out = new byte[maxBytes(value.length())];
+        return new String(out, 0, encode(value, out, 0), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Decodes a value received from the modem. UCS2 hex that does not look like hex
+     * (e.g. the modem fell back to another set) is returned unchanged.
+     */
+    public String decode(String value) {
+        if (this != UCS2 || value == null || value.isEmpty() || value.length() % 4 != 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length() / 4);
+        for (int i = 0; i < value.length(); i += 4) {
+            int c = 0;
+            for (int j = i; j < i + 4; j++) {
+                int digit = Character.digit(value.charAt(j), 16);
+                if (digit < 0) {
+                    return value;
+                }
+                c = (c << 4) | digit;
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,371 @@
+package kfs.sc.sms.at;
+
+import kfs.sc.sms.model.ModemSession;
+import kfs.sc.sms.model.ModemState;
+import kfs.sc.sms.model.SmsGateway;
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.utils.ModemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Owns the modem connection: opens it in the background, serializes AT commands,
+ * detects port loss and stuck commands and re-opens the port with exponential backoff.
+ * Services use it as a plain {@link SmsGateway}; state changes are published to listeners
+ * so that polling/outgoing can pause while the modem is recovering.
+ */
+public class ModemSupervisor implements ModemSession, SmsGateway {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModemSupervisor.class);
+
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(2);
+    private static final long WATCHDOG_INTERVAL_MS = 1000;
+    // telemetrie jen v mezerách: modem nepoužitý aspoň tak dlouho a nikdo nečeká na zámek
+    private static final long TELEMETRY_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final Duration TELEMETRY_TIMEOUT = Duration.ofSeconds(2);
+    private static final String[] TELEMETRY_COMMANDS = {"AT+CEREG?", "AT+CSQ", "AT+CEREG?", "AT+COPS?"};
+
+    private final AtModemSmsGateway gateway;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final long stuckMs;
+    private final int failureThreshold;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final AtomicReference<ModemState> state = new AtomicReference<>(ModemState.DISCONNECTED);
+    private final List<Consumer<ModemState>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean recovering = new AtomicBoolean(false);
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger reconnectAttempt = new AtomicInteger();
+
+    private volatile String pin;
+    private volatile long commandStartedNanos;
+    private volatile long lastCommandNanos = System.nanoTime();
+    private ScheduledExecutorService executor;
+
+    private final RadioTelemetry telemetry = new RadioTelemetry(120);
+    private long telemetryIntervalMs;
+    private int telemetryRound;
+
+    public ModemSupervisor(AtModemSmsGateway gateway,
+                           long minDelayMs,
+                           long maxDelayMs,
+                           long stuckMs,
+                           int failureThreshold) {
+        this.gateway = gateway;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.stuckMs = stuckMs;
+        this.failureThreshold = Math.max(1, failureThreshold);
+
+        gateway.setStateListener(this::setState);
+        gateway.setDisconnectListener(() -> recover("port disconnected"));
+    }
+
+    /**
+     * Registers a state listener; it is called immediately with the current state.
+     */
+    public void addStateListener(Consumer<ModemState> listener) {
+        listeners.add(listener);
+        listener.accept(state.get());
+    }
+
+    public ModemState getState() {
+        return state.get();
+    }
+
+    /**
+     * Samples signal/registration/operator every {@code intervalMs} when the modem is idle; 0 = off.
+     * Must be set before {@link #start()}.
+     */
+    public void setTelemetryInterval(long intervalMs) {
+        this.telemetryIntervalMs = intervalMs;
+    }
+
+    public RadioTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    // ==========================
+    // ModemSession
+    // ==========================
+
+    @Override
+    public void start() {
+        if (!running.compareAndSet(false, true)) return;
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ModemSupervisorThread");
+            t.setDaemon(true);
+            return t;
+        });
+
+        recovering.set(true);
+        executor.execute(this::connect);
+        executor.scheduleWithFixedDelay(this::watchdog, WATCHDOG_INTERVAL_MS, WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (telemetryIntervalMs > 0) {
+            executor.scheduleWithFixedDelay(this::sampleTelemetry, telemetryIntervalMs, telemetryIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+        logger.info("ModemSupervisor started for {}", gateway.getPortName());
+    }
+
+    @Override
+    public void stop() {
+        if (!running.compareAndSet(true, false)) return;
+
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("ModemSupervisor did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+        try {
+            gateway.close();
+        } finally {
+            lock.unlock();
+        }
+        setState(ModemState.DISCONNECTED);
+        logger.info("ModemSupervisor stopped");
+    }
+
+    @Override
+    public boolean isReady() {
+        return state.get() == ModemState.READY;
+    }
+
+    @Override
+    public String execute(String command, Duration timeout) throws ModemException {
+        return call(() -> gateway.execute(command, timeout));
+    }
+
+    // ==========================
+    // SmsGateway
+    // ==========================
+
+    /**
+     * Starts the supervisor; the port is opened asynchronously and retried until it succeeds.
+     */
+    @Override
+    public void open(String pin) {
+        this.pin = pin;
+        start();
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    @Override
+    public void sendSms(String number, String message) throws ModemException {
+        call(() -> {
+            gateway.sendSms(number, message);
+            return null;
+        });
+    }
+
+    @Override
+    public void setBurst(boolean on) throws ModemException {
+        call(() -> {
+            gateway.setBurst(on);
+            return null;
+        });
+    }
+
+    /**
+     * False while the last telemetry sample reports lost registration.
+     */
+    @Override
+    public boolean isNetworkAvailable() {
+        return telemetry.isRegistered();
+    }
+
+    @Override
+    public List<SmsMessage> readAll() throws ModemException {
+        return call(gateway::readAll);
+    }
+
+    @Override
+    public List<SmsMessage> drainReceived() {
+        return gateway.drainReceived(); // jen fronta v paměti, bez příkazu a bez zámku
+    }
+
+    @Override
+    public void delete(int index) throws ModemException {
+        call(() -> {
+            gateway.delete(index);
+            return null;
+        });
+    }
+
+    // ==========================
+    // Internals
+    // ==========================
+
+    @FunctionalInterface
+    private interface ModemCall<T> {
+        T run() throws ModemException;
+    }
+
+    private <T> T call(ModemCall<T> call) throws ModemException {
+        if (!isReady()) {
+            throw new ModemException("Modem not ready (" + state.get() + ")");
+        }
+
+        lock.lock();
+        commandStartedNanos = System.nanoTime();
+        try {
+            T result = call.run();
+            failures.set(0);
+            return result;
+        } catch (ModemException e) {
+            // chyba příkazu (např. +CMS ERROR) neznamená mrtvý port — ověříme to
+            if (!probe()) {
+                int count = failures.incrementAndGet();
+                logger.warn("Modem liveness probe failed ({}/{})", count, failureThreshold);
+                if (count >= failureThreshold) {
+                    recover("modem not responding");
+                }
+            }
+            throw e;
+        } finally {
+            commandStartedNanos = 0;
+            lastCommandNanos = System.nanoTime();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One telemetry query per round, only in an idle gap: never waits for the lock, so a send
+     * or poll is not delayed by more than the one short query already running.
+     */
+    void sampleTelemetry() {
+        if (!isReady() || lock.hasQueuedThreads()
+                || System.nanoTime() - lastCommandNanos < TELEMETRY_IDLE_NANOS
+                || !lock.tryLock()) {
+            telemetry.skipped();
+            return;
+        }
+        long start = System.nanoTime();
+        commandStartedNanos = start;
+        // bez registrace se ptáme jen na ni, ať se obnovení pozná hned
+        String command = telemetry.isRegistered()
+                ? TELEMETRY_COMMANDS[telemetryRound++ % TELEMETRY_COMMANDS.length]
+                : "AT+CEREG?";
+        try {
+            boolean registered = telemetry.isRegistered();
+            telemetry.update(command, gateway.execute(command, TELEMETRY_TIMEOUT), System.currentTimeMillis());
+            if (registered != telemetry.isRegistered()) {
+                logger.warn("Network registration {} (+CEREG stat {})",
+                        telemetry.isRegistered() ? "restored" : "lost", telemetry.getRegistration());
+            }
+        } catch (ModemException e) {
+            logger.debug("Telemetry {} failed: {}", command, e.getMessage());
+        } finally {
+            commandStartedNanos = 0;
+            telemetry.sampled(System.nanoTime() - start);
+            lock.unlock();
+        }
+    }
+
+    private boolean probe() {
+        if (!gateway.isOpen()) {
+            return false;
+        }
+        try {
+            gateway.execute("AT", PROBE_TIMEOUT);
+            return true;
+        } catch (ModemException e) {
+            return false;
+        }
+    }
+
+    private void watchdog() {
+        long started = commandStartedNanos;
+        if (started != 0 && System.nanoTime() - started > TimeUnit.MILLISECONDS.toNanos(stuckMs)) {
+            logger.warn("Modem command stuck for more than {} ms, closing port", stuckMs);
+            // zavření portu shodí visící čtení, zámek se pak uvolní
+            gateway.close();
+            recover("stuck command");
+            return;
+        }
+        if (isReady() && !gateway.isOpen()) {
+            recover("port closed");
+        }
+    }
+
+    private void recover(String reason) {
+        if (!running.get() || !recovering.compareAndSet(false, true)) {
+            return;
+        }
+        logger.warn("Modem recovery triggered: {}", reason);
+        setState(ModemState.DISCONNECTED);
+        executor.execute(this::connect);
+    }
+
+    private void connect() {
+        if (!running.get()) {
+            return;
+        }
+        setState(ModemState.INITIALIZING);
+
+        lock.lock();
+        try {
+            gateway.close();
+            gateway.open(pin);
+            telemetry.resetRegistration(); // open() čeká na registraci
+            failures.set(0);
+            reconnectAttempt.set(0);
+            recovering.set(false);
+            setState(ModemState.READY);
+            logger.info("Modem ready on {}", gateway.getPortName());
+        } catch (Exception e) {
+            setState(ModemState.ERROR);
+            long delay = nextDelay(reconnectAttempt.getAndIncrement());
+            logger.warn("Modem init failed ({}), retry in {} ms", e.getMessage(), delay);
+            if (running.get()) {
+                executor.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long nextDelay(int attempt) {
+        long delay = minDelayMs << Math.min(attempt, 16);
+        return Math.min(delay, maxDelayMs);
+    }
+
+    private void setState(ModemState newState) {
+        ModemState old = state.getAndSet(newState);
+        if (old == newState) {
+            return;
+        }
+        logger.info("Modem state {} -> {}", old, newState);
+        for (Consumer<ModemState> listener : listeners) {
+            try {
+                listener.accept(newState);
+            } catch (Exception e) {
+                logger.warn("Modem state listener failed", e);
+            }
+        }
+    }
+}
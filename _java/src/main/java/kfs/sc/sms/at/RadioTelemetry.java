@@ -0,0 +1,232 @@
+package kfs.sc.sms.at;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Last radio values of one modem ({@code AT+CSQ}, {@code AT+CEREG?}, {@code AT+COPS?}) and a short
+ * history in primitive rings (no boxing, no allocation per sample). Written by the supervisor's
+ * sampler, read by anybody.
+ */
+public class RadioTelemetry {
+
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final long[] historyTime;
+    private final short[] historyDbm;
+    private final byte[] historyReg;
+    private int head;
+    private int size;
+
+    private volatile int signalDbm = UNKNOWN;
+    private volatile int bitErrorRate = UNKNOWN;
+    private volatile int registration = UNKNOWN;
+    private volatile String operator;
+    private volatile long updatedMillis;
+
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+
+    public RadioTelemetry(int historySize) {
+        this.historyTime = new long[historySize];
+        this.historyDbm = new short[historySize];
+        this.historyReg = new byte[historySize];
+    }
+
+    /**
+     * Feeds the response of one telemetry command.
+     */
+    public void update(String command, String response, long nowMillis) {
+        switch (command) {
+            case "AT+CSQ" -> {
+                int[] csq = parseCsq(response);
+                if (csq != null) {
+                    signalDbm = csq[0];
+                    bitErrorRate = csq[1];
+                    append(nowMillis);
+                }
+            }
+            case "AT+CEREG?" -> {
+                int stat = parseRegistration(response);
+                if (stat != UNKNOWN) {
+                    registration = stat;
+                }
+            }
+            case "AT+COPS?" -> {
+                String op = parseOperator(response);
+                if (op != null) {
+                    operator = op;
+                }
+            }
+            default -> {
+                return;
+            }
+        }
+        updatedMillis = nowMillis;
+    }
+
+    void resetRegistration() {
+        registration = UNKNOWN;
+    }
+
+    private synchronized void append(long nowMillis) {
+        historyTime[head] = nowMillis;
+        historyDbm[head] = (short) (signalDbm == UNKNOWN ? Short.MIN_VALUE : signalDbm);
+        historyReg[head] = (byte) (registration == UNKNOWN ? -1 : registration);
+        head = (head + 1) % historyTime.length;
+        size = Math.min(size + 1, historyTime.length);
+    }
+
+    /**
+     * Signal history, oldest first; {@link Short#MIN_VALUE} = unknown.
+     */
+    public synchronized short[] signalHistory() {
+        short[] out = new short[size];
+        int start = (head - size + historyDbm.length) % historyDbm.length;
+        for (int i = 0; i < size; i++) {
+            out[i] = historyDbm[(start + i) % historyDbm.length];
+        }
+        return out;
+    }
+
+    /**
+     * Lowest signal seen within the history, {@link #UNKNOWN} if none.
+     */
+    public synchronized int minSignalDbm() {
+        int min = UNKNOWN;
+        for (int i = 0; i < size; i++) {
+            short v = historyDbm[i];
+            if (v != Short.MIN_VALUE && (min == UNKNOWN || v < min)) {
+                min = v;
+            }
+        }
+        return min;
+    }
+
+    public int getSignalDbm() {
+        return signalDbm;
+    }
+
+    public int getBitErrorRate() {
+        return bitErrorRate;
+    }
+
+    /**
+     * {@code <stat>} of {@code +CEREG}: 1 home, 5 roaming, 2 searching, 3 denied, 0/4 not registered.
+     */
+    public int getRegistration() {
+        return registration;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public long getUpdatedMillis() {
+        return updatedMillis;
+    }
+
+    /**
+     * False only when the last sample says the modem is not registered; unknown counts as registered.
+     */
+    public boolean isRegistered() {
+        int stat = registration;
+        return stat == UNKNOWN || stat == 1 || stat == 5;
+    }
+
+    // ==========================
+    // Overhead
+    // ==========================
+
+    void sampled(long nanos) {
+        samples.increment();
+        busyNanos.add(nanos);
+    }
+
+    void skipped() {
+        skipped.increment();
+    }
+
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * Sampling rounds given up because the modem was busy or just used.
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Total time the sampler held the modem.
+     */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    // ==========================
+    // Parsing
+    // ==========================
+
+    /**
+     * {@code +CSQ: <rssi>,<ber>} → {dBm, ber}; rssi 99 = unknown.
+     */
+    static int[] parseCsq(String response) {
+        String line = find(response, "+CSQ:");
+        if (line == null) {
+            return null;
+        }
+        String[] parts = line.split(",");
+        try {
+            int rssi = Integer.parseInt(parts[0].trim());
+            int ber = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 99;
+            return new int[]{rssi == 99 ? UNKNOWN : -113 + 2 * rssi, ber == 99 ? UNKNOWN : ber};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@code <stat>} from {@code +CEREG: <n>,<stat>[,...]} or the URC form {@code +CEREG: <stat>[,...]}.
+     */
+    static int parseRegistration(String response) {
+        String line = find(response, "+CEREG:");
+        if (line == null) {
+            return UNKNOWN;
+        }
+        String[] parts = line.split(",");
+        String stat = parts.length >= 2 && !parts[1].trim().startsWith("\"") ? parts[1] : parts[0];
+        try {
+            return Integer.parseInt(stat.trim());
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Operator from {@code +COPS: <mode>[,<format>,"<oper>"[,<act>]]}, null if not registered.
+     */
+    static String parseOperator(String response) {
+        String line = find(response, "+COPS:");
+        if (line == null) {
+            return null;
+        }
+        int open = line.indexOf('"');
+        int close = open < 0 ? -1 : line.indexOf('"', open + 1);
+        return close > open ? line.substring(open + 1, close) : null;
+    }
+
+    private static String find(String response, String prefix) {
+        if (response == null) {
+            return null;
+        }
+        for (String line : response.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.startsWith(prefix)) {
+                return line.substring(prefix.length()).trim();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,153 @@
+package kfs.sc.sms.at;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory modem speaking the AT subset used by {@link AtModemSmsGateway}.
+ * Used for the CDS training run and pipeline tests; no serial port is involved.
+ * In the main jar only because the training run has to use the shipped jar (see {@code CdsTraining}).
+ */
+public class SimulatedModem {
+
+    private static final DateTimeFormatter MODEM_FORMAT = DateTimeFormatter.ofPattern("yy/MM/dd,HH:mm:ss");
+    private static final byte CTRL_Z = 26;
+
+    private final ArrayDeque<Byte> toHost = new ArrayDeque<>();
+    private final StringBuilder command = new StringBuilder();
+    private final Map<Integer, String[]> storage = new TreeMap<>();
+    private int nextIndex = 1;
+    private int sentCount;
+    private int ackCount;
+    private boolean awaitingBody;
+    private boolean direct;
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() {
+            synchronized (SimulatedModem.this) {
+                Byte b = toHost.poll();
+                return b == null ? -1 : b & 0xff;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (SimulatedModem.this) {
+                return toHost.size();
+            }
+        }
+    };
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) {
+            received((byte) b);
+        }
+    };
+
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    public AtCommandExecutor newExecutor() {
+        return new AtCommandExecutor(input, output);
+    }
+
+    /**
+     * Stores an incoming SMS as if it was received from the network.
+     */
+    public synchronized void deliver(String sender, String text) {
+        String timestamp = OffsetDateTime.now().format(MODEM_FORMAT) + "+04";
+        if (direct) {
+            // AT+CNMI=2,2: rovnou na linku, SIM se nepoužije
+            reply("\r\n+CMT: \"" + sender + "\",,\"" + timestamp + "\"\r\n" + text + "\r\n");
+            return;
+        }
+        storage.put(nextIndex++, new String[]{sender, timestamp, text});
+    }
+
+    public synchronized int ackCount() {
+        return ackCount;
+    }
+
+    public synchronized int storedCount() {
+        return storage.size();
+    }
+
+    public synchronized int sentCount() {
+        return sentCount;
+    }
+
+    private synchronized void received(byte b) {
+        if (awaitingBody) {
+            if (b == CTRL_Z) {
+                awaitingBody = false;
+                command.setLength(0);
+                sentCount++;
+                reply("\r\n+CMGS: " + sentCount + "\r\n\r\nOK\r\n");
+            }
+            return;
+        }
+        if (b == '\r') {
+            handle(command.toString().trim());
+            command.setLength(0);
+        } else if (b != '\n') {
+            command.append((char) (b & 0xff));
+        }
+    }
+
+    private void handle(String cmd) {
+        if (cmd.isEmpty()) {
+            return;
+        }
+        if (cmd.equals("AT+CPIN?")) {
+            reply("\r\n+CPIN: READY\r\n\r\nOK\r\n");
+        } else if (cmd.equals("AT+CEREG?")) {
+            reply("\r\n+CEREG: 1,1\r\n\r\nOK\r\n");
+        } else if (cmd.startsWith("AT+CMGL")) {
+            StringBuilder sb = new StringBuilder("\r\n");
+            for (Map.Entry<Integer, String[]> e : storage.entrySet()) {
+                String[] m = e.getValue();
+                sb.append("+CMGL: ").append(e.getKey()).append(",\"REC UNREAD\",\"").append(m[0])
+                        .append("\",\"\",\"").append(m[1]).append("\"\r\n")
+                        .append(m[2]).append("\r\n");
+            }
+            reply(sb.append("\r\nOK\r\n").toString());
+        } else if (cmd.startsWith("AT+CMGD=")) {
+            storage.remove(Integer.parseInt(cmd.substring(8).split(",")[0].trim()));
+            reply("\r\nOK\r\n");
+        } else if (cmd.startsWith("AT+CNMI=2,2")) {
+            direct = true;
+            reply("\r\nOK\r\n");
+        } else if (cmd.equals("AT+CSMS?")) {
+            reply("\r\n+CSMS: 1,1,1,1\r\n\r\nOK\r\n");
+        } else if (cmd.equals("AT+CNMA")) {
+            ackCount++;
+            reply("\r\nOK\r\n");
+        } else if (cmd.startsWith("AT+CMGS=")) {
+            awaitingBody = true;
+            reply("\r\n> ");
+        } else if (cmd.startsWith("AT")) {
+            reply("\r\nOK\r\n");
+        } else {
+            reply("\r\nERROR\r\n");
+        }
+    }
+
+    private void reply(String text) {
+        for (byte b : text.getBytes(StandardCharsets.ISO_8859_1)) {
+            toHost.add(b);
+        }
+    }
+}
@@ -11,6 +11,11 @@ import java.util.Optional;
 
 public class SmsParser {
 
+    /**
+     * Index of a message that never was in SIM storage (+CMT).
+     */
+    public static final int DIRECT_INDEX = -1;
+
     private static final DateTimeFormatter MODEM_FORMAT =
             DateTimeFormatter.ofPattern("yy/MM/dd,HH:mm:ssXXX");
 
@@ -65,6 +70,24 @@ public class SmsParser {
     }
 
 
+    /**
+     * Directly delivered SMS: {@code +CMT: "<oa>",[<alpha>],"<scts>"} + body line.
+     * The message is not stored on the SIM, so its index is {@link #DIRECT_INDEX}.
+     *
+     * @return null if the header cannot be parsed
+     */
+    public static SmsMessage parseCmt(String header, String body) {
+        try {
+            List<String> parts = splitCsvRespectingQuotes(header.substring(5).trim());
+            String sender = stripQuotes(parts.get(0).trim());
+            OffsetDateTime timestamp = parts.size() > 2 ? parseTimestamp(stripQuotes(parts.get(2).trim())) : null;
+            return new SmsMessage(DIRECT_INDEX, SmsStatus.REC_UNREAD, sender,
+                    Optional.ofNullable(timestamp).orElse(OffsetDateTime.now()), body);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private static void buildSafely(List<SmsMessage> messages,
                                     ParsedHeader header,
                                     StringBuilder bodyBuilder) {
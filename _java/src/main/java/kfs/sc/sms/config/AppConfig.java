@@ -6,9 +6,13 @@ import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.InputStream;
+import java.lang.reflect.RecordComponent;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public final class AppConfig {
 
@@ -19,13 +23,22 @@ public final class AppConfig {
     private final ApiConfig api;
     private final MsisdnConfig msisdn;
     private final LoggingConfig logging;
+    private final AdminConfig admin;
+    private final List<ModemConfig> modems;
+    private final RoutingConfig routing;
+    private final ArchiveConfig archive;
 
-    private AppConfig(SmsConfig sms, ApiConfig api, LoggingConfig logging, CfgConfig cfg, MsisdnConfig msisdn) {
+    private AppConfig(SmsConfig sms, ApiConfig api, LoggingConfig logging, CfgConfig cfg, MsisdnConfig msisdn,
+                      AdminConfig admin, List<ModemConfig> modems, RoutingConfig routing, ArchiveConfig archive) {
         this.sms = sms;
         this.api = api;
         this.logging = logging;
         this.cfg = cfg;
         this.msisdn = msisdn;
+        this.admin = admin;
+        this.modems = modems;
+        this.routing = routing;
+        this.archive = archive;
     }
 
     public static AppConfig loadConfig(String paramPath, String fallbackResource) {
@@ -48,8 +61,12 @@ public final class AppConfig {
         LoggingConfig logging = LoggingConfig.from((Map<String, Object>) root.get("logging"));
         CfgConfig cfg = CfgConfig.from((Map<String, Object>) root.get("cfg"));
         MsisdnConfig msisdn = MsisdnConfig.from((Map<String, Object>) root.get("msisdn"));
+        AdminConfig admin = AdminConfig.from((Map<String, Object>) root.get("admin"));
+        List<ModemConfig> modems = ModemConfig.from(root.get("modems"), sms, msisdn);
+        RoutingConfig routing = RoutingConfig.from((Map<String, Object>) root.get("routing"));
+        ArchiveConfig archive = ArchiveConfig.from((Map<String, Object>) root.get("archive"));
 
-        return new AppConfig(sms, api, logging, cfg, msisdn);
+        return new AppConfig(sms, api, logging, cfg, msisdn, admin, modems, routing, archive);
     }
 
     public static AppConfig load(Path path) {
@@ -95,6 +112,61 @@ public final class AppConfig {
         return msisdn;
     }
 
+    public AdminConfig admin() {
+        return admin;
+    }
+
+    /**
+     * Additional modems next to {@code sms.portName} (which is {@link ModemConfig#MAIN}); empty = single modem.
+     */
+    public List<ModemConfig> modems() {
+        return modems;
+    }
+
+    public RoutingConfig routing() {
+        return routing;
+    }
+
+    public ArchiveConfig archive() {
+        return archive;
+    }
+
+    /**
+     * Dotted keys (e.g. {@code sms.pollIntervalMs}) whose values differ in {@code other}.
+     */
+    public List<String> diff(AppConfig other) {
+        List<String> changed = new ArrayList<>();
+        diff("sms", sms, other.sms, changed);
+        diff("api", api, other.api, changed);
+        diff("logging", logging, other.logging, changed);
+        diff("cfg", cfg, other.cfg, changed);
+        diff("msisdn", msisdn, other.msisdn, changed);
+        diff("admin", admin, other.admin, changed);
+        if (!Objects.equals(modems, other.modems)) {
+            changed.add("modems");
+        }
+        diff("routing", routing, other.routing, changed);
+        diff("archive", archive, other.archive, changed);
+        return changed;
+    }
+
+    private static void diff(String prefix, Record a, Record b, List<String> changed) {
+        for (RecordComponent component : a.getClass().getRecordComponents()) {
+            String key = prefix + "." + component.getName();
+            try {
+                Object va = component.getAccessor().invoke(a);
+                Object vb = component.getAccessor().invoke(b);
+                if (va instanceof Record ra && vb instanceof Record rb) {
+                    diff(key, ra, rb, changed);
+                } else if (!Objects.equals(va, vb)) {
+                    changed.add(key);
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new KfsSmsException("Cannot compare config value " + key, e);
+            }
+        }
+    }
+
     // ==========================
     // Nested config classes
     // ==========================
@@ -102,13 +174,39 @@ public final class AppConfig {
     public record SmsConfig(
             String portName,
             int baudRate,
+            int maxBaudRate,
+            String baudStateFile,
+            String charset,
+            String flowControl,
+            int writeChunkBytes,
+            String inboundMode,
             long pollIntervalMs,
             long outgoingPollIntervalMs,
+            boolean outgoingBurst,
+            int outgoingQueueCapacity,
+            long outgoingAgingMs,
             boolean openModem,
             int sendMaxRetries,
             long sendRetryDelayMs,
             int poolRetryCount,
-            long poolRetryDelay
+            long poolRetryDelay,
+            long reconnectMinDelayMs,
+            long reconnectMaxDelayMs,
+            long commandStuckMs,
+            int modemFailureThreshold,
+            long telemetryIntervalMs,
+            long shutdownTimeoutMs,
+            String handoffFile,
+            String outgoingHandoffFile,
+            int queueCapacity,
+            String queueType,
+            String queueWaitStrategy,
+            String spillDir,
+            int spillSegmentMessages,
+            int dispatchWorkers,
+            int dispatchStripeCapacity,
+            long traceSlowMs,
+            int maxSendsPerMinute
             ) {
 
         static SmsConfig from(Map<String, Object> map) {
@@ -117,18 +215,47 @@ public final class AppConfig {
             return new SmsConfig(
                     requireString(map, "portName"),
                     requireInt(map, "baudRate"),
+                    requireInt(map, "maxBaudRate", 0),
+                    requireString(map, "baudStateFile", "baud.dat"),
+                    requireString(map, "charset", "GSM"),
+                    requireString(map, "flowControl", "none"),
+                    requireInt(map, "writeChunkBytes", 64),
+                    requireString(map, "inboundMode", "sim"),
                     requireLong(map, "pollIntervalMs"),
                     requireLong(map, "outgoingPollIntervalMs", 5000),
+                    requireBoolean(map, "outgoingBurst", true),
+                    requireInt(map, "outgoingQueueCapacity", 500),
+                    requireLong(map, "outgoingAgingMs", 60_000),
                     requireBoolean(map, "openModem", true),
                     requireInt(map, "sendMaxRetries", 3),
                     requireLong(map, "sendRetryDelayMs", 1000),
                     requireInt(map, "poolRetryCount", 3),
-                    requireLong(map, "poolRetryDelay", 5000)
+                    requireLong(map, "poolRetryDelay", 5000),
+                    requireLong(map, "reconnectMinDelayMs", 1000),
+                    requireLong(map, "reconnectMaxDelayMs", 30000),
+                    requireLong(map, "commandStuckMs", 60000),
+                    requireInt(map, "modemFailureThreshold", 2),
+                    requireLong(map, "telemetryIntervalMs", 30_000),
+                    requireLong(map, "shutdownTimeoutMs", 20000),
+                    requireString(map, "handoffFile", "handoff.dat"),
+                    requireString(map, "outgoingHandoffFile", "handoff-out.dat"),
+                    requireInt(map, "queueCapacity", 1000),
+                    requireString(map, "queueType", "spill"),
+                    requireString(map, "queueWaitStrategy", "blocking"),
+                    requireString(map, "spillDir", "spill"),
+                    requireInt(map, "spillSegmentMessages", 10_000),
+                    requireInt(map, "dispatchWorkers", 4),
+                    requireInt(map, "dispatchStripeCapacity", 100),
+                    requireLong(map, "traceSlowMs", 60_000),
+                    requireInt(map, "maxSendsPerMinute", 0)
             );
         }
     }
 
-    public record ApiConfig(String baseUrl, String user, String password) {
+    public record ApiConfig(String baseUrl, String user, String password,
+                            String wireMode, int gzipMinBytes,
+                            long connectTimeoutMs, long pollTimeoutMs, long postTimeoutMs, long idleWarmupMs,
+                            int breakerFailureThreshold, long breakerOpenMs) {
 
         static ApiConfig from(Map<String, Object> map) {
             require(map, "api");
@@ -136,19 +263,28 @@ public final class AppConfig {
             return new ApiConfig(
                     requireString(map, "baseUrl"),
                     requireString(map, "user"),
-                    requireString(map, "password")
+                    requireString(map, "password"),
+                    requireString(map, "wireMode", "form"),
+                    requireInt(map, "gzipMinBytes", 512),
+                    requireLong(map, "connectTimeoutMs", 10_000),
+                    requireLong(map, "pollTimeoutMs", 15_000),
+                    requireLong(map, "postTimeoutMs", 20_000),
+                    requireLong(map, "idleWarmupMs", 60_000),
+                    requireInt(map, "breakerFailureThreshold", 5),
+                    requireLong(map, "breakerOpenMs", 30_000)
             );
         }
     }
 
     public record LoggingConfig(
             String level,
-            Map<String, String> packages
+            Map<String, String> packages,
+            RemoteLogConfig remote
     ) {
 
         static LoggingConfig from(Map<String, Object> map) {
             if (map == null) {
-                return new LoggingConfig("INFO", Map.of());
+                return new LoggingConfig("INFO", Map.of(), RemoteLogConfig.from(null));
             }
             String level = map.getOrDefault("level", "INFO").toString();
             Map<String, String> packages = Map.of();
@@ -160,13 +296,40 @@ public final class AppConfig {
                                 e -> e.getValue().toString()
                         ));
             }
-            return new LoggingConfig(level, packages);
+            return new LoggingConfig(level, packages, RemoteLogConfig.from((Map<String, Object>) map.get("remote")));
+        }
+    }
+
+    /**
+     * Shipping of log events to the server's /log endpoint; off by default.
+     */
+    public record RemoteLogConfig(boolean enabled, String level, int capacity, int batchSize, long flushIntervalMs) {
+
+        static RemoteLogConfig from(Map<String, Object> map) {
+            Map<String, Object> values = map == null ? Map.of() : map;
+            return new RemoteLogConfig(
+                    requireBoolean(values, "enabled", false),
+                    requireString(values, "level", "INFO"),
+                    requireInt(values, "capacity", 4096),
+                    requireInt(values, "batchSize", 200),
+                    requireLong(values, "flushIntervalMs", 10_000)
+            );
         }
     }
 
-    public record CfgConfig(String terminate) {
+    /**
+     * @param updateAllowUnverified install a release without a SHA-256 digest (default false = skip it)
+     */
+    public record CfgConfig(String terminate, long updateCheckIntervalMs, long updateInitialDelayMs,
+                            boolean updateAllowUnverified) {
         static CfgConfig from(Map<String, Object> map) {
-            return new CfgConfig(requireString(map, "terminate", ""));
+            Map<String, Object> values = map == null ? Map.of() : map;
+            return new CfgConfig(
+                    requireString(values, "terminate", ""),
+                    requireLong(values, "updateCheckIntervalMs", 3_600_000),
+                    requireLong(values, "updateInitialDelayMs", 60_000),
+                    requireBoolean(values, "updateAllowUnverified", false)
+            );
         }
     }
 
@@ -176,6 +339,129 @@ public final class AppConfig {
         }
     }
 
+    /**
+     * One additional modem (SIM); port settings not given are taken from {@code sms}, the PIN from {@code msisdn}.
+     */
+    public record ModemConfig(String name, String portName, int baudRate, String pin, int maxSendsPerMinute) {
+
+        public static final String MAIN = "main";
+
+        static List<ModemConfig> from(Object list, SmsConfig sms, MsisdnConfig msisdn) {
+            if (list == null) {
+                return List.of();
+            }
+            if (!(list instanceof List<?> items)) {
+                throw new IllegalArgumentException("Config value modems must be a list");
+            }
+            List<ModemConfig> modems = new ArrayList<>();
+            for (Object item : items) {
+                Map<String, Object> map = (Map<String, Object>) item;
+                ModemConfig modem = new ModemConfig(
+                        requireString(map, "name"),
+                        requireString(map, "portName"),
+                        requireInt(map, "baudRate", sms.baudRate()),
+                        requireString(map, "pin", msisdn.pin()),
+                        requireInt(map, "maxSendsPerMinute", 0)
+                );
+                if (modem.name().equals(MAIN) || modems.stream().anyMatch(m -> m.name().equals(modem.name()))) {
+                    throw new IllegalArgumentException("Duplicate modem name: " + modem.name());
+                }
+                modems.add(modem);
+            }
+            return List.copyOf(modems);
+        }
+    }
+
+    /**
+     * Outbound routing over {@link #modems()}: number prefix → list of groups tried in order.
+     * Replies go out through the modem the number last wrote to, remembered for {@code affinityTtlMs}
+     * in a table of {@code affinityCapacity} numbers (0 = off) snapshotted to {@code affinityFile}.
+     */
+    public record RoutingConfig(String countryCode, int nationalDigits,
+                                Map<String, List<String>> groups,
+                                Map<String, List<String>> routes,
+                                List<String> defaultRoute,
+                                int affinityCapacity,
+                                long affinityTtlMs,
+                                String affinityFile,
+                                long affinitySnapshotMs) {
+
+        static RoutingConfig from(Map<String, Object> map) {
+            Map<String, Object> values = map == null ? Map.of() : map;
+            return new RoutingConfig(
+                    requireString(map, "countryCode", "420"),
+                    requireInt(values, "nationalDigits", 9),
+                    nameLists(values.get("groups"), "routing.groups"),
+                    nameLists(values.get("routes"), "routing.routes"),
+                    names(values.get("defaultRoute"), "routing.defaultRoute"),
+                    requireInt(values, "affinityCapacity", 200_000),
+                    requireLong(values, "affinityTtlMs", 7 * 24 * 3_600_000L),
+                    requireString(map, "affinityFile", "affinity.dat"),
+                    requireLong(values, "affinitySnapshotMs", 300_000)
+            );
+        }
+
+        private static Map<String, List<String>> nameLists(Object value, String key) {
+            if (value == null) {
+                return Map.of();
+            }
+            if (!(value instanceof Map<?, ?> map)) {
+                throw new IllegalArgumentException("Config value " + key + " must be a map");
+            }
+            Map<String, List<String>> result = new java.util.LinkedHashMap<>();
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                result.put(e.getKey().toString(), names(e.getValue(), key + "." + e.getKey()));
+            }
+            return java.util.Collections.unmodifiableMap(result);
+        }
+
+        private static List<String> names(Object value, String key) {
+            if (value == null) {
+                return List.of();
+            }
+            if (value instanceof List<?> list) {
+                return list.stream().map(Object::toString).toList();
+            }
+            String single = value.toString().trim();
+            if (single.isEmpty()) {
+                throw new IllegalArgumentException("Config value " + key + " is empty");
+            }
+            return List.of(single);
+        }
+    }
+
+    /**
+     * Embedded admin HTTP endpoint; {@code port: 0} = off.
+     */
+    public record AdminConfig(String host, int port, String token) {
+        static AdminConfig from(Map<String, Object> map) {
+            Map<String, Object> values = map == null ? Map.of() : map;
+            return new AdminConfig(
+                    requireString(map, "host", "127.0.0.1"),
+                    requireInt(values, "port", 0),
+                    requireString(map, "token", "")
+            );
+        }
+    }
+
+    /**
+     * Local archive of delivered/sent SMS; off by default. Numbers are normalized with {@code routing.countryCode}.
+     */
+    public record ArchiveConfig(boolean enabled, String dir, int retentionDays, int segmentMb, long segmentMs,
+                                int queueCapacity) {
+        static ArchiveConfig from(Map<String, Object> map) {
+            Map<String, Object> values = map == null ? Map.of() : map;
+            return new ArchiveConfig(
+                    requireBoolean(values, "enabled", false),
+                    requireString(map, "dir", "archive"),
+                    requireInt(values, "retentionDays", 90),
+                    requireInt(values, "segmentMb", 64),
+                    requireLong(values, "segmentMs", 86_400_000),
+                    requireInt(values, "queueCapacity", 10_000)
+            );
+        }
+    }
+
     // ==========================
     // Validation helpers
     // ==========================
@@ -0,0 +1,186 @@
+package kfs.sc.sms.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Watches the external config file and applies changed settings without a restart.
+ * <p>
+ * The file is re-parsed after a short debounce (editors write in several steps). An invalid file
+ * is ignored and the running config stays. Changed keys in {@link #HOT} go to the listener in one
+ * call; any other changed key is only logged as "requires restart", and a hot key of a feature that
+ * is not running (see {@link #setInactive}) as "ignored".
+ */
+public class ConfigReloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigReloader.class);
+
+    private static final long DEBOUNCE_MS = 500;
+
+    /**
+     * Settings the running services can take over.
+     */
+    public static final Set<String> HOT = Set.of(
+            "sms.pollIntervalMs",
+            "sms.outgoingPollIntervalMs",
+            "sms.outgoingAgingMs",
+            "sms.sendMaxRetries",
+            "sms.sendRetryDelayMs",
+            "sms.poolRetryCount",
+            "sms.dispatchWorkers",
+            "sms.maxSendsPerMinute",
+            "routing.countryCode",
+            "routing.nationalDigits",
+            "routing.groups",
+            "routing.routes",
+            "routing.defaultRoute",
+            "api.user",
+            "api.password",
+            "logging.level",
+            "logging.packages"
+    );
+
+    public interface Listener {
+        /**
+         * @param changed hot keys that differ; never empty
+         */
+        void apply(AppConfig previous, AppConfig current, List<String> changed);
+    }
+
+    private final Path file;
+    private final Listener listener;
+    private volatile AppConfig current;
+    private volatile Predicate<String> inactive = key -> false;
+    private WatchService watcher;
+    private Thread thread;
+
+    public ConfigReloader(Path file, AppConfig initial, Listener listener) {
+        this.file = file.toAbsolutePath();
+        this.current = initial;
+        this.listener = listener;
+    }
+
+    /**
+     * Hot keys of features this process does not run (e.g. routing with a single modem); their changes
+     * are not passed to the listener nor reported as applied.
+     */
+    public void setInactive(Predicate<String> inactive) {
+        this.inactive = inactive;
+    }
+
+    public void start() throws IOException {
+        watcher = FileSystems.getDefault().newWatchService();
+        // adresář, protože editory soubor často nahrazují (rename → CREATE)
+        file.getParent().register(watcher,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+
+        thread = new Thread(this::watchLoop, "ConfigWatchThread");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Watching {} for changes", file);
+    }
+
+    public void stop() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                logger.debug("Cannot close watcher", e);
+            }
+        }
+    }
+
+    public AppConfig current() {
+        return current;
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean touched = containsFile(key);
+                key.reset();
+                if (!touched) {
+                    continue;
+                }
+                // další události stejného zápisu se sloučí
+                WatchKey more;
+                while ((more = watcher.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                reload();
+            }
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("Config watcher closed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean containsFile(WatchKey key) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path name && name.equals(file.getFileName())) {
+                touched = true;
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Re-reads the file and applies hot changes.
+     *
+     * @return hot keys that were applied (empty if nothing changed or the file is invalid)
+     */
+    public synchronized List<String> reload() {
+        AppConfig next;
+        try {
+            next = AppConfig.load(file);
+        } catch (RuntimeException e) {
+            logger.error("Config reload failed, keeping current settings: {}",
+                    e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return List.of();
+        }
+
+        AppConfig previous = current;
+        List<String> hot = new ArrayList<>();
+        for (String key : previous.diff(next)) {
+            if (HOT.contains(key) && inactive.test(key)) {
+                logger.info("Config change of '{}' ignored, feature not in use", key);
+            } else if (HOT.contains(key)) {
+                hot.add(key);
+            } else {
+                logger.warn("Config change of '{}' requires restart, not applied", key);
+            }
+        }
+        if (hot.isEmpty()) {
+            current = next;
+            return hot;
+        }
+
+        try {
+            listener.apply(previous, next, hot);
+        } catch (RuntimeException e) {
+            logger.error("Applying config change failed: {}", e.getMessage(), e);
+            return List.of();
+        }
+        current = next;
+        logger.info("Config reloaded, applied: {}", hot);
+        return hot;
+    }
+}
@@ -0,0 +1,268 @@
+package kfs.sc.sms.json;
+
+import kfs.sc.sms.utils.KfsSmsException;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass pull parser over a JSON document held in memory.
+ * Scalars are returned as strings; nesting is validated only as far as the caller walks it.
+ *
+ * <pre>
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ *     switch (reader.nextName()) {
+ *         case "id" -> id = reader.nextString();
+ *         default -> reader.skipValue();
+ *     }
+ * }
+ * reader.endObject();
+ * </pre>
+ */
+public final class JsonReader {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END
+    }
+
+    private final CharSequence in;
+    private final int length;
+    private int pos;
+    private final StringBuilder buf = new StringBuilder(64);
+
+    // true = v objektu se čeká jméno členu
+    private boolean expectName;
+    private boolean[] objectStack = new boolean[16];
+    private int depth;
+
+    public JsonReader(CharSequence in) {
+        this.in = in;
+        this.length = in.length();
+    }
+
+    public Token peek() {
+        skipWhitespaceAndCommas();
+        if (pos >= length) {
+            return Token.END;
+        }
+        char c = in.charAt(pos);
+        return switch (c) {
+            case '{' -> Token.BEGIN_OBJECT;
+            case '}' -> Token.END_OBJECT;
+            case '[' -> Token.BEGIN_ARRAY;
+            case ']' -> Token.END_ARRAY;
+            case '"' -> expectName ? Token.NAME : Token.STRING;
+            case 't', 'f' -> Token.BOOLEAN;
+            case 'n' -> Token.NULL;
+            default -> Token.NUMBER;
+        };
+    }
+
+    public void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(true);
+        expectName = true;
+    }
+
+    public void endObject() {
+        expect(Token.END_OBJECT);
+        pos++;
+        pop();
+        afterValue();
+    }
+
+    public void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(false);
+        expectName = false;
+    }
+
+    public void endArray() {
+        expect(Token.END_ARRAY);
+        pos++;
+        pop();
+        afterValue();
+    }
+
+    /**
+     * True if the current object/array has another member.
+     */
+    public boolean hasNext() {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END;
+    }
+
+    public String nextName() {
+        expect(Token.NAME);
+        String name = readQuoted();
+        skipWhitespace();
+        if (pos >= length || in.charAt(pos) != ':') {
+            throw error("':' expected");
+        }
+        pos++;
+        expectName = false;
+        return name;
+    }
+
+    /**
+     * Next scalar as string (numbers and booleans as written); {@code null} for JSON null.
+     */
+    public String nextString() {
+        Token t = peek();
+        String value;
+        switch (t) {
+            case STRING -> value = readQuoted();
+            case NUMBER, BOOLEAN -> value = readLiteral();
+            case NULL -> {
+                readLiteral();
+                value = null;
+            }
+            default -> throw error("scalar expected, got " + t);
+        }
+        afterValue();
+        return value;
+    }
+
+    public long nextLong() {
+        String value = nextString();
+        if (value == null) {
+            throw error("number expected, got null");
+        }
+        return Long.parseLong(value);
+    }
+
+    public void skipValue() {
+        Token t = peek();
+        switch (t) {
+            case BEGIN_OBJECT -> {
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+            }
+            case BEGIN_ARRAY -> {
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+            }
+            case STRING, NUMBER, BOOLEAN, NULL -> nextString();
+            default -> throw error("value expected, got " + t);
+        }
+    }
+
+    // ==========================
+    // Internals
+    // ==========================
+
+    private void afterValue() {
+        // uvnitř objektu následuje další jméno
+        expectName = depth > 0 && objectStack[depth - 1];
+    }
+
+    private void push(boolean object) {
+        if (depth == objectStack.length) {
+            objectStack = Arrays.copyOf(objectStack, depth * 2);
+        }
+        objectStack[depth++] = object;
+    }
+
+    private void pop() {
+        if (depth == 0) {
+            throw error("unbalanced brackets");
+        }
+        depth--;
+    }
+
+    private String readQuoted() {
+        pos++; // "
+        buf.setLength(0);
+        while (pos < length) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return buf.toString();
+            }
+            if (c != '\\') {
+                buf.append(c);
+                continue;
+            }
+            if (pos >= length) {
+                break;
+            }
+            char e = in.charAt(pos++);
+            switch (e) {
+                case '"', '\\', '/' -> buf.append(e);
+                case 'b' -> buf.append('\b');
+                case 'f' -> buf.append('\f');
+                case 'n' -> buf.append('\n');
+                case 'r' -> buf.append('\r');
+                case 't' -> buf.append('\t');
+                case 'u' -> {
+                    if (pos + 4 > length) {
+                        throw error("bad unicode escape");
+                    }
+                    int cp = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int d = Character.digit(in.charAt(pos++), 16);
+                        if (d < 0) {
+                            throw error("bad unicode escape");
+                        }
+                        cp = (cp << 4) | d;
+                    }
+                    buf.append((char) cp);
+                }
+                default -> throw error("bad escape \\" + e);
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private String readLiteral() {
+        int start = pos;
+        while (pos < length) {
+            char c = in.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                break;
+            }
+            pos++;
+        }
+        return in.subSequence(start, pos).toString();
+    }
+
+    private void skipWhitespaceAndCommas() {
+        while (pos < length) {
+            char c = in.charAt(pos);
+            if (isWhitespace(c) || c == ',') {
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < length && isWhitespace(in.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private void expect(Token expected) {
+        Token t = peek();
+        if (t != expected) {
+            throw error(expected + " expected, got " + t);
+        }
+    }
+
+    private KfsSmsException error(String message) {
+        return new KfsSmsException("JSON: " + message + " at " + pos);
+    }
+}
@@ -0,0 +1,136 @@
+package kfs.sc.sms.json;
+
+/**
+ * Minimal JSON writer over a reusable buffer; call {@link #reset()} before each document.
+ * Strings are escaped directly into the buffer, without intermediate copies.
+ */
+public final class JsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder sb;
+    private boolean first = true;
+
+    public JsonWriter() {
+        this(256);
+    }
+
+    public JsonWriter(int capacity) {
+        this.sb = new StringBuilder(capacity);
+    }
+
+    public JsonWriter reset() {
+        sb.setLength(0);
+        first = true;
+        return this;
+    }
+
+    public JsonWriter beginObject() {
+        separator();
+        sb.append('{');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        sb.append('}');
+        first = false;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separator();
+        sb.append('[');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        sb.append(']');
+        first = false;
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        separator();
+        string(name);
+        sb.append(':');
+        first = true; // hodnota nedostává čárku
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separator();
+        if (value == null) {
+            sb.append("null");
+        } else {
+            string(value);
+        }
+        first = false;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separator();
+        sb.append(value);
+        first = false;
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separator();
+        sb.append(value);
+        first = false;
+        return this;
+    }
+
+    /**
+     * Shortcut for {@code name(name).value(value)}.
+     */
+    public JsonWriter field(String name, String value) {
+        return name(name).value(value);
+    }
+
+    public int length() {
+        return sb.length();
+    }
+
+    public CharSequence buffer() {
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+
+    private void separator() {
+        if (!first) {
+            sb.append(',');
+        }
+    }
+
+    private void string(String s) {
+        sb.append('"');
+        int len = s.length();
+        int run = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            sb.append(s, run, i);
+            run = i + 1;
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            }
+        }
+        sb.append(s, run, len);
+        sb.append('"');
+    }
+}
@@ -0,0 +1,60 @@
+package kfs.sc.sms.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring: many producers, one consumer. {@link #offer(String)} never blocks,
+ * it returns false when the ring is full.
+ */
+final class LogRing {
+
+    private final AtomicReferenceArray<String> slots;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // zapisuje jen konzument
+    private volatile long head;
+
+    LogRing(int requestedCapacity) {
+        int cap = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.slots = new AtomicReferenceArray<>(cap);
+    }
+
+    boolean offer(String line) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.setRelease((int) (t & mask), line);
+        return true;
+    }
+
+    /**
+     * Consumer only. Null if empty or the next slot has been claimed but not yet published.
+     */
+    String poll() {
+        long h = head;
+        int i = (int) (h & mask);
+        String line = slots.getAcquire(i);
+        if (line == null) {
+            return null;
+        }
+        slots.setRelease(i, null);
+        head = h + 1;
+        return line;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
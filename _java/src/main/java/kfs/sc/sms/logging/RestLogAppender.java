@@ -0,0 +1,198 @@
+package kfs.sc.sms.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Ships log events to the server ({@code POST /log}) in batches.
+ * <p>
+ * {@link #append} only formats the line and offers it to a lock-free ring; it never blocks and never
+ * does I/O. A background thread sends a batch when {@code batchSize} lines are pending or every
+ * {@code flushInterval}. Above 75 % fill only every 8th event below WARN is kept; a full ring drops
+ * the event. Dropped counts are reported in the next batch.
+ */
+public class RestLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    // vlastní logy REST klienta by se posílaly samy sebou
+    private static final String[] IGNORED = {
+            "kfs.sc.sms.logging.",
+            "kfs.sc.sms.service.SmsRestClient",
+            "kfs.sc.sms.service.CircuitBreaker",
+            "jdk.internal.httpclient",
+            "jdk.httpclient"
+    };
+
+    private final Consumer<String> sender;
+    private final LogRing ring;
+    private final int batchSize;
+    private final long flushNanos;
+    private final Level minLevel;
+    private final int pressureMark;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder shipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicInteger sample = new AtomicInteger();
+    private final StringBuilder batch = new StringBuilder(8 * 1024);
+    private long droppedReported; // jen LogShipThread
+
+    private volatile boolean running;
+    private volatile Thread shipper;
+
+    public RestLogAppender(Consumer<String> sender, int capacity, int batchSize, Duration flushInterval,
+                           Level minLevel) {
+        this.sender = sender;
+        this.ring = new LogRing(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushNanos = flushInterval.toNanos();
+        this.minLevel = minLevel;
+        this.pressureMark = ring.capacity() * 3 / 4;
+        setName("REST");
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        running = true;
+        Thread t = new Thread(this::shipLoop, "LogShipThread");
+        t.setDaemon(true);
+        shipper = t;
+        t.start();
+        super.start();
+    }
+
+    /**
+     * Stops accepting events and ships what is left, waiting at most {@code timeout}.
+     */
+    public void stop(Duration timeout) {
+        super.stop();
+        running = false;
+        Thread t = shipper;
+        if (t == null) {
+            return;
+        }
+        LockSupport.unpark(t);
+        try {
+            t.join(timeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void stop() {
+        stop(Duration.ofSeconds(5));
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!event.getLevel().isGreaterOrEqual(minLevel) || Thread.currentThread() == shipper
+                || isIgnored(event.getLoggerName())) {
+            return;
+        }
+        int pending = ring.size();
+        if (pending >= pressureMark && !event.getLevel().isGreaterOrEqual(Level.WARN)
+                && (sample.incrementAndGet() & 7) != 0) {
+            dropped.increment();
+            return;
+        }
+        if (!ring.offer(format(event))) {
+            dropped.increment();
+            return;
+        }
+        if (pending + 1 == batchSize) {
+            LockSupport.unpark(shipper);
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getShipped() {
+        return shipped.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public int getPending() {
+        return ring.size();
+    }
+
+    private void shipLoop() {
+        while (running || ring.size() > 0) {
+            if (running && ring.size() < batchSize) {
+                LockSupport.parkNanos(this, flushNanos);
+            }
+            ship();
+        }
+    }
+
+    private void ship() {
+        batch.setLength(0);
+        long droppedNow = dropped.sum();
+        long lost = droppedNow - droppedReported;
+        droppedReported = droppedNow;
+        if (lost > 0) {
+            batch.append(Instant.now()).append(" WARN  [LogShipThread] RestLogAppender - ")
+                    .append(lost).append(" log events dropped\n");
+        }
+        int lines = 0;
+        String line;
+        while (lines < batchSize && (line = ring.poll()) != null) {
+            batch.append(line).append('\n');
+            lines++;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sender.accept(batch.toString());
+            shipped.add(lines);
+        } catch (Exception e) {
+            // server nedostupný (breaker), dávka se zahodí, diagnostika je best-effort
+            failed.add(lines);
+        }
+    }
+
+    private static boolean isIgnored(String loggerName) {
+        for (String prefix : IGNORED) {
+            if (loggerName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String format(ILoggingEvent event) {
+        StringBuilder sb = new StringBuilder(128)
+                .append(Instant.ofEpochMilli(event.getTimeStamp()))
+                .append(' ').append(event.getLevel())
+                .append(" [").append(event.getThreadName()).append("] ")
+                .append(shortName(event.getLoggerName()))
+                .append(" - ").append(event.getFormattedMessage());
+        IThrowableProxy error = event.getThrowableProxy();
+        if (error != null) {
+            sb.append(" | ").append(error.getClassName()).append(": ").append(error.getMessage());
+        }
+        return sb.toString();
+    }
+
+    private static String shortName(String loggerName) {
+        int dot = loggerName.lastIndexOf('.');
+        return dot < 0 ? loggerName : loggerName.substring(dot + 1);
+    }
+}
@@ -0,0 +1,96 @@
+package kfs.sc.sms.model;
+
+/**
+ * Stage timestamps of one message ({@link System#nanoTime()}, 0 = stage not reached).
+ * One instance per message, stamped in place as the message moves through the services;
+ * nothing is allocated per stage. Only the thread currently holding the message writes,
+ * the queues between the services provide the happens-before.
+ */
+public final class MessageTrace {
+
+    public enum Stage {
+        /** Read from the modem (inbound) or fetched from {@code /sms/o} (outbound). */
+        LISTED,
+        /** Handed to the local queue. */
+        ENQUEUED,
+        /** Taken from the local queue. */
+        DEQUEUED,
+        /** Each delivery attempt (REST post or modem send). */
+        ATTEMPT,
+        /** Accepted by the server / confirmed after the modem send. */
+        ACKED
+    }
+
+    private long listed;
+    private long listedMillis;
+    private long enqueued;
+    private long dequeued;
+    private long firstAttempt;
+    private long lastAttempt;
+    private long acked;
+    private int attempts;
+
+    public void stamp(Stage stage) {
+        stamp(stage, System.nanoTime());
+    }
+
+    public void stamp(Stage stage, long nanos) {
+        switch (stage) {
+            case LISTED -> {
+                listed = nanos;
+                listedMillis = System.currentTimeMillis(); // proti časovému razítku modemu (doba na SIM)
+            }
+            case ENQUEUED -> enqueued = nanos;
+            case DEQUEUED -> dequeued = nanos;
+            case ATTEMPT -> {
+                if (attempts++ == 0) {
+                    firstAttempt = nanos;
+                }
+                lastAttempt = nanos;
+            }
+            case ACKED -> acked = nanos;
+        }
+    }
+
+    public long getListed() {
+        return listed;
+    }
+
+    /**
+     * Wall clock at {@link Stage#LISTED}, 0 if not listed in this process (e.g. restored from disk).
+     */
+    public long getListedMillis() {
+        return listedMillis;
+    }
+
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    public long getDequeued() {
+        return dequeued;
+    }
+
+    public long getFirstAttempt() {
+        return firstAttempt;
+    }
+
+    public long getLastAttempt() {
+        return lastAttempt;
+    }
+
+    public long getAcked() {
+        return acked;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Nanoseconds between two stamps, -1 if either stage was not reached.
+     */
+    public static long between(long from, long to) {
+        return from == 0 || to == 0 ? -1 : Math.max(0, to - from);
+    }
+}
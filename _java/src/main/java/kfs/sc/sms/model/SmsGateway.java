@@ -4,15 +4,19 @@ import kfs.sc.sms.utils.ModemException;
 
 import java.util.List;
 
-public interface SmsGateway {
+public interface SmsGateway extends SmsSender {
 
     void open(String pin) throws ModemException;
 
-    void close();
-
-    void sendSms(String number, String message) throws ModemException;
-
     List<SmsMessage> readAll() throws ModemException;
 
     void delete(int index) throws ModemException;
+
+    /**
+     * Messages already acknowledged to the network (direct delivery, {@code +CMT}) but not yet returned
+     * by {@link #readAll}. Sends no modem command; taken at shutdown once polling has stopped.
+     */
+    default List<SmsMessage> drainReceived() {
+        return List.of();
+    }
 }
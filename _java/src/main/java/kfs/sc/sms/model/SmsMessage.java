@@ -2,15 +2,30 @@ package kfs.sc.sms.model;
 
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.util.Objects;
 
+/**
+ * Incoming SMS. {@code trace} is diagnostics only and takes no part in equals/hashCode.
+ */
 public record SmsMessage(
         int index,
         SmsStatus status,
         String sender,
         OffsetDateTime timestamp,
-        String text
+        String text,
+        MessageTrace trace
 ) {
 
+    public SmsMessage {
+        if (trace == null) {
+            trace = new MessageTrace();
+        }
+    }
+
+    public SmsMessage(int index, SmsStatus status, String sender, OffsetDateTime timestamp, String text) {
+        this(index, status, sender, timestamp, text, new MessageTrace());
+    }
+
     public int getIndex() {
         return index;
     }
@@ -31,6 +46,21 @@ public record SmsMessage(
         return timestamp;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SmsMessage m
+                && index == m.index
+                && status == m.status
+                && Objects.equals(sender, m.sender)
+                && Objects.equals(timestamp, m.timestamp)
+                && Objects.equals(text, m.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, status, sender, timestamp, text);
+    }
+
     @Override
     public String toString() {
         return "SmsMessage{" +
@@ -0,0 +1,24 @@
+package kfs.sc.sms.model;
+
+/**
+ * Outbound scheduling class, highest first.
+ */
+public enum SmsPriority {
+    OTP,
+    NORMAL,
+    BULK;
+
+    /**
+     * Case-insensitive name from the server; missing or unknown values are {@link #NORMAL}.
+     */
+    public static SmsPriority fromServerValue(String value) {
+        if (value == null) {
+            return NORMAL;
+        }
+        return switch (value.trim().toLowerCase()) {
+            case "otp" -> OTP;
+            case "bulk" -> BULK;
+            default -> NORMAL;
+        };
+    }
+}
@@ -0,0 +1,31 @@
+package kfs.sc.sms.model;
+
+import kfs.sc.sms.utils.ModemException;
+
+/**
+ * Outbound side of a modem, or of several behind a router: what {@code OutgoingSmsService} needs.
+ */
+public interface SmsSender {
+
+    void sendSms(String number, String message) throws ModemException;
+
+    /**
+     * Keeps the radio link up between consecutive {@link #sendSms} calls (AT+CMMS) while
+     * {@code on}; senders without such a mode ignore it. A modem that refuses the mode throws
+     * {@link kfs.sc.sms.utils.ModemCommandException}; any other failure may be transient.
+     */
+    default void setBurst(boolean on) throws ModemException {
+    }
+
+    /**
+     * False when the modem is known to be out of network (sends would fail).
+     */
+    default boolean isNetworkAvailable() {
+        return true;
+    }
+
+    /**
+     * Closes the modem(s) behind this sender.
+     */
+    void close();
+}
@@ -0,0 +1,150 @@
+package kfs.sc.sms.routing;
+
+/**
+ * Phone number → international digits without {@code +}, e.g. {@code +420 601-123 456},
+ * {@code 00420601123456} and {@code 601123456} all become {@code 420601123456}.
+ * <ul>
+ *     <li>{@code +} or {@code 00} prefix: international, taken as is</li>
+ *     <li>at most {@code nationalDigits} digits, or one more with a leading trunk {@code 0}:
+ *     national, the country code is prepended (and the trunk {@code 0} dropped)</li>
+ *     <li>anything else is assumed to already start with a country code</li>
+ * </ul>
+ * Separators (space, {@code -./()}) are ignored. {@link #start} and {@link #isNational} let callers
+ * walk the digits in place without building a string.
+ */
+public final class NumberNormalizer {
+
+    private final String countryCode;
+    private final int nationalDigits;
+
+    public NumberNormalizer(String countryCode, int nationalDigits) {
+        for (int i = 0; i < countryCode.length(); i++) {
+            if (!isDigit(countryCode.charAt(i))) {
+                throw new IllegalArgumentException("Country code must be digits: '" + countryCode + "'");
+            }
+        }
+        this.countryCode = countryCode;
+        this.nationalDigits = nationalDigits;
+    }
+
+    public String getCountryCode() {
+        return countryCode;
+    }
+
+    /**
+     * True if the country code has to be walked before the digits from {@link #start}.
+     */
+    public boolean isNational(CharSequence number) {
+        int first = firstSignificant(number);
+        if (first < 0 || number.charAt(first) == '+') {
+            return false;
+        }
+        int digits = countDigits(number, first);
+        if (digits >= 2 && number.charAt(first) == '0' && nextDigit(number, first + 1) == '0') {
+            return false; // 00 = mezinárodní prefix
+        }
+        return digits <= nationalDigits || (digits == nationalDigits + 1 && number.charAt(first) == '0');
+    }
+
+    /**
+     * Index of the first significant digit (after {@code +}, {@code 00} or the national trunk {@code 0});
+     * {@code number.length()} if there is none.
+     */
+    public int start(CharSequence number) {
+        int first = firstSignificant(number);
+        if (first < 0) {
+            return number.length();
+        }
+        if (number.charAt(first) == '+') {
+            return first + 1;
+        }
+        int digits = countDigits(number, first);
+        boolean zero = number.charAt(first) == '0';
+        if (digits >= 2 && zero && nextDigit(number, first + 1) == '0') {
+            return indexOfDigit(number, indexOfDigit(number, first + 1) + 1);
+        }
+        if (zero && digits == nationalDigits + 1) {
+            return indexOfDigit(number, first + 1);
+        }
+        return first;
+    }
+
+    /**
+     * Normalized digits; empty if the number has none.
+     */
+    public String normalize(CharSequence number) {
+        StringBuilder sb = new StringBuilder(number.length() + countryCode.length());
+        if (isNational(number)) {
+            sb.append(countryCode);
+        }
+        for (int i = start(number); i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (isDigit(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Normalized digits as a number, without allocation; 0 if the number has no digits or more than 18.
+     */
+    public long toLong(CharSequence number) {
+        long value = 0;
+        int digits = 0;
+        if (isNational(number)) {
+            for (int i = 0; i < countryCode.length(); i++) {
+                value = value * 10 + (countryCode.charAt(i) - '0');
+                digits++;
+            }
+        }
+        for (int i = start(number); i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (isDigit(c)) {
+                if (++digits > 18) {
+                    return 0;
+                }
+                value = value * 10 + (c - '0');
+            }
+        }
+        return value;
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int firstSignificant(CharSequence number) {
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == '+' || isDigit(c)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int countDigits(CharSequence number, int from) {
+        int n = 0;
+        for (int i = from; i < number.length(); i++) {
+            if (isDigit(number.charAt(i))) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static int indexOfDigit(CharSequence number, int from) {
+        for (int i = from; i < number.length(); i++) {
+            if (isDigit(number.charAt(i))) {
+                return i;
+            }
+        }
+        return number.length();
+    }
+
+    private static char nextDigit(CharSequence number, int from) {
+        int i = indexOfDigit(number, from);
+        return i < number.length() ? number.charAt(i) : 0;
+    }
+}
@@ -0,0 +1,97 @@
+package kfs.sc.sms.routing;
+
+import java.util.Arrays;
+
+/**
+ * Digit trie for longest-prefix match, stored as flat arrays: node {@code n} has its ten children at
+ * {@code children[n * 10 .. n * 10 + 9]} (0 = none, the root is node 0) and its value at
+ * {@code values[n]} (-1 = none). Built once, then read-only; lookups walk the arrays and allocate nothing.
+ */
+public final class PrefixTrie {
+
+    public static final int NONE = -1;
+
+    private int[] children = new int[10 * 16];
+    private int[] values = new int[16];
+    private int size = 1;
+
+    public PrefixTrie() {
+        Arrays.fill(values, NONE);
+    }
+
+    /**
+     * Maps digit string {@code prefix} to {@code value} (≥ 0); an empty prefix is the default.
+     */
+    public void put(CharSequence prefix, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Trie value must be >= 0: " + value);
+        }
+        int node = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (!NumberNormalizer.isDigit(c)) {
+                throw new IllegalArgumentException("Prefix must be digits: '" + prefix + "'");
+            }
+            int slot = node * 10 + (c - '0');
+            if (children[slot] == 0) {
+                children[slot] = newNode();
+            }
+            node = children[slot];
+        }
+        values[node] = value;
+    }
+
+    private int newNode() {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            Arrays.fill(values, size, values.length, NONE);
+            children = Arrays.copyOf(children, size * 2 * 10);
+        }
+        return size++;
+    }
+
+    /**
+     * Value of the root (empty prefix), {@link #NONE} if not set.
+     */
+    public int rootValue() {
+        return values[0];
+    }
+
+    /**
+     * Child of {@code node} for {@code digit}, or -1.
+     */
+    public int step(int node, int digit) {
+        int child = children[node * 10 + digit];
+        return child == 0 ? -1 : child;
+    }
+
+    public int value(int node) {
+        return values[node];
+    }
+
+    /**
+     * Value of the longest prefix of {@code digits}, {@link #NONE} if none matches.
+     */
+    public int longestMatch(CharSequence digits) {
+        int node = 0;
+        int best = values[0];
+        for (int i = 0; i < digits.length() && node >= 0; i++) {
+            char c = digits.charAt(i);
+            if (!NumberNormalizer.isDigit(c)) {
+                continue;
+            }
+            node = step(node, c - '0');
+            if (node >= 0 && values[node] != NONE) {
+                best = values[node];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Number of nodes including the root.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,267 @@
+package kfs.sc.sms.routing;
+
+import kfs.sc.sms.utils.KfsSmsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers which modem last received an SMS from a number, so the reply goes out through the same SIM.
+ * Fixed-size 4-way set-associative table in primitive arrays (13 B per entry: normalized number as
+ * {@code long}, last seen in seconds, modem id): a number hashes to one set of four slots, a full set
+ * evicts its least recently seen entry, and entries older than the TTL are ignored. Recording and lookup
+ * allocate nothing. A snapshot is written periodically and at {@link #stop()}, and loaded on start.
+ */
+public class ReplyAffinity {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplyAffinity.class);
+
+    public static final int NONE = -1;
+
+    private static final int WAYS = 4;
+    private static final long EPOCH_SECONDS = 1_704_067_200L; // 2024-01-01, int sekundy vystačí do 2092
+    private static final int MAGIC = 0x4b465341; // "KFSA"
+    private static final int VERSION = 1;
+
+    private final NumberNormalizer normalizer;
+    private final List<String> modems;
+    private final long[] keys;
+    private final int[] seen;
+    private final byte[] modem;
+    private final int setMask;
+    private final long ttlSeconds;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private ScheduledExecutorService executor;
+    private Path file;
+
+    /**
+     * @param capacity entries to keep (rounded up to a power of two)
+     * @param modems   modem names; the index is the modem id used by {@link #record} and {@link #lookup}
+     */
+    public ReplyAffinity(NumberNormalizer normalizer, List<String> modems, int capacity, Duration ttl) {
+        if (modems.size() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many modems for reply affinity: " + modems.size());
+        }
+        this.normalizer = normalizer;
+        this.modems = List.copyOf(modems);
+        int sets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS - 1)) << 1;
+        this.keys = new long[sets * WAYS];
+        this.seen = new int[sets * WAYS];
+        this.modem = new byte[sets * WAYS];
+        this.setMask = sets - 1;
+        this.ttlSeconds = Math.max(1, ttl.toSeconds());
+    }
+
+    /**
+     * {@code number} wrote to modem {@code modemId} at {@code nowMillis}.
+     */
+    public void record(CharSequence number, int modemId, long nowMillis) {
+        long key = normalizer.toLong(number);
+        if (key == 0) {
+            return;
+        }
+        put(key, modemId, seconds(nowMillis));
+    }
+
+    private synchronized void put(long key, int modemId, int now) {
+        int base = set(key);
+        int victim = base;
+        for (int i = base; i < base + WAYS; i++) {
+            if (keys[i] == key || keys[i] == 0) {
+                victim = i;
+                break;
+            }
+            if (seen[i] - seen[victim] < 0) {
+                victim = i;
+            }
+        }
+        keys[victim] = key;
+        seen[victim] = now;
+        modem[victim] = (byte) modemId;
+    }
+
+    /**
+     * Modem id that last received from {@code number}, {@link #NONE} if unknown or expired.
+     */
+    public int lookup(CharSequence number, long nowMillis) {
+        long key = normalizer.toLong(number);
+        int result = key == 0 ? NONE : get(key, seconds(nowMillis));
+        (result == NONE ? misses : hits).increment();
+        return result;
+    }
+
+    private synchronized int get(long key, int now) {
+        int base = set(key);
+        for (int i = base; i < base + WAYS; i++) {
+            if (keys[i] == key) {
+                return now - seen[i] > ttlSeconds ? NONE : modem[i];
+            }
+        }
+        return NONE;
+    }
+
+    private int set(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ((h ^ (h >>> 32)) & setMask) * WAYS;
+    }
+
+    private static int seconds(long millis) {
+        return (int) (millis / 1000 - EPOCH_SECONDS);
+    }
+
+    public synchronized int size() {
+        int n = 0;
+        for (long key : keys) {
+            if (key != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // ==========================
+    // Snapshot
+    // ==========================
+
+    /**
+     * Loads {@code file} if present and then saves to it every {@code interval}.
+     */
+    public void start(Path file, Duration interval) {
+        this.file = file;
+        load(file, System.currentTimeMillis());
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ReplyAffinitySnapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::snapshot, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic snapshot and writes a final one.
+     */
+    public void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        snapshot();
+    }
+
+    private void snapshot() {
+        try {
+            save(file, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            logger.warn("Reply affinity snapshot failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes live entries with modem names, so a changed modem list maps them back by name.
+     */
+    void save(Path target, long nowMillis) {
+        long[] k;
+        int[] s;
+        byte[] m;
+        synchronized (this) {
+            k = keys.clone();
+            s = seen.clone();
+            m = modem.clone();
+        }
+        int now = seconds(nowMillis);
+        int count = 0;
+        for (int i = 0; i < k.length; i++) {
+            if (k[i] != 0 && now - s[i] <= ttlSeconds) {
+                count++;
+            }
+        }
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(modems.size());
+            for (String name : modems) {
+                out.writeUTF(name);
+            }
+            out.writeInt(count);
+            for (int i = 0; i < k.length; i++) {
+                if (k[i] != 0 && now - s[i] <= ttlSeconds) {
+                    out.writeLong(k[i]);
+                    out.writeInt(s[i]);
+                    out.writeByte(m[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot write reply affinity " + target, e);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot write reply affinity " + target, e);
+        }
+        logger.debug("Reply affinity: {} numbers saved to {}", count, target);
+    }
+
+    /**
+     * Adds entries from {@code source}; a missing or unreadable file only means starting empty.
+     */
+    void load(Path source, long nowMillis) {
+        if (!Files.exists(source)) {
+            return;
+        }
+        int now = seconds(nowMillis);
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warn("Unknown reply affinity format: {}, ignored", source);
+                return;
+            }
+            int[] ids = new int[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = modems.indexOf(in.readUTF());
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                int when = in.readInt();
+                int old = in.readByte();
+                int id = old >= 0 && old < ids.length ? ids[old] : NONE;
+                if (id != NONE && key != 0 && now - when <= ttlSeconds) {
+                    put(key, id, when);
+                    loaded++;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot read reply affinity {}: {}", source, e.getMessage());
+            return;
+        }
+        logger.info("Reply affinity: {} numbers loaded from {}", loaded, source);
+    }
+}
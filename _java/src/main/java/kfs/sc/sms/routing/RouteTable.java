@@ -0,0 +1,164 @@
+package kfs.sc.sms.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable destination routing: number prefix → chain of modem groups, tried in order.
+ * A group is a named list of modems; a modem name can be used directly as a one-modem group.
+ * Built from config (reload = build a new table and swap it), looked up per SMS without allocation.
+ */
+public final class RouteTable {
+
+    private final NumberNormalizer normalizer;
+    private final PrefixTrie trie;
+    private final int[][] chains;
+    private final int[][] groups;
+    private final String[] groupNames;
+    private final int[] cursors;
+
+    private RouteTable(NumberNormalizer normalizer, PrefixTrie trie, int[][] chains, int[][] groups,
+                       String[] groupNames) {
+        this.normalizer = normalizer;
+        this.trie = trie;
+        this.chains = chains;
+        this.groups = groups;
+        this.groupNames = groupNames;
+        this.cursors = new int[groups.length];
+    }
+
+    /**
+     * @param groups       group name → modem names
+     * @param routes       number prefix (any format {@link NumberNormalizer} accepts) → group names
+     * @param defaultRoute groups for numbers no prefix matches; empty = every modem in {@code modems} order
+     * @param modems       names of the available modems, their index is the modem id
+     * @throws IllegalArgumentException on unknown names or malformed prefixes
+     */
+    public static RouteTable build(String countryCode, int nationalDigits,
+                                   Map<String, List<String>> groups,
+                                   Map<String, List<String>> routes,
+                                   List<String> defaultRoute,
+                                   List<String> modems) {
+        NumberNormalizer normalizer = new NumberNormalizer(countryCode, nationalDigits);
+
+        Map<String, Integer> modemIds = new HashMap<>();
+        for (int i = 0; i < modems.size(); i++) {
+            modemIds.put(modems.get(i), i);
+        }
+        List<String> groupNames = new ArrayList<>();
+        List<int[]> groupMembers = new ArrayList<>();
+        Map<String, Integer> groupIds = new HashMap<>();
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            int[] members = new int[group.getValue().size()];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = id(modemIds, group.getValue().get(i), "modem", "group " + group.getKey());
+            }
+            groupIds.put(group.getKey(), groupNames.size());
+            groupNames.add(group.getKey());
+            groupMembers.add(members);
+        }
+        // modem bez skupiny = skupina sám se sebou
+        for (String modem : modems) {
+            if (!groupIds.containsKey(modem)) {
+                groupIds.put(modem, groupNames.size());
+                groupNames.add(modem);
+                groupMembers.add(new int[]{modemIds.get(modem)});
+            }
+        }
+
+        List<int[]> chains = new ArrayList<>();
+        Map<List<Integer>, Integer> chainIds = new HashMap<>();
+        PrefixTrie trie = new PrefixTrie();
+        List<String> fallback = defaultRoute.isEmpty() ? modems : defaultRoute;
+        trie.put("", chain(fallback, groupIds, chains, chainIds, "default route"));
+        for (Map.Entry<String, List<String>> route : routes.entrySet()) {
+            String prefix = normalizer.normalize(route.getKey());
+            if (prefix.isEmpty()) {
+                throw new IllegalArgumentException("Route prefix without digits: '" + route.getKey() + "'");
+            }
+            trie.put(prefix, chain(route.getValue(), groupIds, chains, chainIds, "route " + route.getKey()));
+        }
+
+        return new RouteTable(normalizer, trie, chains.toArray(new int[0][]),
+                groupMembers.toArray(new int[0][]), groupNames.toArray(new String[0]));
+    }
+
+    private static int chain(List<String> names, Map<String, Integer> groupIds,
+                             List<int[]> chains, Map<List<Integer>, Integer> chainIds, String where) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("Empty group list in " + where);
+        }
+        List<Integer> key = new ArrayList<>();
+        for (String name : names) {
+            key.add(id(groupIds, name, "group", where));
+        }
+        return chainIds.computeIfAbsent(key, k -> {
+            chains.add(k.stream().mapToInt(Integer::intValue).toArray());
+            return chains.size() - 1;
+        });
+    }
+
+    private static int id(Map<String, Integer> ids, String name, String what, String where) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown " + what + " '" + name + "' in " + where);
+        }
+        return id;
+    }
+
+    /**
+     * Group ids to try for {@code number}, best first. The array is shared, do not modify it.
+     */
+    public int[] chain(CharSequence number) {
+        int node = 0;
+        int best = trie.rootValue();
+        if (normalizer.isNational(number)) {
+            String cc = normalizer.getCountryCode();
+            for (int i = 0; i < cc.length() && node >= 0; i++) {
+                node = trie.step(node, cc.charAt(i) - '0');
+                if (node >= 0 && trie.value(node) != PrefixTrie.NONE) {
+                    best = trie.value(node);
+                }
+            }
+        }
+        for (int i = normalizer.start(number); i < number.length() && node >= 0; i++) {
+            char c = number.charAt(i);
+            if (!NumberNormalizer.isDigit(c)) {
+                continue;
+            }
+            node = trie.step(node, c - '0');
+            if (node >= 0 && trie.value(node) != PrefixTrie.NONE) {
+                best = trie.value(node);
+            }
+        }
+        return chains[best];
+    }
+
+    /**
+     * Modem ids of {@code group}. The array is shared, do not modify it.
+     */
+    public int[] members(int group) {
+        return groups[group];
+    }
+
+    public String groupName(int group) {
+        return groupNames[group];
+    }
+
+    /**
+     * Round-robin start within {@code group}; advanced by {@link #advance}. Only a hint, races are harmless.
+     */
+    int cursor(int group) {
+        return cursors[group];
+    }
+
+    void advance(int group, int next) {
+        cursors[group] = next;
+    }
+
+    public NumberNormalizer getNormalizer() {
+        return normalizer;
+    }
+}
@@ -0,0 +1,305 @@
+package kfs.sc.sms.routing;
+
+import kfs.sc.sms.model.ModemSession;
+import kfs.sc.sms.model.SmsGateway;
+import kfs.sc.sms.model.SmsSender;
+import kfs.sc.sms.utils.ModemCommandException;
+import kfs.sc.sms.utils.ModemException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outbound front of several modems: {@link #sendSms} picks the modem by the {@link RouteTable} chain
+ * of the destination. Within a group modems take turns; a modem that is down (not ready or out of
+ * network) or saturated (sending right now, or over its per-minute limit) is skipped, and when a whole
+ * group is unusable the next group of the chain is tried. A failed send is not retried elsewhere —
+ * the modem may have sent it. Inbound stays with each modem's own polling service.
+ * With a {@link ReplyAffinity}, a number that wrote to us recently is answered from the modem that
+ * received it, as long as that modem is usable; otherwise the route applies.
+ */
+public class RoutingSmsGateway implements SmsSender {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingSmsGateway.class);
+
+    private static final long WINDOW_MS = 60_000;
+
+    private final Modem[] modems;
+    private volatile RouteTable table;
+    private volatile ReplyAffinity affinity;
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder sticky = new LongAdder();
+    private final LongAdder stickyUnavailable = new LongAdder();
+
+    public RoutingSmsGateway(List<Modem> modems, RouteTable table) {
+        this.modems = modems.toArray(new Modem[0]);
+        this.table = table;
+    }
+
+    /**
+     * One routable modem (SIM).
+     */
+    public static final class Modem {
+        private final String name;
+        private final SmsGateway gateway;
+        private volatile int maxPerMinute;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private volatile boolean burstRefused;
+        private long windowStart;
+        private int windowCount;
+
+        /**
+         * @param maxPerMinute sends per minute before the modem counts as saturated, 0 = no limit
+         */
+        public Modem(String name, SmsGateway gateway, int maxPerMinute) {
+            this.name = name;
+            this.gateway = gateway;
+            this.maxPerMinute = maxPerMinute;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SmsGateway getGateway() {
+            return gateway;
+        }
+
+        public void setMaxPerMinute(int maxPerMinute) {
+            this.maxPerMinute = maxPerMinute;
+        }
+
+        public boolean isAvailable() {
+            if (gateway instanceof ModemSession session && !session.isReady()) {
+                return false;
+            }
+            return gateway.isNetworkAvailable();
+        }
+
+        public synchronized boolean isSaturated(long nowMillis) {
+            if (inFlight.get() > 0) {
+                return true;
+            }
+            int max = maxPerMinute;
+            return max > 0 && nowMillis - windowStart < WINDOW_MS && windowCount >= max;
+        }
+
+        private synchronized void count(long nowMillis) {
+            if (nowMillis - windowStart >= WINDOW_MS) {
+                windowStart = nowMillis;
+                windowCount = 0;
+            }
+            windowCount++;
+        }
+
+        void send(String number, String message, long nowMillis) throws ModemException {
+            inFlight.incrementAndGet();
+            count(nowMillis);
+            try {
+                gateway.sendSms(number, message);
+                sent.increment();
+            } catch (ModemException | RuntimeException e) {
+                failed.increment();
+                throw e;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getSent() {
+            return sent.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        /**
+         * The modem answered {@code AT+CMMS} with an error; burst mode is not tried on it again.
+         */
+        public boolean isBurstRefused() {
+            return burstRefused;
+        }
+    }
+
+    /**
+     * Swaps the routing table (config reload); sends already routed keep the old one.
+     */
+    public void setTable(RouteTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Sends replies from the modem that received the conversation (null = routing only).
+     * Modem ids of {@code affinity} are indexes into {@link #getModems()}.
+     */
+    public void setAffinity(ReplyAffinity affinity) {
+        this.affinity = affinity;
+    }
+
+    public ReplyAffinity getAffinity() {
+        return affinity;
+    }
+
+    /**
+     * SMS sent from the modem that received the conversation.
+     */
+    public long getSticky() {
+        return sticky.sum();
+    }
+
+    /**
+     * SMS with a known conversation modem that was down or saturated, routed normally instead.
+     */
+    public long getStickyUnavailable() {
+        return stickyUnavailable.sum();
+    }
+
+    public RouteTable getTable() {
+        return table;
+    }
+
+    public List<Modem> getModems() {
+        return List.of(modems);
+    }
+
+    /**
+     * SMS that went to a later group of their chain because the first one was down or saturated.
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Modem that would send to {@code number} now, or null if none of its chain is usable.
+     */
+    public Modem route(CharSequence number) {
+        RouteTable t = table;
+        long now = System.currentTimeMillis();
+        ReplyAffinity a = affinity;
+        if (a != null) {
+            int id = a.lookup(number, now);
+            if (id >= 0 && id < modems.length) {
+                Modem modem = modems[id];
+                if (modem.isAvailable() && !modem.isSaturated(now)) {
+                    sticky.increment();
+                    return modem;
+                }
+                stickyUnavailable.increment();
+                logger.debug("Reply to {} cannot use conversation modem {}, routing", number, modem.name);
+            }
+        }
+        int[] chain = t.chain(number);
+        for (int i = 0; i < chain.length; i++) {
+            Modem modem = pick(t, chain[i], now);
+            if (modem != null) {
+                if (i > 0) {
+                    fallbacks.increment();
+                    logger.debug("SMS to {} falls back to group {} ({})", number, t.groupName(chain[i]), modem.name);
+                }
+                return modem;
+            }
+        }
+        return null;
+    }
+
+    private Modem pick(RouteTable t, int group, long now) {
+        int[] members = t.members(group);
+        int start = t.cursor(group);
+        for (int k = 0; k < members.length; k++) {
+            int slot = (start + k) % members.length;
+            Modem modem = modems[members[slot]];
+            if (modem.isAvailable() && !modem.isSaturated(now)) {
+                t.advance(group, slot + 1);
+                return modem;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void sendSms(String number, String message) throws ModemException {
+        Modem modem = route(number);
+        if (modem == null) {
+            throw new ModemException("No modem available for " + number);
+        }
+        modem.send(number, message, System.currentTimeMillis());
+    }
+
+    /**
+     * Applies burst mode to every modem that is up. A modem that refuses it is remembered and skipped
+     * from then on; other failures only skip it this time. Fails only when no modem took the mode,
+     * with {@link ModemCommandException} once every modem has refused it.
+     */
+    @Override
+    public void setBurst(boolean on) throws ModemException {
+        int applied = 0;
+        int refused = 0;
+        ModemException failure = null;
+        for (Modem modem : modems) {
+            if (modem.burstRefused) {
+                refused++;
+                continue;
+            }
+            if (!modem.isAvailable()) {
+                continue;
+            }
+            try {
+                modem.gateway.setBurst(on);
+                applied++;
+            } catch (ModemCommandException e) {
+                modem.burstRefused = true;
+                refused++;
+                logger.warn("Modem {} refused burst mode, not used on it any more: {}", modem.name, e.getMessage());
+            } catch (ModemException e) {
+                failure = e;
+                logger.warn("Modem {} burst {} failed: {}", modem.name, on ? "on" : "off", e.getMessage());
+            }
+        }
+        if (applied > 0) {
+            return;
+        }
+        if (refused == modems.length) {
+            throw new ModemCommandException("Burst mode refused by every modem");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * True while at least one modem can send.
+     */
+    @Override
+    public boolean isNetworkAvailable() {
+        for (Modem modem : modems) {
+            if (modem.isAvailable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes every modem; they are opened by their owners (supervisors) with their own PIN.
+     */
+    @Override
+    public void close() {
+        for (Modem modem : modems) {
+            try {
+                modem.gateway.close();
+            } catch (RuntimeException e) {
+                logger.warn("Closing modem {} failed: {}", modem.name, e.getMessage());
+            }
+        }
+    }
+}
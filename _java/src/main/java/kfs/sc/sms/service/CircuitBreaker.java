@@ -0,0 +1,154 @@
+package kfs.sc.sms.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for the REST uplink.
+ * <p>
+ * CLOSED → after {@code failureThreshold} consecutive failures → OPEN (calls fail fast)
+ * → after {@code openDuration} → HALF_OPEN (one trial call) → CLOSED on success, OPEN on failure.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+    private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long trialAt;
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this(failureThreshold, openDuration, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, Duration openDuration, LongSupplier clock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openDuration.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * True if a call may go out now. In HALF_OPEN only one trial call is let through.
+     */
+    public boolean allowRequest() {
+        State changed = null;
+        boolean allowed;
+        synchronized (this) {
+            if (state == State.OPEN && clock.getAsLong() - openedAt >= openNanos) {
+                state = State.HALF_OPEN;
+                trialInFlight = false;
+                changed = state;
+            }
+            allowed = switch (state) {
+                case CLOSED -> true;
+                case OPEN -> false;
+                case HALF_OPEN -> {
+                    long now = clock.getAsLong();
+                    // pokus, jehož výsledek nikdo nehlásil (přerušení), po openDuration propadne
+                    if (trialInFlight && now - trialAt < openNanos) {
+                        yield false;
+                    }
+                    trialInFlight = true;
+                    trialAt = now;
+                    yield true;
+                }
+            };
+        }
+        fire(changed);
+        return allowed;
+    }
+
+    public void onSuccess() {
+        State changed = null;
+        synchronized (this) {
+            failures = 0;
+            trialInFlight = false;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                changed = state;
+            }
+        }
+        fire(changed);
+    }
+
+    public void onFailure() {
+        State changed = null;
+        synchronized (this) {
+            failures++;
+            trialInFlight = false;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+                state = State.OPEN;
+                openedAt = clock.getAsLong();
+                changed = state;
+            } else if (state == State.OPEN) {
+                openedAt = clock.getAsLong();
+            }
+        }
+        fire(changed);
+    }
+
+    /**
+     * True if {@link #allowRequest()} would refuse a call right now: OPEN and the open period not yet over,
+     * or HALF_OPEN with the trial call still in flight. Unlike {@link #getState()} this follows the clock,
+     * so a caller that waits on it sees the trial window without anyone else calling {@code allowRequest}.
+     */
+    public synchronized boolean isRejecting() {
+        long now = clock.getAsLong();
+        return switch (state) {
+            case CLOSED -> false;
+            case OPEN -> now - openedAt < openNanos;
+            case HALF_OPEN -> trialInFlight && now - trialAt < openNanos;
+        };
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return failures;
+    }
+
+    /**
+     * How long until an OPEN breaker lets a trial call through; zero otherwise.
+     */
+    public synchronized Duration remainingOpen() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(Math.max(0, openNanos - (clock.getAsLong() - openedAt)));
+    }
+
+    public void addListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    private void fire(State changed) {
+        if (changed == null) {
+            return;
+        }
+        logger.info("REST circuit breaker → {}", changed);
+        for (Consumer<State> listener : listeners) {
+            try {
+                listener.accept(changed);
+            } catch (Exception e) {
+                logger.warn("Circuit breaker listener failed", e);
+            }
+        }
+    }
+}
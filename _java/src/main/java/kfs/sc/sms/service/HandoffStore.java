@@ -0,0 +1,128 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.model.SmsStatus;
+import kfs.sc.sms.utils.KfsSmsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Messages that were not delivered before shutdown; written by the old process,
+ * read (and removed) by the next one before polling starts.
+ */
+public class HandoffStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(HandoffStore.class);
+
+    private static final int MAGIC = 0x4b465348; // "KFSH"
+    private static final int VERSION = 1;
+
+    private final Path file;
+
+    public HandoffStore(Path file) {
+        this.file = file;
+    }
+
+    public void save(Collection<SmsMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(messages.size());
+            for (SmsMessage msg : messages) {
+                write(out, msg);
+            }
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot write handoff file " + file, e);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot write handoff file " + file, e);
+        }
+        logger.info("Handoff: {} undelivered SMS saved to {}", messages.size(), file);
+    }
+
+    /**
+     * Returns the saved messages and deletes the file; empty list if there is nothing to resume.
+     * An unreadable file (truncated, other format version) is renamed to {@code <file>.bad} so startup
+     * goes on instead of failing on every restart.
+     */
+    public List<SmsMessage> loadAndClear() {
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        List<SmsMessage> messages = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                messages.add(read(in));
+            }
+        } catch (IOException | RuntimeException e) {
+            quarantine(file, e);
+            return List.of();
+        }
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot delete handoff file " + file, e);
+        }
+        logger.info("Handoff: {} SMS resumed from {}", messages.size(), file);
+        return messages;
+    }
+
+    /**
+     * Moves an unreadable handoff file aside to {@code <file>.bad}, kept for manual recovery.
+     */
+    static void quarantine(Path file, Exception cause) {
+        Path bad = file.resolveSibling(file.getFileName() + ".bad");
+        try {
+            Files.move(file, bad, StandardCopyOption.REPLACE_EXISTING);
+            logger.error("Unreadable handoff file {} moved to {}, its SMS are not resumed", file, bad, cause);
+        } catch (IOException e) {
+            logger.error("Unreadable handoff file {} cannot be moved to {}", file, bad, e);
+        }
+    }
+
+    static void write(DataOutputStream out, SmsMessage msg) throws IOException {
+        out.writeInt(msg.index());
+        out.writeUTF(msg.status() == null ? "" : msg.status().name());
+        out.writeUTF(msg.sender() == null ? "" : msg.sender());
+        out.writeUTF(msg.timestamp() == null ? "" : msg.timestamp().toString());
+        out.writeUTF(msg.text() == null ? "" : msg.text());
+    }
+
+    static SmsMessage read(DataInputStream in) throws IOException {
+        int index = in.readInt();
+        String status = in.readUTF();
+        String sender = in.readUTF();
+        String timestamp = in.readUTF();
+        String text = in.readUTF();
+        return new SmsMessage(
+                index,
+                status.isEmpty() ? null : SmsStatus.valueOf(status),
+                sender,
+                timestamp.isEmpty() ? null : OffsetDateTime.parse(timestamp),
+                text
+        );
+    }
+}
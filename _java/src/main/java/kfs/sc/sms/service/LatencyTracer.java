@@ -0,0 +1,218 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.MessageTrace;
+import kfs.sc.sms.model.SmsMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage latency histograms built from the {@link MessageTrace} of every finished message,
+ * plus a sampled log of slow messages (at most one line per {@link #SLOW_LOG_INTERVAL_MS}).
+ * Recording is a few atomic increments into preallocated buckets.
+ */
+public class LatencyTracer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LatencyTracer.class);
+
+    static final long SLOW_LOG_INTERVAL_MS = 10_000;
+
+    public enum Direction {INBOUND, OUTBOUND}
+
+    public enum Span {
+        /** Modem timestamp → listed (inbound only; waiting on the SIM, wall clock). */
+        SIM,
+        /** Listed → enqueued (rest of the poll loop). */
+        POLL,
+        /** Enqueued → dequeued. */
+        QUEUE,
+        /** Dequeued → first attempt (stripe queue of the dispatch worker). */
+        STRIPE,
+        /** First → last attempt (failed attempts and retry sleeps). */
+        RETRY,
+        /** Last attempt → acknowledged. */
+        SEND,
+        /** Listed → acknowledged. */
+        TOTAL
+    }
+
+    private static final Span[] SPANS = Span.values();
+
+    private final Histogram[][] histograms = new Histogram[Direction.values().length][SPANS.length];
+    private final long slowNanos;
+    private final LongAdder slow = new LongAdder();
+    private final AtomicLong nextSlowLog = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param slowMs end-to-end time (including the SIM wait) above which a message counts as slow, 0 = never
+     */
+    public LatencyTracer(long slowMs) {
+        this.slowNanos = slowMs <= 0 ? Long.MAX_VALUE : slowMs * 1_000_000;
+        for (Histogram[] row : histograms) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new Histogram();
+            }
+        }
+    }
+
+    /**
+     * Inbound message accepted by the server.
+     */
+    public void completed(SmsMessage msg) {
+        MessageTrace t = msg.trace();
+        long sim = -1;
+        if (msg.timestamp() != null && t.getListedMillis() != 0) {
+            sim = Math.max(0, t.getListedMillis() - msg.timestamp().toInstant().toEpochMilli()) * 1_000_000;
+        }
+        if (record(Direction.INBOUND, t, sim)) {
+            logSlow("inbound from " + msg.sender(), t, sim);
+        }
+    }
+
+    /**
+     * Outbound message confirmed to the server.
+     */
+    public void completed(SmsRestClient.OutgoingSms sms) {
+        if (record(Direction.OUTBOUND, sms.trace(), -1)) {
+            logSlow("outbound id=" + sms.id(), sms.trace(), -1);
+        }
+    }
+
+    /**
+     * @return true if the message was slow and the sampled log may print it
+     */
+    private boolean record(Direction direction, MessageTrace t, long simNanos) {
+        Histogram[] row = histograms[direction.ordinal()];
+        add(row, Span.SIM, simNanos);
+        add(row, Span.POLL, MessageTrace.between(t.getListed(), t.getEnqueued()));
+        add(row, Span.QUEUE, MessageTrace.between(t.getEnqueued(), t.getDequeued()));
+        add(row, Span.STRIPE, MessageTrace.between(t.getDequeued(), t.getFirstAttempt()));
+        add(row, Span.RETRY, MessageTrace.between(t.getFirstAttempt(), t.getLastAttempt()));
+        add(row, Span.SEND, MessageTrace.between(t.getLastAttempt(), t.getAcked()));
+        long total = MessageTrace.between(t.getListed(), t.getAcked());
+        add(row, Span.TOTAL, total);
+
+        if (Math.max(0, total) + Math.max(0, simNanos) < slowNanos) {
+            return false;
+        }
+        slow.increment();
+        long now = System.currentTimeMillis();
+        long next = nextSlowLog.get();
+        if (now < next || !nextSlowLog.compareAndSet(next, now + SLOW_LOG_INTERVAL_MS)) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private static void add(Histogram[] row, Span span, long nanos) {
+        if (nanos >= 0) {
+            row[span.ordinal()].add(nanos);
+        }
+    }
+
+    private void logSlow(String what, MessageTrace t, long simNanos) {
+        logger.warn("Slow SMS {}: total {} ms = sim {} + poll {} + queue {} + stripe {} + retry {} ({} attempts) "
+                        + "+ send {} ms; {} more slow since last line",
+                what,
+                (Math.max(0, MessageTrace.between(t.getListed(), t.getAcked())) + Math.max(0, simNanos)) / 1_000_000,
+                ms(simNanos),
+                ms(MessageTrace.between(t.getListed(), t.getEnqueued())),
+                ms(MessageTrace.between(t.getEnqueued(), t.getDequeued())),
+                ms(MessageTrace.between(t.getDequeued(), t.getFirstAttempt())),
+                ms(MessageTrace.between(t.getFirstAttempt(), t.getLastAttempt())),
+                t.getAttempts(),
+                ms(MessageTrace.between(t.getLastAttempt(), t.getAcked())),
+                suppressed.getAndSet(0));
+    }
+
+    private static String ms(long nanos) {
+        return nanos < 0 ? "-" : Long.toString(nanos / 1_000_000);
+    }
+
+    public long count(Direction direction, Span span) {
+        return histograms[direction.ordinal()][span.ordinal()].count();
+    }
+
+    /**
+     * Upper bound of the bucket holding percentile {@code p} (0..1), in ms; 0 if nothing recorded.
+     */
+    public double percentileMs(Direction direction, Span span, double p) {
+        return histograms[direction.ordinal()][span.ordinal()].percentileMicros(p) / 1000.0;
+    }
+
+    /**
+     * Messages slower than the threshold, logged or not.
+     */
+    public long getSlowCount() {
+        return slow.sum();
+    }
+
+    /**
+     * Log-linear histogram in microseconds: 8 buckets per power of two (error at most 12.5 %),
+     * from 1 µs to ~25 days.
+     */
+    static final class Histogram {
+        static final int SUB_BITS = 3;
+        static final int SUB = 1 << SUB_BITS;
+        static final int BUCKETS = (42 - SUB_BITS + 1) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+
+        void add(long nanos) {
+            counts.incrementAndGet(bucket(nanos / 1000));
+            total.increment();
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        static int bucket(long micros) {
+            if (micros < SUB) {
+                return (int) Math.max(0, micros);
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exp - SUB_BITS)) & (SUB - 1);
+            return Math.min(BUCKETS - 1, (exp - SUB_BITS + 1) * SUB + sub);
+        }
+
+        /**
+         * Largest value falling into {@code bucket}.
+         */
+        static long upperMicros(int bucket) {
+            if (bucket < SUB) {
+                return bucket;
+            }
+            int exp = bucket / SUB + SUB_BITS - 1;
+            int sub = bucket % SUB;
+            return ((long) (SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        long percentileMicros(double p) {
+            long n = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return upperMicros(i);
+                }
+            }
+            return upperMicros(BUCKETS - 1);
+        }
+    }
+}
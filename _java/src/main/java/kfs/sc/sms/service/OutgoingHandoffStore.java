@@ -0,0 +1,98 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.SmsPriority;
+import kfs.sc.sms.utils.KfsSmsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Outbound SMS fetched from the server ({@code /sms/o} pops them) but not sent before shutdown;
+ * written by the old process, queued again by the next one before its first poll.
+ */
+public class OutgoingHandoffStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutgoingHandoffStore.class);
+
+    private static final int MAGIC = 0x4b46534f; // "KFSO"
+    private static final int VERSION = 1;
+
+    private final Path file;
+
+    public OutgoingHandoffStore(Path file) {
+        this.file = file;
+    }
+
+    public void save(Collection<SmsRestClient.OutgoingSms> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(messages.size());
+            for (SmsRestClient.OutgoingSms sms : messages) {
+                out.writeUTF(sms.id());
+                out.writeUTF(sms.numb() == null ? "" : sms.numb());
+                out.writeUTF(sms.text() == null ? "" : sms.text());
+                out.writeUTF(sms.priority().name());
+                out.writeLong(sms.expiresAt());
+            }
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot write outgoing handoff file " + file, e);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot write outgoing handoff file " + file, e);
+        }
+        logger.info("Handoff: {} unsent outgoing SMS saved to {}", messages.size(), file);
+    }
+
+    /**
+     * Returns the saved messages and deletes the file; empty list if there is nothing to resume.
+     * An unreadable file is renamed to {@code <file>.bad} so startup goes on.
+     */
+    public List<SmsRestClient.OutgoingSms> loadAndClear() {
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        List<SmsRestClient.OutgoingSms> messages = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                String numb = in.readUTF();
+                String text = in.readUTF();
+                SmsPriority priority = SmsPriority.valueOf(in.readUTF());
+                long expiresAt = in.readLong();
+                messages.add(new SmsRestClient.OutgoingSms(id, numb, text, priority, expiresAt));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            HandoffStore.quarantine(file, e);
+            return List.of();
+        }
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot delete outgoing handoff file " + file, e);
+        }
+        logger.info("Handoff: {} outgoing SMS resumed from {}", messages.size(), file);
+        return messages;
+    }
+}
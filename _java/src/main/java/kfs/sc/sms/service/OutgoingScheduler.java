@@ -0,0 +1,137 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.SmsPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Local multi-level queue of fetched outbound SMS, one FIFO per {@link SmsPriority}.
+ * {@link #next} takes from the highest class; a lower class is lifted one level for every
+ * {@code agingMs} its head has waited, so bulk traffic cannot starve (on a tie the higher class
+ * still wins, so a fresh OTP is never behind aged bulk). Expired heads are dropped before they
+ * reach the modem. Capacity is soft: a fetched batch is always accepted, the service just stops
+ * fetching once {@link #isFull()}.
+ */
+public class OutgoingScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutgoingScheduler.class);
+
+    private static final SmsPriority[] PRIORITIES = SmsPriority.values();
+
+    private final ArrayDeque<SmsRestClient.OutgoingSms>[] levels;
+    private final Set<String> ids = new HashSet<>();
+    private final int capacity;
+    private volatile long agingNanos;
+
+    @SuppressWarnings("unchecked")
+    public OutgoingScheduler(int capacity, long agingMs) {
+        this.capacity = Math.max(1, capacity);
+        this.levels = new ArrayDeque[PRIORITIES.length];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new ArrayDeque<>();
+        }
+        setAging(agingMs);
+    }
+
+    /**
+     * @param agingMs wait after which a lower class moves up one level, 0 = strict priority
+     */
+    public void setAging(long agingMs) {
+        this.agingNanos = agingMs <= 0 ? Long.MAX_VALUE : agingMs * 1_000_000;
+    }
+
+    /**
+     * Queues {@code sms} behind its class; false if the same id is already waiting.
+     */
+    public synchronized boolean offer(SmsRestClient.OutgoingSms sms) {
+        if (!ids.add(sms.id())) {
+            logger.debug("SMS id={} already queued, duplicate ignored", sms.id());
+            return false;
+        }
+        levels[sms.priority().ordinal()].addLast(sms);
+        return true;
+    }
+
+    /**
+     * Removes the SMS to send now, or null if nothing is waiting. Expired heads go to {@code expired}.
+     *
+     * @param nowNanos  {@link System#nanoTime()}, compared with the LISTED stamp for aging
+     * @param nowMillis wall clock, compared with {@link SmsRestClient.OutgoingSms#expiresAt()}
+     */
+    public SmsRestClient.OutgoingSms next(long nowNanos, long nowMillis,
+                                         Consumer<SmsRestClient.OutgoingSms> expired) {
+        List<SmsRestClient.OutgoingSms> dropped = null;
+        SmsRestClient.OutgoingSms result;
+        synchronized (this) {
+            long aging = agingNanos;
+            int best = -1;
+            long bestRank = Long.MAX_VALUE;
+            for (int level = 0; level < levels.length; level++) {
+                ArrayDeque<SmsRestClient.OutgoingSms> queue = levels[level];
+                SmsRestClient.OutgoingSms head;
+                while ((head = queue.peekFirst()) != null && head.isExpired(nowMillis)) {
+                    queue.pollFirst();
+                    ids.remove(head.id());
+                    if (dropped == null) {
+                        dropped = new ArrayList<>();
+                    }
+                    dropped.add(head);
+                }
+                if (head == null) {
+                    continue;
+                }
+                long listed = head.trace().getListed();
+                long waited = listed == 0 ? 0 : Math.max(0, nowNanos - listed);
+                long rank = Math.max(0, level - waited / aging);
+                if (rank < bestRank) { // shoda → vyšší třída (nižší level) vyhrává
+                    best = level;
+                    bestRank = rank;
+                }
+            }
+            result = best < 0 ? null : levels[best].pollFirst();
+            if (result != null) {
+                ids.remove(result.id());
+            }
+        }
+        if (dropped != null) {
+            dropped.forEach(expired);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    public synchronized int size(SmsPriority priority) {
+        return levels[priority.ordinal()].size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() >= capacity;
+    }
+
+    /**
+     * Removes everything still waiting, highest class first.
+     */
+    public synchronized List<SmsRestClient.OutgoingSms> drain() {
+        List<SmsRestClient.OutgoingSms> all = new ArrayList<>(ids.size());
+        for (ArrayDeque<SmsRestClient.OutgoingSms> queue : levels) {
+            all.addAll(queue);
+            queue.clear();
+        }
+        ids.clear();
+        return all;
+    }
+}
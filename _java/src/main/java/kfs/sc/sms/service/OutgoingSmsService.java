@@ -1,69 +1,410 @@
 package kfs.sc.sms.service;
 
-import kfs.sc.sms.model.SmsGateway;
+import kfs.sc.sms.archive.MessageArchive;
+import kfs.sc.sms.model.MessageTrace;
+import kfs.sc.sms.model.SmsPriority;
+import kfs.sc.sms.model.SmsSender;
+import kfs.sc.sms.utils.ModemCommandException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Server → modem. Each poll fetches the server backlog into an {@link OutgoingScheduler} (up to its
+ * capacity) and sends by priority class; while draining, the server is re-polled every poll interval
+ * so a new OTP overtakes queued bulk. Expired SMS are reported as failed instead of sent.
+ * With burst mode a backlog (more than one SMS) is sent back-to-back with the radio link kept up
+ * ({@link SmsSender#setBurst}), then the link is released. Per-message modem latency is kept
+ * separately for single and burst sends. Fetched SMS still unsent at {@link #stop} are no longer on the
+ * server, so they go to the {@link OutgoingHandoffStore} and are queued again by the next start.
+ */
 public class OutgoingSmsService {
 
     private static final Logger logger = LoggerFactory.getLogger(OutgoingSmsService.class);
 
-    private final SmsGateway gateway;
+    static final int DEFAULT_QUEUE_CAPACITY = 500;
+    static final long DEFAULT_AGING_MS = 60_000;
+
+    private final SmsSender gateway;
     private final SmsRestClient client;
-    private final long pollIntervalMs;
+    private final OutgoingScheduler scheduler;
+    private volatile long pollIntervalMs;
     private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean paused = new AtomicBoolean(false);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean burstEnabled;
+    private boolean deferring;
+    private volatile LatencyTracer tracer;
+    private volatile MessageArchive archive;
+    private volatile OutgoingHandoffStore handoffStore;
+    private final Latency single = new Latency();
+    private final Latency burst = new Latency();
     private ScheduledExecutorService executor;
+    private ScheduledFuture<?> task;
+
+    public OutgoingSmsService(SmsSender gateway, SmsRestClient client, long pollIntervalMs) {
+        this(gateway, client, pollIntervalMs, false);
+    }
 
-    public OutgoingSmsService(SmsGateway gateway, SmsRestClient client, long pollIntervalMs) {
+    public OutgoingSmsService(SmsSender gateway, SmsRestClient client, long pollIntervalMs, boolean burstEnabled) {
+        this(gateway, client, pollIntervalMs, burstEnabled, new OutgoingScheduler(DEFAULT_QUEUE_CAPACITY, DEFAULT_AGING_MS));
+    }
+
+    public OutgoingSmsService(SmsSender gateway, SmsRestClient client, long pollIntervalMs, boolean burstEnabled,
+                              OutgoingScheduler scheduler) {
         this.gateway = gateway;
         this.client = client;
+        this.scheduler = scheduler;
         this.pollIntervalMs = pollIntervalMs;
+        this.burstEnabled = burstEnabled;
+    }
+
+    /**
+     * Modem send time per SMS ({@code gateway.sendSms}), without the REST confirmation.
+     */
+    public record SendLatency(long count, double avgMs, double maxMs) {
+    }
+
+    private static final class Latency {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private volatile long maxNanos;
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            if (nanos > maxNanos) {
+                maxNanos = nanos; // jen OutgoingSmsThread zapisuje
+            }
+        }
+
+        SendLatency snapshot() {
+            long n = count.sum();
+            return new SendLatency(n, n == 0 ? 0 : totalNanos.sum() / 1e6 / n, maxNanos / 1e6);
+        }
     }
 
     public void start() {
         if (!running.compareAndSet(false, true)) return;
 
+        OutgoingHandoffStore store = handoffStore;
+        if (store != null) {
+            long now = System.nanoTime();
+            for (SmsRestClient.OutgoingSms sms : store.loadAndClear()) {
+                sms.trace().stamp(MessageTrace.Stage.LISTED, now);
+                scheduler.offer(sms);
+            }
+        }
+
         executor = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread t = new Thread(r, "OutgoingSmsThread");
             t.setDaemon(true);
             return t;
         });
 
-        executor.scheduleAtFixedRate(this::poll, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+        schedule(0);
         logger.info("OutgoingSmsService started (interval={}ms)", pollIntervalMs);
     }
 
+    /**
+     * Feeds stage latencies of confirmed messages into {@code tracer} (null = off).
+     */
+    public void setTracer(LatencyTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Archives sent messages into {@code archive} (null = off).
+     */
+    public void setArchive(MessageArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Keeps fetched but unsent SMS across restarts (null = report them as failed at stop).
+     * Must be set before {@link #start()}.
+     */
+    public void setHandoffStore(OutgoingHandoffStore handoffStore) {
+        this.handoffStore = handoffStore;
+    }
+
+    private synchronized void schedule(long initialDelayMs) {
+        if (task != null) {
+            task.cancel(false);
+        }
+        task = executor.scheduleAtFixedRate(this::poll, initialDelayMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Changes the server poll interval of a running service.
+     */
+    public void setPollInterval(long pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+        if (running.get() && executor != null) {
+            schedule(pollIntervalMs);
+        }
+        logger.info("OutgoingSmsService interval set to {} ms", pollIntervalMs);
+    }
+
     private void poll() {
+        if (paused.get()) {
+            return;
+        }
+        // bez registrace do sítě SMS necháme na serveru, místo reportFail
+        if (!gateway.isNetworkAvailable()) {
+            if (!deferring) {
+                deferring = true;
+                logger.warn("Network registration lost, outgoing SMS deferred");
+            }
+            return;
+        }
+        if (deferring) {
+            deferring = false;
+            logger.info("Network back, outgoing SMS resumed");
+        }
+        boolean linkHeld = false;
         try {
-            SmsRestClient.OutgoingSms sms = client.pollOutgoing();
-            if (sms == null || sms.id() == null) {
+            long lastFetch = System.nanoTime();
+            fetch();
+            int sent = 0;
+            long start = lastFetch;
+            SmsRestClient.OutgoingSms sms;
+            while ((sms = scheduler.next(System.nanoTime(), System.currentTimeMillis(), this::expired)) != null) {
+                if (!linkHeld && burstEnabled && (!scheduler.isEmpty() || sent > 0)) {
+                    linkHeld = setBurst(true);
+                }
+                send(sms, linkHeld);
+                sent++;
+                if (paused.get() || !running.get() || !gateway.isNetworkAvailable()) {
+                    break;
+                }
+                // nové SMS ze serveru (OTP) předběhnou zbytek lokální fronty; po vyprázdnění se server
+                // zeptá ještě jednou (co přibylo během odesílání nečeká na další interval), prázdná odpověď smyčku ukončí
+                long now = System.nanoTime();
+                if (scheduler.isEmpty() || now - lastFetch >= pollIntervalMs * 1_000_000) {
+                    lastFetch = now;
+                    fetch();
+                }
+            }
+            if (linkHeld) {
+                logger.info("Burst of {} SMS in {} ms, modem latency burst {} / single {}", sent,
+                        (System.nanoTime() - start) / 1_000_000, burst.snapshot(), single.snapshot());
+            }
+        } catch (Exception e) {
+            logger.error("OutgoingSmsService poll error", e);
+        } finally {
+            if (linkHeld) {
+                setBurst(false);
+            }
+        }
+    }
+
+    /**
+     * Pulls batches from the server into the scheduler until the server is empty, the scheduler full
+     * or one poll interval has passed.
+     */
+    private void fetch() {
+        // SMS přibývající průběžně server nevyprázdní; zbytek dočerpá další fetch v cyklu poll()
+        long deadline = System.nanoTime() + pollIntervalMs * 1_000_000;
+        while (!scheduler.isFull()) {
+            List<SmsRestClient.OutgoingSms> batch = client.pollOutgoingBatch();
+            if (batch.isEmpty()) {
                 return;
             }
+            long now = System.nanoTime();
+            int added = 0;
+            for (SmsRestClient.OutgoingSms sms : batch) {
+                sms.trace().stamp(MessageTrace.Stage.LISTED, now);
+                if (scheduler.offer(sms)) {
+                    added++;
+                }
+            }
+            if (added == 0) {
+                return; // server vrací stále totéž, dál nečerpat
+            }
+            if (now - deadline >= 0) {
+                return;
+            }
+        }
+    }
 
-            logger.info("Outgoing SMS id={} to={}", sms.id(), sms.numb());
+    private void expired(SmsRestClient.OutgoingSms sms) {
+        logger.warn("SMS id={} ({}) expired at {} before send, dropped", sms.id(), sms.priority(),
+                Instant.ofEpochMilli(sms.expiresAt()));
+        client.reportFail(sms.id(), "expired");
+    }
 
-            try {
-                gateway.sendSms(sms.numb(), sms.text());
-                client.confirmSent(sms.id());
-                logger.info("SMS id={} sent OK", sms.id());
-            } catch (Exception e) {
-                logger.error("SMS id={} send failed: {}", sms.id(), e.getMessage());
-                client.reportFail(sms.id(), e.getMessage());
+    private boolean setBurst(boolean on) {
+        try {
+            gateway.setBurst(on);
+            return true;
+        } catch (ModemCommandException e) {
+            if (on) {
+                // modem CMMS odmítl (ERROR), další pokusy by jen zdržovaly
+                burstEnabled = false;
+                logger.warn("Burst mode (AT+CMMS) refused by modem, disabled: {}", e.getMessage());
+            } else {
+                logger.warn("Cannot release burst link: {}", e.getMessage());
             }
+            return false;
         } catch (Exception e) {
-            logger.error("OutgoingSmsService poll error", e);
+            // timeout, modem nepřipravený...: tato dávka jde po jedné, příště se zkusí znovu
+            logger.warn("Cannot {} burst link: {}", on ? "hold" : "release", e.getMessage());
+            return false;
+        }
+    }
+
+    private void send(SmsRestClient.OutgoingSms sms, boolean inBurst) {
+        inFlight.incrementAndGet();
+        try {
+            sendOne(sms, inBurst);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void sendOne(SmsRestClient.OutgoingSms sms, boolean inBurst) {
+        logger.info("Outgoing SMS id={} to={}", sms.id(), sms.numb());
+
+        try {
+            long start = System.nanoTime();
+            sms.trace().stamp(MessageTrace.Stage.ATTEMPT, start);
+            gateway.sendSms(sms.numb(), sms.text());
+            (inBurst ? burst : single).record(System.nanoTime() - start);
+        } catch (Exception e) {
+            logger.error("SMS id={} send failed: {}", sms.id(), e.getMessage());
+            client.reportFail(sms.id(), e.getMessage());
+            return;
+        }
+        // odesláno; chyba potvrzení nesmí vést k reportFail (server by SMS poslal znovu)
+        client.confirmSent(sms.id());
+        sms.trace().stamp(MessageTrace.Stage.ACKED);
+        LatencyTracer tracer = this.tracer;
+        if (tracer != null) {
+            tracer.completed(sms);
+        }
+        MessageArchive archive = this.archive;
+        if (archive != null) {
+            archive.outbound(sms);
+        }
+        logger.info("SMS id={} sent OK", sms.id());
+    }
+
+    /**
+     * Skips polls until {@link #resume()}, e.g. while the modem is reconnecting.
+     */
+    public void pause() {
+        if (paused.compareAndSet(false, true)) {
+            logger.info("OutgoingSmsService paused");
+        }
+    }
+
+    public void resume() {
+        if (paused.compareAndSet(true, false)) {
+            logger.info("OutgoingSmsService resumed");
+        }
+    }
+
+    public boolean isPaused() {
+        return paused.get();
+    }
+
+    /**
+     * Changes how long a lower priority class waits before it moves up one level.
+     */
+    public void setAging(long agingMs) {
+        scheduler.setAging(agingMs);
+        logger.info("OutgoingSmsService aging set to {} ms", agingMs);
+    }
+
+    /**
+     * Fetched SMS waiting for the modem, per priority class.
+     */
+    public int getQueued(SmsPriority priority) {
+        return scheduler.size(priority);
+    }
+
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    public SendLatency getSingleLatency() {
+        return single.snapshot();
+    }
+
+    public SendLatency getBurstLatency() {
+        return burst.snapshot();
+    }
+
+    public boolean isBurstEnabled() {
+        return burstEnabled;
+    }
+
+    /**
+     * SMS currently being sent by the modem.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Polls the server now on the outgoing thread (ignored while paused).
+     */
+    public void pollNow() {
+        if (running.get() && executor != null) {
+            executor.execute(this::poll);
         }
     }
 
     public void stop() {
+        stop(Duration.ofSeconds(10));
+    }
+
+    /**
+     * Unsent SMS are already popped from the server: persist them, otherwise report them as failed
+     * so the server knows about them. Report errors (server down) are logged per message.
+     */
+    private void handOff(List<SmsRestClient.OutgoingSms> unsent) {
+        OutgoingHandoffStore store = handoffStore;
+        if (store != null) {
+            try {
+                store.save(unsent);
+                return;
+            } catch (Exception e) {
+                logger.error("Cannot persist {} unsent outgoing SMS, reporting them as failed", unsent.size(), e);
+            }
+        }
+        List<String> unreported = new ArrayList<>();
+        for (SmsRestClient.OutgoingSms sms : unsent) {
+            try {
+                client.reportFail(sms.id(), "gateway stopped before send");
+            } catch (Exception e) {
+                unreported.add(sms.id());
+            }
+        }
+        logger.warn("{} fetched SMS not sent, reported as failed", unsent.size() - unreported.size());
+        if (!unreported.isEmpty()) {
+            logger.error("{} fetched SMS neither sent nor reported, lost: {}", unreported.size(), unreported);
+        }
+    }
+
+    /**
+     * Stops scheduling new polls and waits at most {@code timeout} for the running one.
+     */
+    public void stop(Duration timeout) {
         running.set(false);
         if (executor != null) {
             executor.shutdown();
             try {
-                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
                     logger.warn("OutgoingSmsService did not terminate in time, forcing shutdown");
                     executor.shutdownNow();
                 }
@@ -72,6 +413,10 @@ public class OutgoingSmsService {
                 Thread.currentThread().interrupt();
             }
         }
+        List<SmsRestClient.OutgoingSms> unsent = scheduler.drain();
+        if (!unsent.isEmpty()) {
+            handOff(unsent);
+        }
         logger.info("OutgoingSmsService stopped");
     }
 }
@@ -0,0 +1,7 @@
+package kfs.sc.sms.service;
+
+/**
+ * Retry settings swapped as one value, so a reload never mixes old count with new delay.
+ */
+public record RetryPolicy(int maxRetries, long delayMs) {
+}
@@ -0,0 +1,317 @@
+package kfs.sc.sms.service;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded lock-free ring buffer (per-slot sequence numbers, D. Vyukov's MPMC scheme).
+ * Polling is the single producer today, dispatch workers consume; more producers (modems) are safe too.
+ * <p>
+ * Offer/poll never lock. Only waiting for space or data goes through the {@link WaitStrategy}.
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    public enum WaitStrategy {
+        /** Lock + condition, signalled only if somebody waits; lowest CPU when idle. */
+        BLOCKING,
+        /** Parks with a growing timeout up to 1 ms; no signalling on the hot path. */
+        PARKING,
+        /** Spins and yields; lowest latency, burns a core while waiting. */
+        YIELDING;
+
+        public static WaitStrategy from(String value) {
+            return value == null || value.isBlank() ? BLOCKING : valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> items;
+    private final AtomicLongArray sequence;
+    private final PaddedCounter head = new PaddedCounter();
+    private final PaddedCounter tail = new PaddedCounter();
+
+    private final WaitStrategy strategy;
+    private final Waiter notEmpty;
+    private final Waiter notFull;
+    private final BooleanSupplier hasData = this::hasData;
+    private final BooleanSupplier hasSpace = this::hasSpace;
+
+    public RingBufferQueue(int requestedCapacity, WaitStrategy strategy) {
+        int cap = Integer.highestOneBit(Math.max(1, requestedCapacity - 1)) << 1; // mocnina dvou, min. 2
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.items = new AtomicReferenceArray<>(cap);
+        this.sequence = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; i++) {
+            sequence.set(i, i);
+        }
+        this.strategy = strategy;
+        this.notEmpty = new Waiter(strategy);
+        this.notFull = new Waiter(strategy);
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = tail.get();
+        while (true) {
+            int i = (int) (pos & mask);
+            long diff = sequence.getAcquire(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.setPlain(i, e);
+                    sequence.setRelease(i, pos + 1); // publikace
+                    notEmpty.signal();
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // plno
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int i = (int) (pos & mask);
+            long diff = sequence.getAcquire(i) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = items.getPlain(i);
+                    items.setPlain(i, null);
+                    sequence.setRelease(i, pos + capacity); // slot volný pro další kolo
+                    notFull.signal();
+                    return e;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null; // prázdno
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        long pos = head.get();
+        int i = (int) (pos & mask);
+        return sequence.get(i) == pos + 1 ? items.get(i) : null;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            notFull.await(hasSpace, Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            if (!notFull.await(hasSpace, deadline)) {
+                return offer(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll()) == null) {
+            notEmpty.await(hasData, Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        while ((e = poll()) == null) {
+            if (!notEmpty.await(hasData, deadline)) {
+                return poll();
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public int size() {
+        // head čteme první: výsledek nikdy záporný
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(capacity, t - h));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Weakly consistent snapshot, for diagnostics only.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long h = head.get();
+        long t = tail.get();
+        for (long pos = h; pos < t; pos++) {
+            E e = items.get((int) (pos & mask));
+            if (e != null) {
+                snapshot.add(e);
+            }
+        }
+        return snapshot.iterator();
+    }
+
+    private boolean hasData() {
+        return sequence.get((int) (head.get() & mask)) == head.get() + 1;
+    }
+
+    private boolean hasSpace() {
+        return tail.get() - head.get() < capacity;
+    }
+
+    /**
+     * Counter on its own cache line, producers and consumers do not invalidate each other.
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedCounter extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    /**
+     * One waiting side (consumers for data, producers for space).
+     */
+    private static final class Waiter {
+        private final WaitStrategy strategy;
+        private final ReentrantLock lock;
+        private final Condition condition;
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        Waiter(WaitStrategy strategy) {
+            this.strategy = strategy;
+            this.lock = strategy == WaitStrategy.BLOCKING ? new ReentrantLock() : null;
+            this.condition = lock == null ? null : lock.newCondition();
+        }
+
+        void signal() {
+            // rychlá cesta: bez čekajících žádný zámek
+            if (lock != null && waiting.get() > 0) {
+                lock.lock();
+                try {
+                    condition.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Waits until {@code ready} or the deadline ({@code Long.MAX_VALUE} = none).
+         *
+         * @return false on timeout
+         */
+        boolean await(BooleanSupplier ready, long deadline) throws InterruptedException {
+            switch (strategy) {
+                case BLOCKING -> {
+                    lock.lockInterruptibly();
+                    waiting.incrementAndGet();
+                    try {
+                        while (!ready.getAsBoolean()) {
+                            if (deadline == Long.MAX_VALUE) {
+                                // pojistka proti ztracenému signálu mezi kontrolou a await
+                                condition.await(10, TimeUnit.MILLISECONDS);
+                            } else {
+                                long nanos = deadline - System.nanoTime();
+                                if (nanos <= 0) {
+                                    return false;
+                                }
+                                condition.awaitNanos(Math.min(nanos, TimeUnit.MILLISECONDS.toNanos(10)));
+                            }
+                        }
+                        return true;
+                    } finally {
+                        waiting.decrementAndGet();
+                        lock.unlock();
+                    }
+                }
+                case PARKING -> {
+                    long park = 1_000;
+                    while (!ready.getAsBoolean()) {
+                        if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline) {
+                            return false;
+                        }
+                        LockSupport.parkNanos(park);
+                        park = Math.min(park * 2, 1_000_000);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                    return true;
+                }
+                default -> {
+                    int spins = 0;
+                    while (!ready.getAsBoolean()) {
+                        if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline) {
+                            return false;
+                        }
+                        if (++spins < 100) {
+                            Thread.onSpinWait();
+                        } else {
+                            Thread.yield();
+                        }
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                    return true;
+                }
+            }
+        }
+    }
+}
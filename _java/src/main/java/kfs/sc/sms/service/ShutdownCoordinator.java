@@ -0,0 +1,111 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.model.SmsSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stops the gateway within one global deadline without losing incoming SMS:
+ * <ol>
+ *     <li>stop intake — polling and outbound fetch finish their current modem command,
+ *     while dispatch keeps flushing the queue in parallel</li>
+ *     <li>let dispatch drain the queue for the rest of the deadline</li>
+ *     <li>persist whatever is left to the {@link HandoffStore} for the next process, including SMS the modem
+ *     acknowledged after the last poll</li>
+ * </ol>
+ */
+public class ShutdownCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShutdownCoordinator.class);
+
+    private final List<SmsPollingService> pollingServices;
+    private final OutgoingSmsService outgoingService;
+    private final SmsDispatchService dispatchService;
+    private final SmsSender gateway;
+    private final HandoffStore handoffStore;
+    private final Duration timeout;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    public ShutdownCoordinator(SmsPollingService pollingService,
+                               OutgoingSmsService outgoingService,
+                               SmsDispatchService dispatchService,
+                               SmsSender gateway,
+                               HandoffStore handoffStore,
+                               Duration timeout) {
+        this(List.of(pollingService), outgoingService, dispatchService, gateway, handoffStore, timeout);
+    }
+
+    /**
+     * One polling service per modem; {@code gateway} closes all modems.
+     */
+    public ShutdownCoordinator(List<SmsPollingService> pollingServices,
+                               OutgoingSmsService outgoingService,
+                               SmsDispatchService dispatchService,
+                               SmsSender gateway,
+                               HandoffStore handoffStore,
+                               Duration timeout) {
+        this.pollingServices = List.copyOf(pollingServices);
+        this.outgoingService = outgoingService;
+        this.dispatchService = dispatchService;
+        this.gateway = gateway;
+        this.handoffStore = handoffStore;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Runs the shutdown sequence once; further calls return immediately.
+     */
+    public void shutdown() {
+        if (!stopped.compareAndSet(false, true)) return;
+
+        long deadline = System.nanoTime() + timeout.toNanos();
+        logger.info("Coordinated shutdown, deadline {} ms", timeout.toMillis());
+
+        // 1. intake
+        List<CompletableFuture<Void>> intake = new ArrayList<>();
+        for (SmsPollingService pollingService : pollingServices) {
+            intake.add(stopAsync("polling", () -> pollingService.stop(remaining(deadline))));
+        }
+        intake.add(stopAsync("outgoing", () -> outgoingService.stop(remaining(deadline))));
+        CompletableFuture.allOf(intake.toArray(new CompletableFuture[0])).join();
+
+        // 2. drain
+        dispatchService.stop(remaining(deadline));
+
+        // 3. handoff
+        List<SmsMessage> remaining = dispatchService.drainRemaining();
+        // +CMT potvrzené síti během odesílání po posledním pollu by close() zahodil
+        for (SmsPollingService pollingService : pollingServices) {
+            remaining.addAll(pollingService.drainReceived());
+        }
+        try {
+            handoffStore.save(remaining);
+        } catch (Exception e) {
+            logger.error("Cannot persist {} undelivered SMS: {}", remaining.size(), remaining, e);
+        }
+
+        gateway.close();
+        logger.info("Coordinated shutdown done, {} SMS handed off", remaining.size());
+    }
+
+    /**
+     * A failing stop is only logged: drain, handoff and close must run anyway.
+     */
+    private static CompletableFuture<Void> stopAsync(String name, Runnable stop) {
+        return CompletableFuture.runAsync(stop).exceptionally(e -> {
+            logger.error("Stopping {} service failed, shutdown continues", name, e);
+            return null;
+        });
+    }
+
+    private static Duration remaining(long deadline) {
+        return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+    }
+}
@@ -1,31 +1,98 @@
 package kfs.sc.sms.service;
 
+import kfs.sc.sms.archive.MessageArchive;
+import kfs.sc.sms.model.MessageTrace;
 import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.utils.CircuitOpenException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Delivers incoming SMS from the queue to the server with N workers.
+ * <p>
+ * The distributor thread routes each message to a stripe by sender hash; every stripe has one worker,
+ * so messages from one number keep their order while different senders are sent in parallel.
+ * A full stripe blocks the distributor, the backlog then stays in the main queue.
+ */
 public class SmsDispatchService {
 
     private static final Logger logger = LoggerFactory.getLogger(SmsDispatchService.class);
 
+    private final class Stripe {
+        final BlockingQueue<SmsMessage> queue;
+        final Thread worker;
+        volatile boolean closed;
+
+        Stripe(int index) {
+            this.queue = new ArrayBlockingQueue<>(stripeCapacity);
+            this.worker = new Thread(this::work, "SmsDispatchWorker-" + index);
+            this.worker.setDaemon(true);
+        }
+
+        private void work() {
+            while (!closed || !queue.isEmpty()) {
+                try {
+                    if (paused.get() && running.get()) {
+                        Thread.sleep(200);
+                        continue;
+                    }
+                    SmsMessage msg = queue.poll(200, TimeUnit.MILLISECONDS);
+                    if (msg != null) {
+                        inFlight.incrementAndGet();
+                        try {
+                            processWithRetry(msg);
+                        } finally {
+                            inFlight.decrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
     private final BlockingQueue<SmsMessage> queue;
     private final SmsRestClient client;
     private final ExecutorService executor;
-    private final int maxRetries;
-    private final long retryDelayMs;
+    private final int stripeCapacity;
+    private volatile Stripe[] stripes = new Stripe[0];
+    private volatile int requestedWorkers;
+    private volatile RetryPolicy retry;
     private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean paused = new AtomicBoolean(false);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<SmsMessage> undelivered = new ConcurrentLinkedQueue<>();
+    private volatile LatencyTracer tracer;
+    private volatile MessageArchive archive;
 
     public SmsDispatchService(BlockingQueue<SmsMessage> queue,
                               SmsRestClient client,
                               int maxRetries,
                               long retryDelayMs) {
+        this(queue, client, maxRetries, retryDelayMs, 1, 100);
+    }
+
+    public SmsDispatchService(BlockingQueue<SmsMessage> queue,
+                              SmsRestClient client,
+                              int maxRetries,
+                              long retryDelayMs,
+                              int workers,
+                              int stripeCapacity) {
         this.queue = queue;
         this.client = client;
-        this.maxRetries = maxRetries;
-        this.retryDelayMs = retryDelayMs;
+        this.retry = new RetryPolicy(maxRetries, retryDelayMs);
+        this.requestedWorkers = Math.max(1, workers);
+        this.stripeCapacity = Math.max(1, stripeCapacity);
 
         this.executor = Executors.newSingleThreadExecutor(r -> {
             Thread t = new Thread(r, "SmsDispatchThread");
@@ -37,42 +104,208 @@ public class SmsDispatchService {
     public void start() {
         if (!running.compareAndSet(false, true)) return;
 
+        startStripes(requestedWorkers);
         executor.submit(() -> {
-            while (running.get() || !queue.isEmpty()) {
-                try {
-                    SmsMessage msg = queue.poll(1, TimeUnit.SECONDS);
-                    if (msg != null) {
-                        processWithRetry(msg);
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
+            try {
+                distribute();
+            } finally {
+                closeStripes(Long.MAX_VALUE);
             }
             logger.info("SmsDispatchService stopped, queue drained");
         });
 
-        logger.info("SmsDispatchService started");
+        logger.info("SmsDispatchService started ({} workers)", requestedWorkers);
+    }
+
+    private void distribute() {
+        while (running.get() || !queue.isEmpty()) {
+            SmsMessage msg = null;
+            try {
+                if (requestedWorkers != stripes.length && running.get()) {
+                    resize();
+                }
+                if (paused.get() && running.get()) {
+                    // při vypínání se pauza ignoruje, fronta se musí vyprázdnit
+                    Thread.sleep(200);
+                    continue;
+                }
+                msg = queue.poll(1, TimeUnit.SECONDS);
+                if (msg != null) {
+                    msg.trace().stamp(MessageTrace.Stage.DEQUEUED);
+                    Stripe[] current = stripes;
+                    current[stripeOf(msg, current.length)].queue.put(msg);
+                }
+            } catch (InterruptedException e) {
+                if (msg != null) {
+                    undelivered.add(msg);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    static int stripeOf(SmsMessage msg, int stripes) {
+        return msg.sender() == null ? 0 : Math.floorMod(msg.sender().hashCode(), stripes);
+    }
+
+    /**
+     * Changes the worker count. Stripes are drained first, so per-sender order holds across the change.
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be >= 1: " + workers);
+        }
+        requestedWorkers = workers;
+        if (!running.get()) {
+            return;
+        }
+        logger.info("SmsDispatchService resizing to {} workers", workers);
+    }
+
+    public int getWorkers() {
+        return stripes.length == 0 ? requestedWorkers : stripes.length;
+    }
+
+    private void resize() throws InterruptedException {
+        int workers = requestedWorkers;
+        closeStripes(Long.MAX_VALUE);
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        startStripes(workers);
+        logger.info("SmsDispatchService now runs {} workers", workers);
+    }
+
+    private void startStripes(int workers) {
+        Stripe[] created = new Stripe[workers];
+        for (int i = 0; i < workers; i++) {
+            created[i] = new Stripe(i);
+            created[i].worker.start();
+        }
+        stripes = created;
+    }
+
+    /**
+     * Lets workers finish their stripes; waits at most {@code timeoutMs}.
+     */
+    private void closeStripes(long timeoutMs) {
+        Stripe[] current = stripes;
+        long deadline = timeoutMs == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutMs;
+        for (Stripe stripe : current) {
+            stripe.closed = true;
+        }
+        for (Stripe stripe : current) {
+            try {
+                long wait = deadline == Long.MAX_VALUE ? 0 : deadline - System.currentTimeMillis();
+                if (deadline != Long.MAX_VALUE && wait <= 0) {
+                    return;
+                }
+                stripe.worker.join(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Feeds stage latencies of delivered messages into {@code tracer} (null = off).
+     */
+    public void setTracer(LatencyTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Archives delivered messages into {@code archive} (null = off).
+     */
+    public void setArchive(MessageArchive archive) {
+        this.archive = archive;
+    }
+
+    public void setRetryPolicy(RetryPolicy retry) {
+        this.retry = retry;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retry;
+    }
+
+    /**
+     * Leaves messages in the queue until {@link #resume()}; ignored once stopping.
+     */
+    public void pause() {
+        if (paused.compareAndSet(false, true)) {
+            logger.info("SmsDispatchService paused");
+        }
+    }
+
+    public void resume() {
+        if (paused.compareAndSet(true, false)) {
+            logger.info("SmsDispatchService resumed");
+        }
+    }
+
+    public boolean isPaused() {
+        return paused.get();
+    }
+
+    /**
+     * Messages taken from the queue and not yet delivered or given up.
+     */
+    public int getInFlight() {
+        return inFlight.get();
     }
 
     private void processWithRetry(SmsMessage msg) {
+        RetryPolicy retry = this.retry;
+        int maxRetries = retry.maxRetries();
         int attempt = 0;
         while (attempt <= maxRetries) {
+            if (client.isCircuitOpen()) {
+                // server je mimo, zpráva čeká bez spotřebování pokusů
+                if (!park(msg)) {
+                    return;
+                }
+                continue;
+            }
             attempt++;
             try {
                 logger.debug("SMS try to send ({}): {}", attempt, msg);
+                msg.trace().stamp(MessageTrace.Stage.ATTEMPT);
                 client.reportIncoming(msg.sender(), msg.text(), msg.timestamp());
+                msg.trace().stamp(MessageTrace.Stage.ACKED);
+                LatencyTracer tracer = this.tracer;
+                if (tracer != null) {
+                    tracer.completed(msg);
+                }
+                MessageArchive archive = this.archive;
+                if (archive != null) {
+                    archive.inbound(msg);
+                }
                 logger.info("SMS sent successfully: {}", msg);
                 return;
+            } catch (CircuitOpenException e) {
+                // odmítnuto bez volání (jiný worker právě zkouší server), pokus se nepočítá
+                attempt--;
+                if (!park(msg)) {
+                    return;
+                }
             } catch (Exception e) {
                 logger.warn("Attempt {} failed to send SMS: {} - {}", attempt, msg, e.getMessage());
+                if (!running.get()) {
+                    // při vypínání se nečeká na retry, zpráva jde do handoff souboru
+                    undelivered.add(msg);
+                    return;
+                }
                 if (attempt > maxRetries) {
                     logger.error("Failed to deliver SMS after {} retries: {}", maxRetries, msg);
                     return;
                 }
                 try {
-                    Thread.sleep(retryDelayMs);
+                    Thread.sleep(retry.delayMs());
                 } catch (InterruptedException ex) {
+                    undelivered.add(msg);
                     Thread.currentThread().interrupt();
                     return;
                 }
@@ -80,17 +313,84 @@ public class SmsDispatchService {
         }
     }
 
+    /**
+     * Holds the message until the breaker allows a trial call.
+     *
+     * @return false if the message went to {@link #drainRemaining()} instead (stopping or interrupted)
+     */
+    private boolean park(SmsMessage msg) {
+        if (!running.get()) {
+            undelivered.add(msg);
+            return false;
+        }
+        long waitMs = Math.max(100, client.getCircuitBreaker().remainingOpen().toMillis());
+        logger.debug("REST circuit open, parking SMS for {} ms: {}", waitMs, msg);
+        try {
+            Thread.sleep(Math.min(waitMs, 1000));
+            return true;
+        } catch (InterruptedException e) {
+            undelivered.add(msg);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     public void stop() {
+        stop(Duration.ofSeconds(30));
+    }
+
+    /**
+     * Stops taking new work once the queue is empty; waits at most {@code timeout} for the drain.
+     */
+    public void stop(Duration timeout) {
         running.set(false);
         executor.shutdown();
         try {
-            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
-                logger.warn("Dispatch thread did not terminate in time, forcing shutdown");
-                executor.shutdownNow();
+            if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("Dispatch threads did not terminate in time, forcing shutdown");
+                forceStop();
             }
         } catch (InterruptedException e) {
-            executor.shutdownNow();
+            forceStop();
             Thread.currentThread().interrupt();
         }
     }
+
+    private void forceStop() {
+        executor.shutdownNow();
+        for (Stripe stripe : stripes) {
+            stripe.worker.interrupt();
+        }
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+            for (Stripe stripe : stripes) {
+                stripe.worker.join(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * After {@link #stop(Duration)}: messages not delivered in time, in original order where possible.
+     * A {@link SpillingQueue} keeps its content on disk instead, only retry leftovers are returned.
+     */
+    public List<SmsMessage> drainRemaining() {
+        List<SmsMessage> remaining = new ArrayList<>(undelivered);
+        undelivered.clear();
+        // stripe fronty jsou starší než hlavní fronta
+        for (Stripe stripe : stripes) {
+            stripe.queue.drainTo(remaining);
+        }
+        if (queue instanceof SpillingQueue spill) {
+            spill.persist();
+        } else {
+            queue.drainTo(remaining);
+        }
+        return remaining;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
 }
@@ -1,5 +1,6 @@
 package kfs.sc.sms.service;
 
+import kfs.sc.sms.model.MessageTrace;
 import kfs.sc.sms.model.SmsGateway;
 import kfs.sc.sms.model.SmsMessage;
 import kfs.sc.sms.utils.ModemException;
@@ -10,18 +11,22 @@ import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class SmsPollingService {
 
     private static final Logger logger = LoggerFactory.getLogger(SmsPollingService.class);
 
     private final SmsGateway gateway;
-    private final Duration interval;
+    private volatile Duration interval;
     private final BlockingQueue<SmsMessage> queue;
-    private final int maxRetries;
-    private final long retryDelayMs;
+    private volatile RetryPolicy retry;
     private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean paused = new AtomicBoolean(false);
+    private final CountDownLatch firstPoll = new CountDownLatch(1);
+    private volatile Consumer<SmsMessage> receivedListener;
     private ScheduledExecutorService executor;
+    private ScheduledFuture<?> task;
 
     public SmsPollingService(SmsGateway gateway,
                              Duration interval,
@@ -31,8 +36,7 @@ public class SmsPollingService {
         this.gateway = gateway;
         this.interval = interval;
         this.queue = queue;
-        this.maxRetries = maxRetries;
-        this.retryDelayMs = retryDelayMs;
+        this.retry = new RetryPolicy(maxRetries, retryDelayMs);
     }
 
     public void start() {
@@ -44,13 +48,64 @@ public class SmsPollingService {
             return t;
         });
 
-        executor.scheduleAtFixedRate(this::poll, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        schedule(0);
         logger.info("SmsPollingService started");
     }
 
+    private synchronized void schedule(long initialDelayMs) {
+        if (task != null) {
+            task.cancel(false);
+        }
+        task = executor.scheduleAtFixedRate(this::poll, initialDelayMs, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Changes the poll interval of a running service; the next poll comes after the new interval.
+     */
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+        if (running.get() && executor != null) {
+            schedule(interval.toMillis());
+        }
+        logger.info("SmsPollingService interval set to {} ms", interval.toMillis());
+    }
+
+    public void setRetryPolicy(RetryPolicy retry) {
+        this.retry = retry;
+    }
+
+    /**
+     * Called on the polling thread for every SMS handed to the queue (e.g. reply affinity); null = none.
+     */
+    public void setReceivedListener(Consumer<SmsMessage> receivedListener) {
+        this.receivedListener = receivedListener;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * Runs one poll now on the polling thread (ignored while paused).
+     */
+    public void pollNow() {
+        if (running.get() && executor != null) {
+            executor.execute(this::poll);
+        }
+    }
+
     private void poll() {
+        if (paused.get()) {
+            return;
+        }
         try {
             List<SmsMessage> messages = gateway.readAll();
+            long listed = System.nanoTime();
+            for (SmsMessage msg : messages) {
+                msg.trace().stamp(MessageTrace.Stage.LISTED, listed);
+            }
+            RetryPolicy retry = this.retry;
+            int maxRetries = retry.maxRetries();
             for (SmsMessage msg : messages) {
                 boolean success = false;
                 int attempt = 0;
@@ -58,35 +113,81 @@ public class SmsPollingService {
                 while (!success && attempt <= maxRetries) {
                     attempt++;
                     try {
+                        msg.trace().stamp(MessageTrace.Stage.ENQUEUED); // před put, dispatch ji může vzít hned
                         queue.put(msg); // přidej do fronty pro dispatch
                         gateway.delete(msg.getIndex()); // smaž po úspěchu
                         success = true;
                     } catch (Exception e) {
                         logger.warn("Failed to enqueue SMS (attempt {}): {}", attempt, e.getMessage());
                         if (attempt <= maxRetries) {
-                            Thread.sleep(retryDelayMs);
+                            Thread.sleep(retry.delayMs());
                         }
                     }
                 }
 
                 if (!success) {
                     logger.error("Failed to process SMS after {} attempts: {}", maxRetries, msg);
+                } else if (receivedListener != null) {
+                    receivedListener.accept(msg);
                 }
             }
         } catch (ModemException e) {
             logger.error("Error reading SMS", e);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+        } finally {
+            firstPoll.countDown();
+        }
+    }
+
+    /**
+     * Waits until the first modem read has finished; used to measure startup time.
+     */
+    public boolean awaitFirstPoll(Duration timeout) throws InterruptedException {
+        return firstPoll.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Skips polls until {@link #resume()}, e.g. while the modem is reconnecting.
+     */
+    public void pause() {
+        if (paused.compareAndSet(false, true)) {
+            logger.info("SmsPollingService paused");
+        }
+    }
+
+    public void resume() {
+        if (paused.compareAndSet(true, false)) {
+            logger.info("SmsPollingService resumed");
         }
     }
 
+    public boolean isPaused() {
+        return paused.get();
+    }
+
     public void stop() {
+        stop(Duration.ofSeconds(10));
+    }
+
+    /**
+     * After {@link #stop(Duration)}: SMS the modem acknowledged after the last poll (a {@code +CMT}
+     * during an outbound send); the network will not deliver them again.
+     */
+    public List<SmsMessage> drainReceived() {
+        return gateway.drainReceived();
+    }
+
+    /**
+     * Stops scheduling new polls and waits at most {@code timeout} for the running one.
+     */
+    public void stop(Duration timeout) {
         running.set(false);
 
         if (executor != null) {
             executor.shutdown();
             try {
-                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
                     logger.warn("Polling did not terminate in time, forcing shutdown");
                     executor.shutdownNow();
                 }
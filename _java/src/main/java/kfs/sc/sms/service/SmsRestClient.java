@@ -1,71 +1,264 @@
 package kfs.sc.sms.service;
 
+import kfs.sc.sms.json.JsonReader;
+import kfs.sc.sms.json.JsonWriter;
+import kfs.sc.sms.model.MessageTrace;
+import kfs.sc.sms.model.SmsPriority;
+import kfs.sc.sms.utils.CircuitOpenException;
+import kfs.sc.sms.utils.KfsSmsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class SmsRestClient {
 
     private static final Logger logger = LoggerFactory.getLogger(SmsRestClient.class);
 
+    // buffer pro JSON requesty, jeden na vlákno
+    private static final ThreadLocal<JsonWriter> WRITER = ThreadLocal.withInitial(JsonWriter::new);
+
+    /**
+     * Request body encoding. FORM is the original {@code data=URL_ENCODED_JSON};
+     * JSON sends raw UTF-8 JSON, gzipped above a size threshold; AUTO tries JSON
+     * and falls back to FORM when the server rejects it before the first success.
+     * <p>
+     * FORM is never gzipped: it is the mode for servers that predate JSON, and HTTP has no way to ask
+     * whether a server inflates request bodies. A server that does not would read the compressed bytes
+     * as the form and lose the SMS instead of rejecting it, so compression comes only with the JSON
+     * support the server declared (JSON) or proved by a successful call (AUTO).
+     */
+    public enum WireMode {
+        FORM, JSON, AUTO;
+
+        public static WireMode from(String value) {
+            return value == null || value.isBlank() ? FORM : valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Per-operation timeouts. {@code idleWarmup}: after this long without any exchange
+     * the next call first pings {@code /health}, so a dead pooled connection fails fast.
+     */
+    public record Timeouts(Duration connect, Duration poll, Duration post, Duration idleWarmup) {
+        public static final Timeouts DEFAULT = new Timeouts(
+                Duration.ofSeconds(10), Duration.ofSeconds(15), Duration.ofSeconds(20), Duration.ofSeconds(60));
+    }
+
     private final String baseUrl;
-    private final String authHeader;
+    private volatile String authHeader;
     private final HttpClient client;
+    private final WireMode wireMode;
+    private final int gzipMinBytes;
+    private final AtomicReference<WireMode> effectiveWire;
+    private volatile boolean jsonConfirmed;
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final Timeouts timeouts;
+    private final CircuitBreaker breaker;
+    // /log má vlastní: chyby logování nesmí zastavit SMS a dávky logů brát SMS zkušební volání
+    private final CircuitBreaker logBreaker = new CircuitBreaker(3, Duration.ofSeconds(60));
+    private volatile long lastExchangeNanos = System.nanoTime();
 
     public SmsRestClient(String baseUrl, String user, String password) {
+        this(baseUrl, user, password, WireMode.FORM, 512);
+    }
+
+    public SmsRestClient(String baseUrl, String user, String password, WireMode wireMode, int gzipMinBytes) {
+        this(baseUrl, user, password, wireMode, gzipMinBytes, Timeouts.DEFAULT,
+                new CircuitBreaker(5, Duration.ofSeconds(30)));
+    }
+
+    public SmsRestClient(String baseUrl, String user, String password, WireMode wireMode, int gzipMinBytes,
+                         Timeouts timeouts, CircuitBreaker breaker) {
         this.baseUrl = baseUrl;
-        this.authHeader = "Basic " + Base64.getEncoder()
-                .encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
-        this.client = HttpClient.newHttpClient();
+        this.authHeader = basicAuth(user, password);
+        // HTTP/2 přes TLS (ALPN), jinak HTTP/1.1 keep-alive; spojení jsou sdílená v poolu klienta.
+        // Na http:// by HTTP_2 zkoušel h2c upgrade v každém requestu a spojení po odpovědi zavíral.
+        this.client = HttpClient.newBuilder()
+                .version(baseUrl.startsWith("https:") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeouts.connect())
+                .build();
+        this.timeouts = timeouts;
+        this.breaker = breaker;
+        this.wireMode = wireMode;
+        this.gzipMinBytes = gzipMinBytes;
+        this.effectiveWire = new AtomicReference<>(wireMode == WireMode.FORM ? WireMode.FORM : WireMode.JSON);
     }
 
-    public record OutgoingSms(String id, String numb, String text) {}
+    /**
+     * SMS to send. {@code expiresAt} is epoch millis, 0 = never expires.
+     * {@code trace} is diagnostics only and takes no part in equals/hashCode.
+     */
+    public record OutgoingSms(String id, String numb, String text, SmsPriority priority, long expiresAt,
+                              MessageTrace trace) {
+        public OutgoingSms {
+            if (priority == null) {
+                priority = SmsPriority.NORMAL;
+            }
+            if (trace == null) {
+                trace = new MessageTrace();
+            }
+        }
+
+        public OutgoingSms(String id, String numb, String text) {
+            this(id, numb, text, SmsPriority.NORMAL, 0);
+        }
+
+        public OutgoingSms(String id, String numb, String text, SmsPriority priority, long expiresAt) {
+            this(id, numb, text, priority, expiresAt, new MessageTrace());
+        }
+
+        public boolean isExpired(long nowMillis) {
+            return expiresAt != 0 && nowMillis >= expiresAt;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof OutgoingSms s
+                    && Objects.equals(id, s.id) && Objects.equals(numb, s.numb) && Objects.equals(text, s.text)
+                    && priority == s.priority && expiresAt == s.expiresAt;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, numb, text, priority, expiresAt);
+        }
+
+        @Override
+        public String toString() {
+            return "OutgoingSms[id=" + id + ", numb=" + numb + ", text=" + text + ", priority=" + priority
+                    + (expiresAt == 0 ? "" : ", expiresAt=" + Instant.ofEpochMilli(expiresAt)) + "]";
+        }
+    }
 
     /**
      * GET /sms/o → parse JSON {id, numb, text}, returns null if nothing pending.
      */
     public OutgoingSms pollOutgoing() {
+        List<OutgoingSms> pending = pollOutgoingBatch();
+        return pending.isEmpty() ? null : pending.get(0);
+    }
+
+    /**
+     * GET /sms/o → accepts a single object or an array of {id, numb, text, priority?, expires?};
+     * empty list if nothing pending.
+     */
+    public List<OutgoingSms> pollOutgoingBatch() {
+        if (!breaker.allowRequest()) {
+            logger.debug("pollOutgoing skipped, circuit {}", breaker.getState());
+            return List.of();
+        }
         try {
+            warmUpIfIdle();
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(baseUrl + "/sms/o"))
+                    .timeout(timeouts.poll())
                     .header("Authorization", authHeader)
+                    .header("Accept-Encoding", "gzip, deflate")
                     .GET()
                     .build();
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<byte[]> response = exchange(request, breaker);
 
             if (response.statusCode() != 200) {
                 logger.warn("pollOutgoing: HTTP {}", response.statusCode());
-                return null;
+                return List.of();
             }
 
-            String body = response.body();
-            if (body == null || body.isBlank() || body.trim().equals("{}")) {
-                return null;
+            String body = decode(response);
+            if (body == null || body.isBlank()) {
+                return List.of();
             }
+            return parseOutgoing(body);
+        } catch (IOException e) {
+            breaker.onFailure();
+            logger.error("pollOutgoing failed: {}", e.toString());
+            return List.of();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        } catch (KfsSmsException e) {
+            logger.error("pollOutgoing: invalid response: {}", e.getMessage());
+            return List.of();
+        }
+    }
 
-            String id = extractJson(body, "id");
-            String numb = extractJson(body, "numb");
-            String text = extractJson(body, "text");
+    static List<OutgoingSms> parseOutgoing(String body) {
+        JsonReader reader = new JsonReader(body);
+        List<OutgoingSms> result = new ArrayList<>();
+        if (reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                addOutgoing(reader, result);
+            }
+            reader.endArray();
+        } else {
+            addOutgoing(reader, result);
+        }
+        return result;
+    }
 
-            if (id == null || id.isEmpty()) {
-                return null;
+    private static void addOutgoing(JsonReader reader, List<OutgoingSms> result) {
+        String id = null;
+        String numb = null;
+        String text = null;
+        String priority = null;
+        String expires = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> id = reader.nextString();
+                case "numb" -> numb = reader.nextString();
+                case "text" -> text = reader.nextString();
+                case "priority" -> priority = reader.nextString();
+                case "expires" -> expires = reader.nextString();
+                default -> reader.skipValue();
             }
+        }
+        reader.endObject();
 
-            return new OutgoingSms(id, numb, text);
-        } catch (IOException | InterruptedException e) {
-            logger.error("pollOutgoing failed", e);
-            return null;
+        if (id != null && !id.isEmpty()) {
+            result.add(new OutgoingSms(id, numb, text, SmsPriority.fromServerValue(priority), parseExpires(id, expires)));
+        }
+    }
+
+    /**
+     * ISO offset date-time → epoch millis; a malformed value must not drop the SMS, it just never expires.
+     */
+    private static long parseExpires(String id, String expires) {
+        if (expires == null || expires.isBlank()) {
+            return 0;
+        }
+        try {
+            return OffsetDateTime.parse(expires, DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            logger.warn("SMS id={}: invalid expires '{}', ignored", id, expires);
+            return 0;
         }
     }
 
@@ -73,73 +266,219 @@ public class SmsRestClient {
      * POST /sms/i — report incoming SMS from modem to server.
      */
     public void reportIncoming(String numb, String text, OffsetDateTime time) {
-        String json = "{\"numb\":\"" + escapeJson(numb)
-                + "\",\"text\":\"" + escapeJson(text)
-                + "\",\"time\":\"" + time.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME) + "\"}";
-        post("/sms/i", json);
+        JsonWriter json = writer().beginObject()
+                .field("numb", numb)
+                .field("text", text)
+                .field("time", time == null ? null : time.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                .endObject();
+        post("/sms/i", json.buffer());
     }
 
     /**
      * POST /sms/c — confirm SMS was sent by modem.
      */
     public void confirmSent(String id) {
-        String json = "{\"id\":\"" + escapeJson(id)
-                + "\",\"time\":\"" + OffsetDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME) + "\"}";
-        post("/sms/c", json);
+        JsonWriter json = writer().beginObject()
+                .field("id", id)
+                .field("time", OffsetDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                .endObject();
+        post("/sms/c", json.buffer());
     }
 
     /**
      * POST /sms/f — report SMS send failure.
      */
     public void reportFail(String id, String mesg) {
-        String json = "{\"id\":\"" + escapeJson(id)
-                + "\",\"time\":\"" + OffsetDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)
-                + "\",\"mesg\":\"" + escapeJson(mesg) + "\"}";
-        post("/sms/f", json);
+        JsonWriter json = writer().beginObject()
+                .field("id", id)
+                .field("time", OffsetDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                .field("mesg", mesg)
+                .endObject();
+        post("/sms/f", json.buffer());
     }
 
     /**
-     * POST /log — send plain text log to server.
+     * POST /log — send plain text log to server. Guarded by its own circuit breaker
+     * ({@link #getLogCircuitBreaker()}), so log delivery never affects SMS calls.
      */
     public void sendLog(String text) {
-        post("/log", text);
+        post("/log", text, "text/plain; charset=utf-8", logBreaker);
     }
 
-    private void post(String path, String data) {
-        try {
-            String encoded = "data=" + URLEncoder.encode(data, StandardCharsets.UTF_8);
+    public WireMode getEffectiveWireMode() {
+        return effectiveWire.get();
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(baseUrl + path))
-                    .header("Authorization", authHeader)
-                    .header("Content-Type", "application/x-www-form-urlencoded")
-                    .POST(HttpRequest.BodyPublishers.ofString(encoded))
-                    .build();
+    /**
+     * Request body bytes as sent on the wire (after encoding/compression).
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Replaces the Basic Auth credentials; requests already in flight keep the old ones.
+     */
+    public void setCredentials(String user, String password) {
+        this.authHeader = basicAuth(user, password);
+    }
+
+    private static String basicAuth(String user, String password) {
+        return "Basic " + Base64.getEncoder()
+                .encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    public CircuitBreaker getLogCircuitBreaker() {
+        return logBreaker;
+    }
+
+    /**
+     * True while calls would fail fast (open period, or another caller's trial call in flight);
+     * callers should park work instead of retrying.
+     */
+    public boolean isCircuitOpen() {
+        return breaker.isRejecting();
+    }
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    private void post(String path, CharSequence json) {
+        post(path, json, "application/json; charset=utf-8", breaker);
+    }
+
+    /**
+     * @throws KfsSmsException when the server is unreachable or rejects the request,
+     *                         so callers can retry or keep the message
+     */
+    private void post(String path, CharSequence data, String contentType, CircuitBreaker breaker) {
+        if (!breaker.allowRequest()) {
+            throw new CircuitOpenException("POST " + path + " rejected, REST circuit " + breaker.getState());
+        }
+        try {
+            warmUpIfIdle();
+            WireMode wire = effectiveWire.get();
+            HttpResponse<byte[]> response = exchange(buildPost(path, data, contentType, wire), breaker);
+
+            if (wire == WireMode.JSON && wireMode == WireMode.AUTO && !jsonConfirmed
+                    && (response.statusCode() == 415 || response.statusCode() == 400)) {
+                // server raw JSON nezná → zpět na data=URL_ENCODED
+                logger.warn("POST {} rejected raw JSON (HTTP {}), falling back to form encoding",
+                        path, response.statusCode());
+                effectiveWire.set(WireMode.FORM);
+                response = exchange(buildPost(path, data, contentType, WireMode.FORM), breaker);
+            }
 
             if (response.statusCode() >= 400) {
-                logger.warn("POST {} returned HTTP {}: {}", path, response.statusCode(), response.body());
-            } else {
-                logger.debug("POST {} OK ({})", path, response.statusCode());
+                logger.warn("POST {} returned HTTP {}: {}", path, response.statusCode(), decode(response));
+                throw new KfsSmsException("POST " + path + " returned HTTP " + response.statusCode());
+            }
+            if (wire == WireMode.JSON && effectiveWire.get() == WireMode.JSON) {
+                jsonConfirmed = true;
+            }
+            logger.debug("POST {} OK ({})", path, response.statusCode());
+        } catch (IOException e) {
+            breaker.onFailure();
+            throw new KfsSmsException("POST " + path + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KfsSmsException("POST " + path + " interrupted", e);
+        }
+    }
+
+    private HttpRequest buildPost(String path, CharSequence data, String contentType, WireMode wire)
+            throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .timeout(timeouts.post())
+                .header("Authorization", authHeader)
+                .header("Accept-Encoding", "gzip, deflate");
+
+        byte[] body;
+        if (wire == WireMode.JSON) {
+            // gzip jen tady, FORM server nemusí request umět rozbalit (viz WireMode)
+            body = data.toString().getBytes(StandardCharsets.UTF_8);
+            builder.header("Content-Type", contentType);
+            if (body.length >= gzipMinBytes) {
+                body = gzip(body);
+                builder.header("Content-Encoding", "gzip");
             }
-        } catch (IOException | InterruptedException e) {
-            logger.error("POST {} failed", path, e);
+        } else {
+            body = ("data=" + URLEncoder.encode(data.toString(), StandardCharsets.UTF_8))
+                    .getBytes(StandardCharsets.US_ASCII);
+            builder.header("Content-Type", "application/x-www-form-urlencoded");
         }
+
+        bytesSent.addAndGet(body.length);
+        return builder.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
     }
 
-    private static String extractJson(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*\"([^\"]*?)\"";
-        var matcher = java.util.regex.Pattern.compile(pattern).matcher(json);
-        return matcher.find() ? matcher.group(1) : null;
+    /**
+     * Sends the request and feeds the outcome to {@code breaker}: 5xx counts as a failure,
+     * any other response proves the server is alive. IOException is recorded by the caller.
+     */
+    private HttpResponse<byte[]> exchange(HttpRequest request, CircuitBreaker breaker) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        lastExchangeNanos = System.nanoTime();
+        if (response.statusCode() >= 500) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+        return response;
+    }
+
+    /**
+     * After an idle period the pooled connection may be half-open (NAT/LTE drops it silently);
+     * a short /health ping either re-establishes it or fails within the connect timeout.
+     */
+    private void warmUpIfIdle() throws IOException, InterruptedException {
+        if (System.nanoTime() - lastExchangeNanos < timeouts.idleWarmup().toNanos()) {
+            return;
+        }
+        HttpRequest ping = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/health"))
+                .timeout(timeouts.connect())
+                .GET()
+                .build();
+        client.send(ping, HttpResponse.BodyHandlers.discarding());
+        lastExchangeNanos = System.nanoTime();
+        logger.debug("REST warm-up ping OK");
+    }
+
+    private String decode(HttpResponse<byte[]> response) throws IOException {
+        byte[] body = response.body();
+        if (body == null) {
+            return "";
+        }
+        bytesReceived.addAndGet(body.length);
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = in.readAllBytes();
+            }
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body))) {
+                body = in.readAllBytes();
+            }
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        }
+        return out.toByteArray();
     }
 
-    private static String escapeJson(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t");
+    private static JsonWriter writer() {
+        return WRITER.get().reset();
     }
 }
@@ -0,0 +1,459 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.utils.KfsSmsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Unbounded FIFO queue with bounded memory: up to {@code memoryCapacity} messages are kept in memory,
+ * the rest is appended to segment files in {@code dir} and read back as memory frees up.
+ * <p>
+ * {@link #put} never blocks, so polling keeps draining the SIM while the server is down.
+ * Segments survive a restart; {@link #persist()} writes the in-memory part to disk as well,
+ * so the next process continues with the same order.
+ */
+public class SpillingQueue extends AbstractQueue<SmsMessage> implements BlockingQueue<SmsMessage> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillingQueue.class);
+
+    private static final int MAGIC = 0x4b465353; // "KFSS"
+    private static final String PREFIX = "spill-";
+    private static final String SUFFIX = ".seg";
+    // čísla segmentů začínají vysoko, aby šlo při persist() vložit segment před nejstarší
+    private static final long FIRST_SEQ = 1L << 40;
+
+    private static final class Segment {
+        final long seq;
+        final Path path;
+        long written;
+        long read;
+
+        Segment(long seq, Path path) {
+            this.seq = seq;
+            this.path = path;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<SmsMessage> memory;
+    private final int memoryCapacity;
+    private final Path dir;
+    private final int segmentMessages;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    private DataOutputStream writer;   // do segments.peekLast()
+    private DataInputStream reader;    // ze segments.peekFirst()
+    private long spilled;
+    private long nextSeq = FIRST_SEQ;
+    private long spilledTotal;
+
+    public SpillingQueue(int memoryCapacity, Path dir, int segmentMessages) {
+        this.memoryCapacity = Math.max(1, memoryCapacity);
+        this.memory = new ArrayDeque<>(this.memoryCapacity);
+        this.dir = dir;
+        this.segmentMessages = Math.max(1, segmentMessages);
+        try {
+            Files.createDirectories(dir);
+            recover();
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot open spill directory " + dir, e);
+        }
+        if (spilled > 0) {
+            logger.info("Spill: {} SMS backlog recovered from {}", spilled, dir);
+        }
+    }
+
+    // ==========================
+    // BlockingQueue
+    // ==========================
+
+    /**
+     * Always accepts; throws {@link KfsSmsException} only if the disk write fails.
+     */
+    @Override
+    public boolean offer(SmsMessage msg) {
+        if (msg == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            // jakmile je něco na disku, nové zprávy jdou za ně (pořadí)
+            if (spilled == 0 && memory.size() < memoryCapacity) {
+                memory.addLast(msg);
+            } else {
+                spill(msg);
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(SmsMessage msg) {
+        offer(msg);
+    }
+
+    @Override
+    public boolean offer(SmsMessage msg, long timeout, TimeUnit unit) {
+        return offer(msg);
+    }
+
+    @Override
+    public SmsMessage poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public SmsMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            SmsMessage msg;
+            while ((msg = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return msg;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public SmsMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            SmsMessage msg;
+            while ((msg = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return msg;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public SmsMessage peek() {
+        lock.lock();
+        try {
+            refill();
+            return memory.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, memory.size() + spilled);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super SmsMessage> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super SmsMessage> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            SmsMessage msg;
+            while (n < maxElements && (msg = dequeue()) != null) {
+                c.add(msg);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Snapshot of the in-memory part only; spilled messages are not iterated.
+     */
+    @Override
+    public Iterator<SmsMessage> iterator() {
+        lock.lock();
+        try {
+            return List.copyOf(memory).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ==========================
+    // Spill
+    // ==========================
+
+    /**
+     * Messages currently on disk.
+     */
+    public long getSpilled() {
+        lock.lock();
+        try {
+            return spilled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Messages ever written to disk by this instance.
+     */
+    public long getSpilledTotal() {
+        lock.lock();
+        try {
+            return spilledTotal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int memorySize() {
+        lock.lock();
+        try {
+            return memory.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the in-memory messages in front of the disk backlog and closes the files.
+     * The queue is empty in memory afterwards; a new instance on the same directory resumes in order.
+     */
+    public void persist() {
+        lock.lock();
+        try {
+            List<SmsMessage> head = new ArrayList<>(memory);
+            memory.clear();
+            Segment first = segments.peekFirst();
+            if (first != null && first.read > 0) {
+                // rozečtený segment: zbytek jde do nového čelního segmentu, jinak by se první část zdvojila
+                openReader(first);
+                spilled -= first.written - first.read;
+                while (first.read < first.written) {
+                    head.add(HandoffStore.read(reader));
+                    first.read++;
+                }
+                closeReader();
+                closeWriterIf(first);
+                Files.deleteIfExists(first.path);
+                segments.pollFirst();
+            }
+            closeReader();
+            closeWriter();
+            if (!head.isEmpty()) {
+                long seq = segments.isEmpty() ? nextSeq++ : segments.peekFirst().seq - 1;
+                Segment seg = new Segment(seq, segmentPath(seq));
+                try (DataOutputStream out = open(seg.path)) {
+                    for (SmsMessage msg : head) {
+                        HandoffStore.write(out, msg);
+                    }
+                }
+                seg.written = head.size();
+                segments.addFirst(seg);
+                spilled += head.size();
+            }
+            logger.info("Spill: {} SMS persisted in {}", spilled, dir);
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot persist queue to " + dir, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private SmsMessage dequeue() {
+        SmsMessage msg = memory.pollFirst();
+        if (msg == null && spilled > 0) {
+            refill();
+            msg = memory.pollFirst();
+        }
+        if (spilled > 0 && memory.size() <= memoryCapacity / 2) {
+            refill();
+        }
+        return msg;
+    }
+
+    private void spill(SmsMessage msg) {
+        try {
+            Segment last = segments.peekLast();
+            if (last == null || writer == null || last.written >= segmentMessages) {
+                closeWriter();
+                last = new Segment(nextSeq, segmentPath(nextSeq));
+                nextSeq++;
+                writer = open(last.path);
+                segments.addLast(last);
+            }
+            HandoffStore.write(writer, msg);
+            // flush do OS: SMS je už smazaná ze SIM, pád JVM ji nesmí ztratit
+            writer.flush();
+            last.written++;
+            spilled++;
+            spilledTotal++;
+            if (spilledTotal == 1 || spilledTotal % 10_000 == 0) {
+                logger.warn("Spill: queue full, {} SMS on disk", spilled);
+            }
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot spill SMS to " + dir, e);
+        }
+    }
+
+    private void refill() {
+        try {
+            while (spilled > 0 && memory.size() < memoryCapacity) {
+                Segment first = segments.peekFirst();
+                if (first.read >= first.written) {
+                    closeReader();
+                    closeWriterIf(first);
+                    Files.deleteIfExists(first.path);
+                    segments.pollFirst();
+                    continue;
+                }
+                openReader(first);
+                memory.addLast(HandoffStore.read(reader));
+                first.read++;
+                spilled--;
+            }
+            Segment first = segments.peekFirst();
+            if (spilled == 0 && first != null && first.read >= first.written) {
+                closeReader();
+                closeWriterIf(first);
+                Files.deleteIfExists(first.path);
+                segments.pollFirst();
+            }
+        } catch (IOException e) {
+            throw new KfsSmsException("Cannot read spilled SMS from " + dir, e);
+        }
+    }
+
+    private void openReader(Segment seg) throws IOException {
+        if (reader != null) {
+            return;
+        }
+        reader = new DataInputStream(new BufferedInputStream(Files.newInputStream(seg.path)));
+        if (reader.readInt() != MAGIC) {
+            throw new IOException("Unknown spill segment format: " + seg.path);
+        }
+        for (long i = 0; i < seg.read; i++) {
+            HandoffStore.read(reader);
+        }
+    }
+
+    private void closeReader() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void closeWriterIf(Segment seg) throws IOException {
+        if (seg == segments.peekLast()) {
+            closeWriter();
+        }
+    }
+
+    private DataOutputStream open(Path path) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        out.writeInt(MAGIC);
+        return out;
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%s%020d%s", PREFIX, seq, SUFFIX));
+    }
+
+    private void recover() throws IOException {
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                long seq = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                Segment seg = new Segment(seq, path);
+                seg.written = count(path);
+                if (seg.written >= 0) {
+                    found.add(seg);
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.seq, b.seq));
+        for (Segment seg : found) {
+            if (seg.written == 0) {
+                Files.deleteIfExists(seg.path);
+                continue;
+            }
+            segments.addLast(seg);
+            spilled += seg.written;
+            nextSeq = Math.max(nextSeq, seg.seq + 1);
+        }
+    }
+
+    /**
+     * Complete records in a segment; a record cut off by a crash is ignored. -1 = not a segment (kept as is).
+     */
+    private static long count(Path path) throws IOException {
+        long n = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                logger.error("Spill: ignoring unknown segment {}", path);
+                return -1;
+            }
+            while (true) {
+                HandoffStore.read(in);
+                n++;
+            }
+        } catch (EOFException e) {
+            return n;
+        }
+    }
+}
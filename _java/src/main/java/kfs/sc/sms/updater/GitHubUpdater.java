@@ -1,33 +1,108 @@
 package kfs.sc.sms.updater;
 
+import kfs.sc.sms.json.JsonReader;
 import kfs.sc.sms.utils.KfsSmsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GitHubUpdater {
 
     private static final Logger logger = LoggerFactory.getLogger(GitHubUpdater.class);
 
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration API_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration DOWNLOAD_TIMEOUT = Duration.ofMinutes(5);
+
     private final String owner;
     private final String repo;
     private final String currentVersion;
+    private final String apiBaseUrl;
+    private final Path target;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
 
-    private final HttpClient client = HttpClient.newHttpClient();
+    private final AtomicBoolean updateReady = new AtomicBoolean(false);
+    private volatile String etag;
+    private volatile ReleaseInfo cachedRelease;
+    private volatile boolean allowUnverified;
+    private ScheduledExecutorService executor;
 
     public GitHubUpdater(String owner, String repo, String currentVersion) {
+        this(owner, repo, currentVersion, "https://api.github.com", Paths.get("SmsApp-new.jar"));
+    }
+
+    GitHubUpdater(String owner, String repo, String currentVersion, String apiBaseUrl, Path target) {
         this.owner = owner;
         this.repo = repo;
         this.currentVersion = currentVersion;
+        this.apiBaseUrl = apiBaseUrl;
+        this.target = target;
+    }
+
+    /**
+     * Installs releases whose asset has no SHA-256 digest (older GitHub releases); off by default,
+     * such a release is then skipped.
+     */
+    public void setAllowUnverified(boolean allowUnverified) {
+        this.allowUnverified = allowUnverified;
+    }
+
+    /**
+     * Checks for updates periodically in the background. When a new jar has been downloaded,
+     * checking stops and {@code onUpdateReady} runs on its own thread; it is expected to drain
+     * the services and exit(42).
+     */
+    public void start(Duration initialDelay, Duration interval, Runnable onUpdateReady) {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "UpdateCheckThread");
+            t.setDaemon(true);
+            return t;
+        });
+
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                if (updateIfAvailable()) {
+                    executor.shutdown();
+                    new Thread(onUpdateReady, "UpdateRestartThread").start();
+                }
+            } catch (Exception e) {
+                logger.warn("Update check failed: {}", e.getMessage());
+            }
+        }, initialDelay.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+
+        logger.info("Update checks scheduled every {} min", interval.toMinutes());
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
     }
 
     /**
@@ -35,7 +110,11 @@ public class GitHubUpdater {
      * The caller (SmsApp) should exit(42) so the wrapper .bat can swap jars and restart.
      */
     public boolean updateIfAvailable() {
-        logger.info("Checking for updates (current={})...", currentVersion);
+        if (updateReady.get()) {
+            return false;
+        }
+
+        logger.debug("Checking for updates (current={})...", currentVersion);
 
         ReleaseInfo latest = fetchLatestRelease();
 
@@ -45,32 +124,52 @@ public class GitHubUpdater {
         }
 
         if (!isNewerVersion(currentVersion, latest.version)) {
-            logger.info("Already up to date (v{}).", currentVersion);
+            logger.debug("Already up to date (v{}).", currentVersion);
+            return false;
+        }
+
+        if (latest.sha256 == null && !allowUnverified) {
+            logger.warn("Release {} has no SHA-256 digest, not installed (cfg.updateAllowUnverified)", latest.version);
             return false;
         }
 
         logger.info("New version available: {}", latest.version);
-        downloadJar(latest.downloadUrl);
-        logger.info("Downloaded SmsApp-new.jar — ready for swap.");
+        downloadJar(latest);
+        logger.info("Downloaded {} — ready for swap.", target);
+        updateReady.set(true);
         return true;
     }
 
     private ReleaseInfo fetchLatestRelease() {
-        String url = "https://api.github.com/repos/" + owner + "/" + repo + "/releases/latest";
+        String url = apiBaseUrl + "/repos/" + owner + "/" + repo + "/releases/latest";
 
-        HttpRequest request = HttpRequest.newBuilder()
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
                 .uri(URI.create(url))
+                .timeout(API_TIMEOUT)
                 .header("Accept", "application/vnd.github+json")
                 .header("User-Agent", "kfsSms-updater")
-                .GET()
-                .build();
+                .GET();
+
+        // 304 Not Modified se nepočítá do rate limitu GitHub API
+        String knownEtag = etag;
+        if (knownEtag != null) {
+            builder.header("If-None-Match", knownEtag);
+        }
 
         HttpResponse<String> response;
         try {
-            response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        } catch (InterruptedException | IOException e) {
+            response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
             logger.warn("Cannot fetch latest release: {}", e.getMessage());
             return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        if (response.statusCode() == 304) {
+            logger.debug("Latest release not modified");
+            return cachedRelease;
         }
 
         if (response.statusCode() != 200) {
@@ -78,36 +177,118 @@ public class GitHubUpdater {
             return null;
         }
 
-        String body = response.body();
+        ReleaseInfo release;
+        try {
+            release = parseRelease(response.body());
+        } catch (KfsSmsException e) {
+            logger.warn("Invalid release JSON: {}", e.getMessage());
+            return null;
+        }
+        if (release != null) {
+            cachedRelease = release;
+            etag = response.headers().firstValue("ETag").orElse(null);
+        }
+        return release;
+    }
+
+    static ReleaseInfo parseRelease(String body) {
+        JsonReader reader = new JsonReader(body);
+        String tag = null;
+        // assets se čtou dřív, než je známá verze (pořadí klíčů není zaručené)
+        List<String[]> assets = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "tag_name" -> tag = reader.nextString();
+                case "assets" -> readAssets(reader, assets);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-        String tag = extract(body, "\"tag_name\"\\s*:\\s*\"([^\"]+)\"");
         if (tag == null) return null;
 
         String version = tag.startsWith("v") ? tag.substring(1) : tag;
+        String jarName = "SmsApp-" + version + ".jar";
+
+        for (String[] asset : assets) {
+            String url = asset[1];
+            if (jarName.equals(asset[0]) || (url != null && url.endsWith("/" + jarName))) {
+                String digest = asset[2];
+                String sha256 = digest != null && digest.startsWith("sha256:") ? digest.substring(7) : null;
+                return url == null ? null : new ReleaseInfo(version, url, sha256);
+            }
+        }
+        return null;
+    }
 
-        String jarPattern = "\"browser_download_url\"\\s*:\\s*\"([^\"]+SmsApp-" + version + "\\.jar)\"";
-        String downloadUrl = extract(body, jarPattern);
-
-        if (downloadUrl == null) return null;
-
-        return new ReleaseInfo(version, downloadUrl);
+    private static void readAssets(JsonReader reader, List<String[]> assets) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String[] asset = new String[3]; // name, browser_download_url, digest
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name" -> asset[0] = reader.nextString();
+                    case "browser_download_url" -> asset[1] = reader.nextString();
+                    case "digest" -> asset[2] = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            assets.add(asset);
+        }
+        reader.endArray();
     }
 
-    private void downloadJar(String url) {
-        logger.info("Downloading: {}", url);
+    /**
+     * Streams the jar to a temp file while hashing it; only a verified file is moved to the target.
+     */
+    private void downloadJar(ReleaseInfo release) {
+        logger.info("Downloading: {}", release.downloadUrl);
 
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
+                .uri(URI.create(release.downloadUrl))
+                .timeout(DOWNLOAD_TIMEOUT)
                 .header("User-Agent", "kfsSms-updater")
                 .GET()
                 .build();
 
-        Path target = Paths.get("SmsApp-new.jar");
+        Path part = target.resolveSibling(target.getFileName() + ".part");
 
         try {
-            client.send(request, HttpResponse.BodyHandlers.ofFile(target));
-        } catch (IOException | InterruptedException e) {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new KfsSmsException("Cannot download jar: HTTP " + response.statusCode());
+            }
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(response.body(), digest);
+                 OutputStream out = Files.newOutputStream(part)) {
+                in.transferTo(out);
+            }
+
+            String actual = HexFormat.of().formatHex(digest.digest());
+            if (release.sha256 == null) {
+                logger.warn("Release has no SHA-256 digest, installing unverified jar sha256={}", actual);
+            } else if (!release.sha256.equalsIgnoreCase(actual)) {
+                throw new KfsSmsException("Checksum mismatch: expected " + release.sha256 + ", got " + actual);
+            }
+
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | NoSuchAlgorithmException e) {
             throw new KfsSmsException("Cannot download jar", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KfsSmsException("Jar download interrupted", e);
+        } finally {
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                logger.debug("Cannot delete {}", part);
+            }
         }
     }
 
@@ -133,19 +314,15 @@ public class GitHubUpdater {
         return 0;
     }
 
-    private String extract(String text, String regex) {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(text);
-        return matcher.find() ? matcher.group(1) : null;
-    }
-
-    private static class ReleaseInfo {
+    static class ReleaseInfo {
         String version;
         String downloadUrl;
+        String sha256;
 
-        ReleaseInfo(String version, String downloadUrl) {
+        ReleaseInfo(String version, String downloadUrl, String sha256) {
             this.version = version;
             this.downloadUrl = downloadUrl;
+            this.sha256 = sha256;
         }
     }
 }
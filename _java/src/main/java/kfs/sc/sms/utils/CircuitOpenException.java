@@ -0,0 +1,11 @@
+package kfs.sc.sms.utils;
+
+/**
+ * A REST call refused by the circuit breaker without being sent; not a failed attempt.
+ */
+public class CircuitOpenException extends KfsSmsException {
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package kfs.sc.sms.utils;
+
+/**
+ * The modem answered a command with a final error result code ({@code ERROR}, {@code +CME ERROR},
+ * {@code +CMS ERROR}): the command is refused, unlike a timeout or a modem that is not ready.
+ */
+public class ModemCommandException extends ModemException {
+
+    public ModemCommandException(String message) {
+        super(message);
+    }
+}
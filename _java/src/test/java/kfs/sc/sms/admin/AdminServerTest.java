@@ -0,0 +1,134 @@
+package kfs.sc.sms.admin;
+
+import kfs.sc.sms.archive.MessageArchive;
+import kfs.sc.sms.model.SmsGateway;
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.routing.NumberNormalizer;
+import kfs.sc.sms.service.OutgoingSmsService;
+import kfs.sc.sms.service.SmsDispatchService;
+import kfs.sc.sms.service.SmsPollingService;
+import kfs.sc.sms.service.SmsRestClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AdminServerTest {
+
+    final HttpClient http = HttpClient.newHttpClient();
+    final BlockingQueue<SmsMessage> queue = new ArrayBlockingQueue<>(10);
+    SmsPollingService polling;
+    OutgoingSmsService outgoing;
+    SmsDispatchService dispatch;
+    AdminServer admin;
+
+    @BeforeEach
+    void setup() throws Exception {
+        SmsGateway gateway = mock(SmsGateway.class);
+        SmsRestClient client = new SmsRestClient("http://127.0.0.1:9", "u", "p");
+        polling = new SmsPollingService(gateway, Duration.ofSeconds(5), queue, 1, 10);
+        outgoing = new OutgoingSmsService(gateway, client, 5000);
+        dispatch = new SmsDispatchService(queue, client, 3, 1000);
+
+        admin = new AdminServer("127.0.0.1", 0, "tajne", polling, outgoing, dispatch, queue, client,
+                () -> "READY");
+        admin.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        admin.stop();
+    }
+
+    @Test
+    void shouldReportStatus() throws Exception {
+        queue.add(new SmsMessage(1, null, "+420111111111", null, "x"));
+
+        HttpResponse<String> response = call("GET", "/status", "tajne");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"modem\":\"READY\""));
+        assertTrue(response.body().contains("\"queue\":{\"depth\":1,\"remainingCapacity\":9}"));
+        assertTrue(response.body().contains("\"circuit\":\"CLOSED\""));
+    }
+
+    @Test
+    void shouldQueryArchive(@TempDir Path dir) throws Exception {
+        assertEquals(404, call("GET", "/archive", "tajne").statusCode());
+        MessageArchive archive = new MessageArchive(dir, new NumberNormalizer("420", 9), Duration.ofDays(1),
+                1 << 20, Duration.ofDays(1), 10);
+        archive.start();
+        archive.outbound(new SmsRestClient.OutgoingSms("7", "+420601123456", "kod 1234"));
+        archive.stop(Duration.ofSeconds(5));
+        admin.setArchive(archive);
+
+        HttpResponse<String> response = call("GET", "/archive?number=601123456&limit=5", "tajne");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("{\"count\":1,\"messages\":[{\"direction\":\"OUT\""), response.body());
+        assertTrue(response.body().contains("\"ref\":\"7\",\"text\":\"kod 1234\""));
+        assertEquals(400, call("GET", "/archive?from=vcera", "tajne").statusCode());
+    }
+
+    @Test
+    void shouldPauseAndResumeServices() throws Exception {
+        assertEquals(200, call("POST", "/pause?service=dispatch", "tajne").statusCode());
+        assertEquals(200, call("POST", "/pause?service=outgoing", "tajne").statusCode());
+        assertTrue(dispatch.isPaused());
+        assertTrue(outgoing.isPaused());
+
+        assertEquals(200, call("POST", "/resume?service=dispatch", "tajne").statusCode());
+        assertFalse(dispatch.isPaused());
+        assertEquals(400, call("POST", "/pause?service=modem", "tajne").statusCode());
+    }
+
+    @Test
+    void shouldTuneIntervalsAndRetries() throws Exception {
+        HttpResponse<String> response = call("POST",
+                "/tune?pollIntervalMs=1000&outgoingPollIntervalMs=250&sendMaxRetries=7", "tajne");
+
+        assertEquals(200, response.statusCode());
+        assertEquals(Duration.ofSeconds(1), polling.getInterval());
+        assertEquals(250, outgoing.getPollIntervalMs());
+        assertEquals(7, dispatch.getRetryPolicy().maxRetries());
+        assertEquals(1000, dispatch.getRetryPolicy().delayMs());
+    }
+
+    @Test
+    void shouldRejectInvalidTuneWithoutApplyingAnything() throws Exception {
+        assertEquals(400, call("POST", "/tune?pollIntervalMs=1000&outgoingPollIntervalMs=-1", "tajne").statusCode());
+        assertEquals(400, call("POST", "/tune?sendMaxRetries=abc", "tajne").statusCode());
+
+        assertEquals(Duration.ofSeconds(5), polling.getInterval());
+    }
+
+    @Test
+    void shouldRequireTokenAndMethod() throws Exception {
+        assertEquals(401, call("GET", "/status", null).statusCode());
+        assertEquals(401, call("GET", "/status", "spatne").statusCode());
+        assertEquals(405, call("GET", "/pause?service=polling", "tajne").statusCode());
+        assertFalse(polling.isPaused());
+    }
+
+    private HttpResponse<String> call(String method, String path, String token) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create("http://127.0.0.1:" + admin.getPort() + path))
+                .method(method, HttpRequest.BodyPublishers.noBody());
+        if (token != null) {
+            builder.header("X-Admin-Token", token);
+        }
+        return http.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,158 @@
+package kfs.sc.sms.archive;
+
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.routing.NumberNormalizer;
+import kfs.sc.sms.service.SmsRestClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageArchiveTest {
+
+    private static final NumberNormalizer CZ = new NumberNormalizer("420", 9);
+    // vůči současnosti, jinak by je retence zapisovače hned smazala
+    private static final long T0 = System.currentTimeMillis() - Duration.ofDays(25).toMillis();
+
+    @TempDir
+    Path dir;
+
+    private MessageArchive archive(long segmentBytes, int queueCapacity) {
+        return new MessageArchive(dir, CZ, Duration.ofDays(30), segmentBytes, Duration.ofDays(1), queueCapacity);
+    }
+
+    private static ArchivedSms in(long time, String number, String text) {
+        return new ArchivedSms(ArchivedSms.Direction.IN, time, number, "", text);
+    }
+
+    private static void write(MessageArchive archive, List<ArchivedSms> messages) throws InterruptedException {
+        archive.start();
+        for (ArchivedSms sms : messages) {
+            assertTrue(archive.add(sms));
+        }
+        archive.stop(Duration.ofSeconds(5));
+        assertEquals(messages.size(), archive.getArchived());
+    }
+
+    @Test
+    void shouldQueryByNumberInAnyFormatAndTime() throws Exception {
+        MessageArchive archive = archive(1 << 20, 100);
+        archive.start();
+        archive.inbound(new SmsMessage(1, null, "+420601123456", OffsetDateTime.now().minusHours(2), "ahoj"));
+        archive.outbound(new SmsRestClient.OutgoingSms("42", "601 123 456", "odpoved"));
+        OffsetDateTime other = OffsetDateTime.now().minusHours(1);
+        archive.inbound(new SmsMessage(2, null, "+420777000111", other, "jiny"));
+        archive.stop(Duration.ofSeconds(5));
+
+        List<ArchivedSms> found = archive.query("00420601123456", 0, Long.MAX_VALUE, 10);
+
+        assertEquals(2, found.size());
+        assertEquals("ahoj", found.get(0).text());
+        assertEquals(ArchivedSms.Direction.OUT, found.get(1).direction());
+        assertEquals("42", found.get(1).ref());
+        long t = other.toInstant().toEpochMilli();
+        assertEquals(List.of("jiny"), archive.query(null, t, t, 10).stream().map(ArchivedSms::text).toList());
+        assertTrue(archive.query("abc", 0, Long.MAX_VALUE, 10).isEmpty());
+    }
+
+    @Test
+    void shouldRollSegmentsAndFindAcrossSealedIndexes() throws Exception {
+        MessageArchive archive = archive(64 * 1024, 10_000);
+        List<ArchivedSms> messages = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            messages.add(in(T0 + i * 1000L, String.format("+4206010000%02d", i % 50), "zprava " + i));
+        }
+        write(archive, messages);
+
+        assertTrue(archive.getSegments() > 2, "segments " + archive.getSegments());
+        List<ArchivedSms> found = archive.query("601000007", 0, Long.MAX_VALUE, 1000);
+        assertEquals(100, found.size());
+        assertEquals("zprava 7", found.get(0).text());
+        assertEquals("zprava 4957", found.get(99).text());
+
+        List<ArchivedSms> range = new ArrayList<>();
+        archive.scan(T0 + 1_000_000, T0 + 1_009_000, range::add);
+        assertEquals(10, range.size());
+        assertEquals("zprava 1000", range.get(0).text());
+
+        // limit bere nejnovější, ne první v pořadí souborů
+        assertEquals(List.of("zprava 4997", "zprava 4998", "zprava 4999"),
+                archive.query(null, 0, Long.MAX_VALUE, 3).stream().map(ArchivedSms::text).toList());
+        assertEquals(List.of("zprava 4907", "zprava 4957"),
+                archive.query("601000007", 0, Long.MAX_VALUE, 2).stream().map(ArchivedSms::text).toList());
+    }
+
+    @Test
+    void limitShouldKeepNewestByTimeAcrossOverlappingSegments() throws Exception {
+        MessageArchive archive = archive(64 * 1024, 10_000);
+        List<ArchivedSms> messages = new ArrayList<>();
+        // první segment obsahuje nejnovější zprávu (pozdní čas z modemu), další jsou starší
+        messages.add(in(T0 + 10_000_000, "+420601123456", "nejnovejsi"));
+        for (int i = 0; i < 3000; i++) {
+            messages.add(in(T0 + i * 1000L, "+420601123456", "zprava " + i));
+        }
+        write(archive, messages);
+        assertTrue(archive.getSegments() > 1, "segments " + archive.getSegments());
+
+        assertEquals(List.of("zprava 2998", "zprava 2999", "nejnovejsi"),
+                archive.query("601123456", 0, Long.MAX_VALUE, 3).stream().map(ArchivedSms::text).toList());
+        assertEquals(List.of("zprava 9", "zprava 10"),
+                archive.query(null, T0, T0 + 10_000, 2).stream().map(ArchivedSms::text).toList());
+    }
+
+    @Test
+    void shouldRecoverAfterRestartAndCutTornRecord() throws Exception {
+        MessageArchive archive = archive(1 << 20, 100);
+        write(archive, List.of(in(T0, "601123456", "a"), in(T0 + 1, "601123456", "b")));
+        try (var files = Files.list(dir)) {
+            Path segment = files.filter(p -> p.toString().endsWith(".seg")).findFirst().orElseThrow();
+            Files.write(segment, new byte[]{0, 0, 0, 50, 1}, StandardOpenOption.APPEND); // pád uprostřed zápisu
+        }
+
+        MessageArchive reopened = archive(1 << 20, 100);
+        assertEquals(2, reopened.query("601123456", 0, Long.MAX_VALUE, 10).size());
+        write(reopened, List.of(in(T0 + 2, "601123456", "c")));
+
+        assertEquals(List.of("a", "b", "c"),
+                archive(1 << 20, 100).query("601123456", 0, Long.MAX_VALUE, 10).stream().map(ArchivedSms::text).toList());
+    }
+
+    @Test
+    void shouldDeleteSegmentsPastRetention() throws Exception {
+        MessageArchive archive = archive(64 * 1024, 10_000);
+        List<ArchivedSms> messages = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            messages.add(in(i < 1500 ? T0 : T0 + Duration.ofDays(24).toMillis(), "601123456", "x".repeat(40)));
+        }
+        write(archive, messages);
+        int before = archive.getSegments();
+
+        archive.maintain(T0 + Duration.ofDays(31).toMillis()); // retence 30 dní
+
+        assertTrue(archive.getSegments() < before);
+        List<ArchivedSms> left = archive.query("601123456", 0, Long.MAX_VALUE, 10_000);
+        // segment se maže celý, jen když je celý starý
+        assertEquals(1500, left.stream().filter(sms -> sms.time() > T0).count());
+        assertTrue(left.stream().filter(sms -> sms.time() == T0).count() < 1500);
+    }
+
+    @Test
+    void fullQueueShouldDropWithoutBlocking() {
+        MessageArchive archive = archive(1 << 20, 2);
+
+        assertTrue(archive.add(in(T0, "601123456", "a")));
+        assertTrue(archive.add(in(T0, "601123456", "b")));
+        assertFalse(archive.add(in(T0, "601123456", "c")));
+
+        assertEquals(1, archive.getDropped());
+        assertEquals(2, archive.getQueued());
+    }
+}
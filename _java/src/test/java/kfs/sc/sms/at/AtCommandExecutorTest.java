@@ -1,12 +1,17 @@
 package kfs.sc.sms.at;
 
 import com.fazecast.jSerialComm.SerialPort;
+import kfs.sc.sms.utils.ModemCommandException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -67,4 +72,115 @@ class AtCommandExecutorTest {
         assertTrue(new String(bytes).contains("Hello"));
         assertEquals(26, bytes[bytes.length - 1]); // CTRL-Z
     }
+
+    @Test
+    void shouldAwaitUnsolicitedLine() throws Exception {
+        input = new ByteArrayInputStream("\r\n+CEREG: 2\r\n\r\n+CEREG: 1\r\n".getBytes());
+        when(port.getInputStream()).thenReturn(input);
+
+        executor = new AtCommandExecutor(port);
+
+        String line = executor.awaitLine(l -> l.equals("+CEREG: 1"), Duration.ofSeconds(1));
+        assertEquals("+CEREG: 1", line);
+    }
+
+    @Test
+    void shouldReturnNullWhenLineNotReceived() throws Exception {
+        input = new ByteArrayInputStream("+CEREG: 2\r\n".getBytes());
+        when(port.getInputStream()).thenReturn(input);
+
+        executor = new AtCommandExecutor(port);
+
+        assertNull(executor.awaitLine(l -> l.startsWith("+CPIN"), Duration.ofMillis(50)));
+    }
+
+    @Test
+    void shouldEncodeBodyWithConfiguredCharset() throws Exception {
+        input = new ByteArrayInputStream(new byte[0]);
+        when(port.getInputStream()).thenReturn(input);
+        executor = new AtCommandExecutor(port);
+
+        executor.writeMessage("Příliš žluťoučký");
+        assertEquals("Prilis zlutoucky\u001a", output.toString(StandardCharsets.US_ASCII));
+
+        output.reset();
+        executor.setCharset(ModemCharset.UCS2);
+        executor.writeMessage("Čau");
+        assertEquals("010C00610075\u001a", output.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void shouldPaceLongBodyInChunks() throws Exception {
+        List<Integer> writes = new ArrayList<>();
+        OutputStream counting = new OutputStream() {
+            @Override
+            public void write(int b) {
+                writes.add(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writes.add(len);
+            }
+        };
+        executor = new AtCommandExecutor(new ByteArrayInputStream(new byte[0]), counting);
+        executor.setPacing(9600, 64); // ~1 ms na bajt
+
+        long start = System.nanoTime();
+        executor.writeMessage("x".repeat(159));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(List.of(64, 64, 32), writes);
+        assertTrue(elapsedMs >= 128, "paced " + elapsedMs + " ms"); // poslední chunk se nečeká
+    }
+
+    @Test
+    void shouldCutDirectDeliveryOutOfCommandResponse() throws Exception {
+        input = new ByteArrayInputStream(("\r\n+CMT: \"+420111111111\",,\"24/02/12,09:41:22+04\"\r\nOK\r\n"
+                + "\r\n+CSQ: 20,99\r\n\r\nOK\r\n").getBytes());
+        when(port.getInputStream()).thenReturn(input);
+        executor = new AtCommandExecutor(port);
+        List<String> received = new ArrayList<>();
+        executor.setCmtListener((header, body) -> received.add(header + "|" + body));
+
+        String response = executor.send("AT+CSQ", Duration.ofSeconds(1));
+
+        assertTrue(response.contains("+CSQ: 20,99"), response); // tělo "OK" odpověď neukončilo
+        assertFalse(response.contains("+CMT"));
+        assertEquals(List.of("+CMT: \"+420111111111\",,\"24/02/12,09:41:22+04\"|OK"), received);
+    }
+
+    @Test
+    void shouldContinueDirectDeliveryCutByIdlePoll() throws Exception {
+        // pollUnsolicited zastihne jen půlku hlavičky, zbytek přijde s odpovědí na další příkaz
+        ByteArrayInputStream partial = new ByteArrayInputStream("\r\n+CMT: \"+42011".getBytes());
+        input = new ByteArrayInputStream(("1111111\",,\"24/02/12,09:41:22+04\"\r\nAhoj\r\n"
+                + "\r\n+CSQ: 20,99\r\n\r\nOK\r\n").getBytes());
+        when(port.getInputStream()).thenReturn(partial, input);
+        executor = new AtCommandExecutor(port);
+        List<String> received = new ArrayList<>();
+        executor.setCmtListener((header, body) -> received.add(header + "|" + body));
+
+        executor.pollUnsolicited();
+        assertTrue(received.isEmpty());
+        String response = executor.send("AT+CSQ", Duration.ofSeconds(1));
+
+        assertFalse(response.contains("+CMT"), response);
+        assertTrue(response.contains("+CSQ: 20,99"), response);
+        assertEquals(List.of("+CMT: \"+420111111111\",,\"24/02/12,09:41:22+04\"|Ahoj"), received);
+    }
+
+    @Test
+    void checkedSendShouldEndOnErrorResultCode() throws Exception {
+        input = new ByteArrayInputStream("\r\n+CME ERROR: 4\r\n".getBytes());
+        when(port.getInputStream()).thenReturn(input);
+        executor = new AtCommandExecutor(port);
+
+        long start = System.nanoTime();
+        ModemCommandException e = assertThrows(ModemCommandException.class,
+                () -> executor.sendChecked("AT+CMMS=2", Duration.ofSeconds(5)));
+
+        assertEquals("+CME ERROR: 4", e.getMessage());
+        assertTrue(System.nanoTime() - start < 1_000_000_000L, "no timeout wait");
+    }
 }
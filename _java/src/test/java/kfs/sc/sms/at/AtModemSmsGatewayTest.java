@@ -123,4 +123,171 @@ class AtModemSmsGatewayTest {
         assertFalse(thread.isAlive(), "Polling loop should not freeze on timeout");
     }
 
+    @Test
+    void shouldSkipWaitingWhenSimAndNetworkAlreadyReady() throws Exception {
+        when(executor.send(eq("AT+CPIN?"), any())).thenReturn("+CPIN: READY\r\nOK");
+        when(executor.send(eq("AT+CEREG=1"), any())).thenReturn("OK");
+        when(executor.send(eq("AT+CEREG?"), any())).thenReturn("+CEREG: 1,1\r\nOK");
+
+        gateway.ensureSimReady("1234");
+
+        verify(executor, never()).send(startsWith("AT+CPIN=\""), any());
+        verify(executor, never()).awaitLine(any(), any());
+    }
+
+    @Test
+    void shouldWaitForCpinReadyUrcAfterPin() throws Exception {
+        when(executor.send(eq("AT+CPIN?"), any())).thenReturn("+CPIN: SIM PIN\r\nOK");
+        when(executor.send(eq("AT+CPIN=\"1234\""), any())).thenReturn("OK");
+        when(executor.send(eq("AT+CEREG=1"), any())).thenReturn("OK");
+        when(executor.send(eq("AT+CEREG?"), any())).thenReturn("+CEREG: 1,5\r\nOK");
+        when(executor.awaitLine(any(), any())).thenReturn("+CPIN: READY");
+
+        long start = System.currentTimeMillis();
+        gateway.ensureSimReady("1234");
+
+        assertTrue(System.currentTimeMillis() - start < 1000, "no fixed sleep after PIN");
+        verify(executor).send("AT+CPIN=\"1234\"", Duration.ofSeconds(5));
+        verify(executor, times(1)).send(eq("AT+CPIN?"), any());
+    }
+
+    @Test
+    void shouldFallbackToPollingWhenNoUrcArrives() throws Exception {
+        when(executor.send(eq("AT+CPIN?"), any())).thenReturn("+CPIN: READY\r\nOK");
+        when(executor.send(eq("AT+CEREG=1"), any())).thenReturn("OK");
+        when(executor.send(eq("AT+CEREG?"), any()))
+                .thenReturn("+CEREG: 1,2\r\nOK")
+                .thenReturn("+CEREG: 1,2\r\nOK")
+                .thenReturn("+CEREG: 1,1\r\nOK");
+        when(executor.awaitLine(any(), any())).thenReturn(null);
+
+        gateway.ensureSimReady(null);
+
+        verify(executor, times(3)).send(eq("AT+CEREG?"), any());
+    }
+
+    @Test
+    void shouldParseRegistrationStatus() {
+        assertTrue(AtModemSmsGateway.isRegistered("+CEREG: 1,1\r\nOK"));
+        assertTrue(AtModemSmsGateway.isRegistered("+CEREG: 2,5,\"1A2B\",\"01ABCDEF\",7"));
+        assertTrue(AtModemSmsGateway.isRegistered("+CEREG: 1"));
+        assertTrue(AtModemSmsGateway.isRegistered("+CEREG: 5,\"1A2B\",\"01ABCDEF\",7"));
+        assertFalse(AtModemSmsGateway.isRegistered("+CEREG: 1,2\r\nOK"));
+        assertFalse(AtModemSmsGateway.isRegistered("+CEREG: 2"));
+        assertFalse(AtModemSmsGateway.isRegistered("OK"));
+    }
+
+
+    @Test
+    void shouldUseUcs2ForNumberAndIncomingMessages() throws Exception {
+        gateway = new AtModemSmsGateway("COM1", 115200, ModemCharset.UCS2, false, 64);
+        gateway.setExecutor(executor);
+        gateway.initCharset();
+        verify(executor).send("AT+CSCS=\"UCS2\"", Duration.ofSeconds(2));
+        verify(executor).send("AT+CSMP=17,167,0,8", Duration.ofSeconds(2));
+        verify(executor).setCharset(ModemCharset.UCS2);
+
+        when(executor.readUntil("OK", Duration.ofSeconds(10))).thenReturn("+CMGS: 1\r\nOK\r\n");
+        gateway.sendSms("+42", "Ahoj");
+        verify(executor).sendExpectPrompt("AT+CMGS=\"002B00340032\"", '>', Duration.ofSeconds(2));
+
+        String response = "+CMGL: 1,\"REC READ\",\"002B00340032\",\"\",\"24/02/12,09:41:22+04\"\r\n"
+                + "010C00610075\r\nOK";
+        when(executor.send(eq("AT+CMGL=\"ALL\""), any())).thenReturn(response);
+        SmsMessage message = gateway.readAll().get(0);
+        assertEquals("+42", message.getSender());
+        assertEquals("Čau", message.getBody());
+    }
+
+    @Test
+    void shouldReadDirectDeliveryWithoutSimStorage() throws Exception {
+        SimulatedModem modem = new SimulatedModem();
+        modem.deliver("+420333333333", "Stored before"); // ještě bez CNMI → SIM
+        gateway.setExecutor(modem.newExecutor());
+        gateway.setDirectInbound(true);
+        gateway.initDirectInbound();
+        assertTrue(gateway.isDirectInbound());
+
+        modem.deliver("+420111111111", "Direct");
+        List<SmsMessage> first = gateway.readAll(); // první poll vyčte i SIM
+        assertEquals(List.of("Direct", "Stored before"), first.stream().map(m -> m.getBody().strip()).toList());
+        assertEquals(SmsParser.DIRECT_INDEX, first.get(0).getIndex());
+        assertEquals("+420111111111", first.get(0).getSender());
+
+        assertEquals(1, modem.ackCount()); // potvrzeno hned při převzetí, ne až po doručení serveru
+        gateway.delete(first.get(0).getIndex());
+        gateway.delete(first.get(1).getIndex());
+        assertEquals(1, modem.ackCount());
+        assertEquals(0, modem.storedCount());
+
+        modem.deliver("+420222222222", "Second");
+        List<SmsMessage> second = gateway.readAll();
+        assertEquals(1, second.size());
+        assertEquals("Second", second.get(0).getBody());
+    }
+
+    @Test
+    void shouldAcknowledgeDirectDeliveryRightAfterCommandThatReceivedIt() throws Exception {
+        SimulatedModem modem = new SimulatedModem();
+        gateway.setExecutor(modem.newExecutor());
+        gateway.setDirectInbound(true);
+        gateway.initDirectInbound();
+
+        modem.deliver("+420111111111", "During probe");
+        gateway.execute("AT", Duration.ofSeconds(2)); // +CMT přišel v odpovědi na jiný příkaz
+
+        assertEquals(1, modem.ackCount());
+        List<SmsMessage> messages = gateway.readAll();
+        assertEquals(List.of("During probe"), messages.stream().map(SmsMessage::getBody).toList());
+        gateway.delete(messages.get(0).getIndex());
+        assertEquals(1, modem.ackCount());
+    }
+
+    @Test
+    void shouldKeepCmtReceivedDuringSendForShutdownHandoff() throws Exception {
+        SimulatedModem modem = new SimulatedModem();
+        gateway.setExecutor(modem.newExecutor());
+        gateway.setDirectInbound(true);
+        gateway.initDirectInbound();
+
+        // polling už stojí, odchozí služba ještě odesílá
+        modem.deliver("+420111111111", "Late");
+        gateway.sendSms("+420222222222", "Out");
+
+        assertEquals(1, modem.ackCount()); // síť ji znovu nedoručí
+        assertEquals(List.of("Late"), gateway.drainReceived().stream().map(SmsMessage::getBody).toList());
+        assertTrue(gateway.drainReceived().isEmpty());
+    }
+
+    @Test
+    void shouldSerializeSendAndReadFromTwoThreads() throws Exception {
+        SimulatedModem modem = new SimulatedModem();
+        gateway.setExecutor(modem.newExecutor());
+        for (int i = 0; i < 50; i++) {
+            modem.deliver("+420111111111", "In " + i);
+        }
+
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < 50; i++) {
+                    gateway.sendSms("+420222222222", "Out " + i);
+                }
+            } catch (ModemException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        sender.start();
+        int read = 0;
+        while (sender.isAlive() || read < 50) {
+            for (SmsMessage m : gateway.readAll()) {
+                gateway.delete(m.getIndex());
+                read++;
+            }
+        }
+        sender.join();
+
+        assertEquals(50, read);
+        assertEquals(50, modem.sentCount());
+        assertEquals(0, modem.storedCount());
+    }
 }
@@ -0,0 +1,116 @@
+package kfs.sc.sms.at;
+
+import kfs.sc.sms.utils.ModemException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class BaudNegotiatorTest {
+
+    @TempDir
+    Path dir;
+
+    AtCommandExecutor executor;
+    List<Integer> portRates;
+    int portRate;
+    int modemRate;
+    Set<Integer> unstable;
+
+    @BeforeEach
+    void setup() throws Exception {
+        executor = mock(AtCommandExecutor.class);
+        portRates = new ArrayList<>();
+        portRate = 115200;
+        modemRate = 115200;
+        unstable = Set.of();
+        // jiná rychlost = modem nic neslyší; nestabilní = příkaz projde, odpověď se ztratí
+        when(executor.send(anyString(), any())).thenAnswer(inv -> {
+            String cmd = inv.getArgument(0);
+            if (portRate != modemRate) {
+                throw new ModemException("Timeout waiting for: OK");
+            }
+            boolean lost = unstable.contains(portRate);
+            if (cmd.equals("AT+IPR=?")) {
+                return "+IPR: (0,9600,19200,38400,57600,115200,230400,460800,921600),()\r\nOK";
+            }
+            if (cmd.startsWith("AT+IPR=")) {
+                modemRate = Integer.parseInt(cmd.substring(7));
+            }
+            if (lost) {
+                throw new ModemException("Timeout waiting for: OK");
+            }
+            return "OK";
+        });
+    }
+
+    private BaudNegotiator negotiator(int max, Path file) {
+        return new BaudNegotiator(executor, rate -> {
+            portRate = rate;
+            portRates.add(rate);
+        }, max, file);
+    }
+
+    @Test
+    void shouldSwitchToFastestAllowedRateAndPersistIt() throws Exception {
+        Path file = dir.resolve("baud.dat");
+
+        assertEquals(460800, negotiator(460800, file).negotiate(115200));
+
+        assertEquals(460800, portRate);
+        assertEquals(460800, modemRate);
+        assertEquals("460800", Files.readString(file));
+        assertEquals(460800, BaudNegotiator.load(file, 115200));
+    }
+
+    @Test
+    void shouldFallBackWhenRateIsNotStable() throws Exception {
+        unstable = Set.of(921600);
+
+        assertEquals(460800, negotiator(921600, null).negotiate(115200));
+
+        assertEquals(List.of(921600, 115200, 460800), portRates);
+        verify(executor, atLeastOnce()).send("AT+IPR=115200", Duration.ofMillis(500));
+    }
+
+    @Test
+    void shouldFailWhenModemIsLostAtNewRate() throws Exception {
+        // po přepnutí modem neslyší ani jednu rychlost → supervisor port zavře a otevře znovu
+        doAnswer(inv -> {
+            String cmd = inv.getArgument(0);
+            if (cmd.equals("AT+IPR=?")) return "+IPR: (115200,230400)\r\nOK";
+            if (cmd.equals("AT+IPR=230400")) {
+                modemRate = -1;
+                return "OK";
+            }
+            throw new ModemException("Timeout waiting for: OK");
+        }).when(executor).send(anyString(), any());
+
+        assertThrows(ModemException.class, () -> negotiator(921600, null).negotiate(115200));
+    }
+
+    @Test
+    void shouldParseListsAndRanges() {
+        assertEquals(Set.of(9600, 115200, 921600),
+                BaudNegotiator.supportedRates("+IPR: (0,9600,115200,921600)\r\nOK"));
+        assertEquals(Set.of(57600, 115200, 230400, 460800),
+                BaudNegotiator.supportedRates("+IPR: (57600-460800),(1200)\r\nOK").tailSet(57600));
+        assertTrue(BaudNegotiator.supportedRates("ERROR").isEmpty());
+    }
+
+    @Test
+    void shouldUseFallbackWithoutState() {
+        assertEquals(115200, BaudNegotiator.load(dir.resolve("none.dat"), 115200));
+    }
+}
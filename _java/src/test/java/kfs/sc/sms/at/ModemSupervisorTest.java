@@ -0,0 +1,158 @@
+package kfs.sc.sms.at;
+
+import kfs.sc.sms.model.ModemState;
+import kfs.sc.sms.utils.ModemException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ModemSupervisorTest {
+
+    AtModemSmsGateway gateway;
+    ModemSupervisor supervisor;
+
+    @BeforeEach
+    void setup() {
+        gateway = mock(AtModemSmsGateway.class);
+        when(gateway.getPortName()).thenReturn("COM1");
+        when(gateway.isOpen()).thenReturn(true);
+        supervisor = new ModemSupervisor(gateway, 10, 50, 60_000, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        supervisor.stop();
+    }
+
+    @Test
+    void shouldBecomeReadyAfterOpen() throws Exception {
+        supervisor.open("1234");
+
+        awaitState(ModemState.READY);
+        verify(gateway).open("1234");
+        assertTrue(supervisor.isReady());
+    }
+
+    @Test
+    void shouldRetryOpenWithBackoff() throws Exception {
+        doThrow(new ModemException("no port"))
+                .doThrow(new ModemException("no port"))
+                .doNothing()
+                .when(gateway).open(any());
+
+        supervisor.open("1234");
+
+        awaitState(ModemState.READY);
+        verify(gateway, times(3)).open("1234");
+    }
+
+    @Test
+    void shouldRejectCommandsWhenNotReady() {
+        ModemException e = assertThrows(ModemException.class, () -> supervisor.readAll());
+        assertTrue(e.getMessage().contains("not ready"));
+    }
+
+    @Test
+    void shouldReconnectWhenProbeFailsRepeatedly() throws Exception {
+        supervisor.open("1234");
+        awaitState(ModemState.READY);
+
+        when(gateway.readAll()).thenThrow(new ModemException("Timeout"));
+        when(gateway.execute(eq("AT"), any(Duration.class))).thenThrow(new ModemException("Timeout"));
+
+        assertThrows(ModemException.class, () -> supervisor.readAll());
+        verify(gateway, times(1)).open("1234");
+
+        assertThrows(ModemException.class, () -> supervisor.readAll());
+        awaitOpenCalls(2);
+        awaitState(ModemState.READY);
+    }
+
+    @Test
+    void shouldNotReconnectWhenModemStillResponds() throws Exception {
+        supervisor.open("1234");
+        awaitState(ModemState.READY);
+
+        doThrow(new ModemException("+CMS ERROR: 500")).when(gateway).sendSms(any(), any());
+        when(gateway.execute(eq("AT"), any(Duration.class))).thenReturn("OK");
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(ModemException.class, () -> supervisor.sendSms("+420111111111", "x"));
+        }
+
+        verify(gateway, times(1)).open("1234");
+        assertTrue(supervisor.isReady());
+    }
+
+    @Test
+    void shouldNotifyListenersAboutStateChanges() throws Exception {
+        List<ModemState> states = new CopyOnWriteArrayList<>();
+        supervisor.addStateListener(states::add);
+
+        supervisor.open("1234");
+        awaitState(ModemState.READY);
+        // stav se nastaví dřív, než doběhnou listenery
+        long end = System.currentTimeMillis() + 2000;
+        while (states.size() < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of(ModemState.DISCONNECTED, ModemState.INITIALIZING, ModemState.READY), states);
+    }
+
+    private void awaitState(ModemState expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (supervisor.getState() != expected && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, supervisor.getState());
+    }
+
+    private void awaitOpenCalls(int count) throws Exception {
+        long end = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < end) {
+            try {
+                verify(gateway, times(count)).open("1234");
+                return;
+            } catch (AssertionError e) {
+                Thread.sleep(10);
+            }
+        }
+        verify(gateway, times(count)).open("1234");
+    }
+
+    @Test
+    void shouldSampleTelemetryOnlyInIdleGaps() throws Exception {
+        when(gateway.execute(eq("AT+CEREG?"), any())).thenReturn("+CEREG: 1,2\r\nOK");
+        when(gateway.execute(eq("AT+CSQ"), any())).thenReturn("+CSQ: 20,99\r\nOK");
+        supervisor.open("1234");
+        awaitState(ModemState.READY);
+
+        // právě použitý modem → kolo se vynechá
+        supervisor.readAll();
+        supervisor.sampleTelemetry();
+        assertEquals(1, supervisor.getTelemetry().getSkipped());
+        assertEquals(0, supervisor.getTelemetry().getSamples());
+
+        Thread.sleep(600);
+        supervisor.sampleTelemetry();
+        assertEquals(1, supervisor.getTelemetry().getSamples());
+        assertFalse(supervisor.isNetworkAvailable()); // stat 2 = hledá síť
+        assertTrue(supervisor.getTelemetry().getBusyNanos() > 0);
+
+        when(gateway.execute(eq("AT+CEREG?"), any())).thenReturn("+CEREG: 1,1\r\nOK");
+        Thread.sleep(600);
+        supervisor.sampleTelemetry(); // bez registrace znovu CEREG
+        assertTrue(supervisor.isNetworkAvailable());
+        Thread.sleep(600);
+        supervisor.sampleTelemetry();
+        assertEquals(-73, supervisor.getTelemetry().getSignalDbm());
+    }
+}
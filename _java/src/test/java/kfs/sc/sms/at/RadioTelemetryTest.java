@@ -0,0 +1,43 @@
+package kfs.sc.sms.at;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RadioTelemetryTest {
+
+    @Test
+    void shouldParseResponses() {
+        RadioTelemetry t = new RadioTelemetry(4);
+        t.update("AT+CSQ", "\r\n+CSQ: 15,3\r\n\r\nOK\r\n", 1);
+        t.update("AT+CEREG?", "+CEREG: 2,5,\"1A2B\",\"01C2D3E4\",7\r\nOK", 2);
+        t.update("AT+COPS?", "+COPS: 0,0,\"T-Mobile CZ\",7\r\nOK", 3);
+
+        assertEquals(-83, t.getSignalDbm());
+        assertEquals(3, t.getBitErrorRate());
+        assertEquals(5, t.getRegistration());
+        assertTrue(t.isRegistered());
+        assertEquals("T-Mobile CZ", t.getOperator());
+        assertEquals(3, t.getUpdatedMillis());
+    }
+
+    @Test
+    void shouldTreatUnknownAsRegisteredAndUnknownSignal() {
+        RadioTelemetry t = new RadioTelemetry(4);
+        assertTrue(t.isRegistered());
+        t.update("AT+CSQ", "+CSQ: 99,99\r\nOK", 1);
+        assertEquals(RadioTelemetry.UNKNOWN, t.getSignalDbm());
+        t.update("AT+CEREG?", "+CEREG: 3\r\nOK", 2);
+        assertFalse(t.isRegistered());
+    }
+
+    @Test
+    void shouldKeepBoundedHistoryOldestFirst() {
+        RadioTelemetry t = new RadioTelemetry(3);
+        for (int rssi = 10; rssi <= 14; rssi++) {
+            t.update("AT+CSQ", "+CSQ: " + rssi + ",99", rssi);
+        }
+        assertArrayEquals(new short[]{-89, -87, -85}, t.signalHistory());
+        assertEquals(-89, t.minSignalDbm());
+    }
+}
@@ -0,0 +1,85 @@
+package kfs.sc.sms.bench;
+
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.service.RingBufferQueue;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polling to dispatch handoff: one producer, three consumers (like dispatch workers).
+ * Timed offer/poll so the group can always finish an iteration; compare {@code delivered}
+ * (messages handed over), not the raw call rate which includes empty polls.
+ * Needs more cores than threads to be meaningful.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="HandoffQueueBenchmark"
+ * </pre>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandoffQueueBenchmark {
+
+    @Param({"array", "ring-blocking", "ring-parking", "ring-yielding"})
+    public String queueType;
+
+    private BlockingQueue<SmsMessage> queue;
+    private final SmsMessage message = new SmsMessage(1, null, "+420777123456", null, "Test");
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        queue = switch (queueType) {
+            case "array" -> new ArrayBlockingQueue<>(1024);
+            case "ring-blocking" -> new RingBufferQueue<>(1024, RingBufferQueue.WaitStrategy.BLOCKING);
+            case "ring-parking" -> new RingBufferQueue<>(1024, RingBufferQueue.WaitStrategy.PARKING);
+            case "ring-yielding" -> new RingBufferQueue<>(1024, RingBufferQueue.WaitStrategy.YIELDING);
+            default -> throw new IllegalArgumentException(queueType);
+        };
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long delivered;
+        public long empty;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean produce() throws InterruptedException {
+        return queue.offer(message, 1, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(3)
+    public SmsMessage consume(Counters counters) throws InterruptedException {
+        SmsMessage m = queue.poll(1, TimeUnit.MILLISECONDS);
+        if (m == null) {
+            counters.empty++;
+        } else {
+            counters.delivered++;
+        }
+        return m;
+    }
+}
@@ -0,0 +1,92 @@
+package kfs.sc.sms.bench;
+
+import kfs.sc.sms.json.JsonReader;
+import kfs.sc.sms.json.JsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Regex extraction + string concatenation (previous SmsRestClient) vs JsonReader/JsonWriter.
+ * Run with {@code -prof gc} and compare {@code gc.alloc.rate.norm} (bytes per call).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    private final String response = "{\"id\":\"123456\",\"numb\":\"+420777123456\","
+            + "\"text\":\"Vas overovaci kod je 483920. Platnost 5 minut.\"}";
+    private final String numb = "+420777123456";
+    private final String text = "Dobrý den, \"potvrzuji\" termín\nzítra v 10:00";
+    private final String time = "2024-02-12T09:41:22+01:00";
+    private final JsonWriter writer = new JsonWriter();
+
+    @Benchmark
+    public String parseRegex() {
+        return legacyExtract(response, "id") + legacyExtract(response, "numb") + legacyExtract(response, "text");
+    }
+
+    @Benchmark
+    public String parseStreaming() {
+        JsonReader reader = new JsonReader(response);
+        String id = null;
+        String n = null;
+        String t = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> id = reader.nextString();
+                case "numb" -> n = reader.nextString();
+                case "text" -> t = reader.nextString();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return id + n + t;
+    }
+
+    @Benchmark
+    public String writeConcat() {
+        return "{\"numb\":\"" + legacyEscape(numb)
+                + "\",\"text\":\"" + legacyEscape(text)
+                + "\",\"time\":\"" + time + "\"}";
+    }
+
+    @Benchmark
+    public int writeStreaming() {
+        writer.reset().beginObject()
+                .field("numb", numb)
+                .field("text", text)
+                .field("time", time)
+                .endObject();
+        return writer.length();
+    }
+
+    private static String legacyExtract(String json, String key) {
+        String pattern = "\"" + key + "\"\\s*:\\s*\"([^\"]*?)\"";
+        Matcher matcher = Pattern.compile(pattern).matcher(json);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String legacyEscape(String s) {
+        return s.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n")
+                .replace("\r", "\\r")
+                .replace("\t", "\\t");
+    }
+}
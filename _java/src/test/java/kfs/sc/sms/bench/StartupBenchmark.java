@@ -0,0 +1,95 @@
+package kfs.sc.sms.bench;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures time-to-first-poll of the shaded jar with and without the AppCDS archive.
+ * Every run is a CDS training run (simulated modem, local stub server), see {@code -Pstartup-bench}.
+ *
+ * <pre>args: &lt;jar&gt; &lt;jsa&gt; [runs]</pre>
+ */
+public class StartupBenchmark {
+
+    private static final Pattern FIRST_POLL = Pattern.compile("time-to-first-poll=(\\d+) ms");
+
+    public static void main(String[] args) throws Exception {
+        Path jar = Path.of(args[0]);
+        Path jsa = Path.of(args[1]);
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+
+        if (!Files.exists(jsa)) {
+            System.out.println("Creating archive " + jsa);
+            run(List.of(java, "-XX:ArchiveClassesAtExit=" + jsa, "-Dkfs.sms.training=true", "-jar", jar.toString()),
+                    System.nanoTime());
+        }
+
+        report("default CDS", java, jar, null, runs);
+        report("AppCDS     ", java, jar, jsa, runs);
+    }
+
+    private static void report(String label, String java, Path jar, Path jsa, int runs) throws Exception {
+        List<Long> firstPoll = new ArrayList<>();
+        List<Long> wall = new ArrayList<>();
+        List<Long> total = new ArrayList<>();
+
+        for (int i = 0; i < runs; i++) {
+            List<String> cmd = new ArrayList<>(List.of(java));
+            if (jsa != null) {
+                cmd.add("-XX:SharedArchiveFile=" + jsa);
+            }
+            cmd.addAll(List.of("-Dkfs.sms.training=true", "-jar", jar.toString()));
+
+            long start = System.nanoTime();
+            long[] result = run(cmd, start);
+            total.add((System.nanoTime() - start) / 1_000_000);
+            if (result[0] >= 0) {
+                firstPoll.add(result[0]);
+                wall.add(result[1]);
+            }
+        }
+
+        System.out.printf("%s  time-to-first-poll median=%d ms (JVM uptime), %d ms (wall)  process median=%d ms  (%d runs)%n",
+                label, median(firstPoll), median(wall), median(total), runs);
+    }
+
+    /**
+     * @return [first poll reported by the app, wall-clock ms until the line was printed]
+     */
+    private static long[] run(List<String> cmd, long startNanos) throws Exception {
+        Process process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        process.getOutputStream().close();
+
+        long[] result = {-1, -1};
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher m = FIRST_POLL.matcher(line);
+                if (m.find()) {
+                    result[0] = Long.parseLong(m.group(1));
+                    result[1] = (System.nanoTime() - startNanos) / 1_000_000;
+                }
+            }
+        }
+        process.waitFor();
+        return result;
+    }
+
+    private static long median(List<Long> values) {
+        if (values.isEmpty()) return -1;
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
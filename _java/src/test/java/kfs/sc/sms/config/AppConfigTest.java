@@ -69,6 +69,54 @@ class AppConfigTest {
         assertEquals("INFO", config.logging().level());
     }
 
+    @Test
+    void shouldLoadModemsAndRouting() throws IOException {
+
+        String yaml = """
+                sms:
+                  portName: "/dev/ttyUSB0"
+                  baudRate: 9600
+                  pollIntervalMs: 5000
+
+                api:
+                  baseUrl: "https://api.example.com"
+                  user: "john"
+                  password: "secret"
+
+                msisdn:
+                  pin: "1111"
+
+                modems:
+                  - name: "o2"
+                    portName: "/dev/ttyUSB1"
+                    maxSendsPerMinute: 20
+                  - name: "vf"
+                    portName: "/dev/ttyUSB2"
+                    baudRate: 115200
+                    pin: "2222"
+
+                routing:
+                  groups:
+                    mobile: [o2, vf]
+                  routes:
+                    "+420601": [o2, main]
+                    "+420608": vf
+                """;
+
+        Path tempFile = Files.createTempFile("config", ".yml");
+        Files.writeString(tempFile, yaml);
+
+        AppConfig config = AppConfig.load(tempFile);
+
+        assertEquals(2, config.modems().size());
+        assertEquals(new AppConfig.ModemConfig("o2", "/dev/ttyUSB1", 9600, "1111", 20), config.modems().get(0));
+        assertEquals("2222", config.modems().get(1).pin());
+        assertEquals("420", config.routing().countryCode());
+        assertEquals(java.util.List.of("o2", "vf"), config.routing().groups().get("mobile"));
+        assertEquals(java.util.List.of("vf"), config.routing().routes().get("+420608"));
+        assertTrue(config.routing().defaultRoute().isEmpty());
+    }
+
     @Test
     void shouldFailWhenSmsSectionMissing() throws IOException {
 
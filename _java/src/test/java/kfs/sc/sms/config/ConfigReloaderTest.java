@@ -0,0 +1,105 @@
+package kfs.sc.sms.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigReloaderTest {
+
+    static final String YAML = """
+            sms:
+              portName: "COM3"
+              baudRate: 115200
+              pollIntervalMs: %d
+              sendMaxRetries: 3
+            api:
+              baseUrl: "https://api.example.com"
+              user: "john"
+              password: "%s"
+            logging:
+              level: "INFO"
+            """;
+
+    @TempDir
+    Path dir;
+
+    Path file;
+    ConfigReloader reloader;
+    final List<List<String>> applied = new CopyOnWriteArrayList<>();
+    final CountDownLatch appliedLatch = new CountDownLatch(1);
+
+    @BeforeEach
+    void setup() throws IOException {
+        file = dir.resolve("config.yml");
+        write(5000, "secret", "COM3");
+        reloader = new ConfigReloader(file, AppConfig.load(file), (previous, current, changed) -> {
+            applied.add(changed);
+            appliedLatch.countDown();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        reloader.stop();
+    }
+
+    @Test
+    void shouldApplyOnlyHotChanges() throws IOException {
+        write(1000, "new-secret", "COM7");
+
+        List<String> changed = reloader.reload();
+
+        assertEquals(List.of("sms.pollIntervalMs", "api.password"), changed);
+        assertEquals(List.of(changed), applied);
+        assertEquals(1000, reloader.current().sms().pollIntervalMs());
+        assertEquals("COM7", reloader.current().sms().portName());
+    }
+
+    @Test
+    void shouldNotReportInactiveKeysAsApplied() throws IOException {
+        reloader.setInactive(key -> key.equals("api.password"));
+        write(1000, "new-secret", "COM3");
+
+        assertEquals(List.of("sms.pollIntervalMs"), reloader.reload());
+        assertEquals(List.of(List.of("sms.pollIntervalMs")), applied);
+
+        write(1000, "other-secret", "COM3");
+        assertTrue(reloader.reload().isEmpty());
+        assertEquals(1, applied.size());
+    }
+
+        @Test
+    void shouldIgnoreUnchangedAndInvalidFile() throws IOException {
+        assertTrue(reloader.reload().isEmpty());
+
+        Files.writeString(file, "sms: [broken");
+        assertTrue(reloader.reload().isEmpty());
+        assertEquals(5000, reloader.current().sms().pollIntervalMs());
+        assertTrue(applied.isEmpty());
+    }
+
+    @Test
+    void shouldReloadWhenFileChanges() throws Exception {
+        reloader.start();
+
+        write(2000, "secret", "COM3");
+
+        assertTrue(appliedLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("sms.pollIntervalMs")), applied);
+    }
+
+    private void write(long pollIntervalMs, String password, String port) throws IOException {
+        Files.writeString(file, YAML.formatted(pollIntervalMs, password).replace("COM3", port));
+    }
+}
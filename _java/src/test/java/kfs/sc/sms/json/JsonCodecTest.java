@@ -0,0 +1,96 @@
+package kfs.sc.sms.json;
+
+import kfs.sc.sms.utils.KfsSmsException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonCodecTest {
+
+    @Test
+    void shouldReadEscapedAndUnicodeStrings() {
+        JsonReader reader = new JsonReader("{\"text\":\"a \\\"quoted\\\" \\\\ \\u017elu\\u0165ou\\u010dk\\u00fd\\nline\",\"id\":\"1\"}");
+
+        reader.beginObject();
+        assertEquals("text", reader.nextName());
+        assertEquals("a \"quoted\" \\ žluťoučký\nline", reader.nextString());
+        assertEquals("id", reader.nextName());
+        assertEquals("1", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        assertEquals(JsonReader.Token.END, reader.peek());
+    }
+
+    @Test
+    void shouldSkipNestedValues() {
+        String json = """
+                {"skip":{"a":[1,2,{"b":null}],"c":true}, "arr":[ "x" , "y" ], "n": -12.5e3, "last":"ok"}
+                """;
+        JsonReader reader = new JsonReader(json);
+        List<String> arr = new ArrayList<>();
+        String last = null;
+        String n = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "arr" -> {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        arr.add(reader.nextString());
+                    }
+                    reader.endArray();
+                }
+                case "n" -> n = reader.nextString();
+                case "last" -> last = reader.nextString();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        assertEquals(List.of("x", "y"), arr);
+        assertEquals("-12.5e3", n);
+        assertEquals("ok", last);
+    }
+
+    @Test
+    void shouldFailOnUnterminatedString() {
+        JsonReader reader = new JsonReader("{\"id\":\"abc");
+        reader.beginObject();
+        reader.nextName();
+        assertThrows(KfsSmsException.class, reader::nextString);
+    }
+
+    @Test
+    void shouldWriteEscapedJson() {
+        JsonWriter writer = new JsonWriter();
+        writer.beginObject()
+                .field("numb", "+420123")
+                .field("text", "řádek \"1\"\n\tkonec\\\u0001")
+                .name("list").beginArray().value("a").value(2).endArray()
+                .field("none", null)
+                .endObject();
+
+        assertEquals("{\"numb\":\"+420123\",\"text\":\"řádek \\\"1\\\"\\n\\tkonec\\\\\\u0001\","
+                + "\"list\":[\"a\",2],\"none\":null}", writer.toString());
+    }
+
+    @Test
+    void shouldRoundTripThroughReader() {
+        String text = "Příliš \"žluťoučký\" kůň\r\n\\úpěl";
+        JsonWriter writer = new JsonWriter();
+        writer.beginObject().field("text", text).endObject();
+
+        JsonReader reader = new JsonReader(writer.buffer());
+        reader.beginObject();
+        reader.nextName();
+        assertEquals(text, reader.nextString());
+        reader.endObject();
+
+        writer.reset().beginObject().field("x", "y").endObject();
+        assertEquals("{\"x\":\"y\"}", writer.toString());
+    }
+}
@@ -0,0 +1,100 @@
+package kfs.sc.sms.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RestLogAppenderTest {
+
+    final LoggerContext context = new LoggerContext();
+    final List<String> batches = new CopyOnWriteArrayList<>();
+    RestLogAppender appender;
+
+    @AfterEach
+    void tearDown() {
+        if (appender != null) {
+            appender.stop(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    void shouldShipBatchWhenSizeReached() throws Exception {
+        CountDownLatch shipped = new CountDownLatch(1);
+        Logger logger = attach(text -> {
+            batches.add(text);
+            shipped.countDown();
+        }, 64, 3, Duration.ofMinutes(1));
+
+        logger.info("one");
+        logger.debug("filtered");
+        logger.warn("two {}", 2);
+        logger.error("three", new IllegalStateException("boom"));
+
+        assertTrue(shipped.await(5, TimeUnit.SECONDS));
+        String batch = batches.get(0);
+        assertEquals(3, batch.lines().count());
+        assertTrue(batch.contains("INFO [main] modem - one"));
+        assertTrue(batch.contains("two 2"));
+        assertTrue(batch.contains("java.lang.IllegalStateException: boom"));
+        assertFalse(batch.contains("filtered"));
+    }
+
+    @Test
+    void shouldShipRestOnTimerAndStop() {
+        Logger logger = attach(batches::add, 64, 100, Duration.ofMillis(50));
+
+        logger.info("a");
+        logger.info("b");
+        context.getLogger("kfs.sc.sms.service.SmsRestClient").warn("not shipped");
+        appender.stop(Duration.ofSeconds(2));
+
+        assertEquals("ab", String.join("", batches).lines()
+                .map(l -> l.substring(l.length() - 1)).reduce("", String::concat));
+        assertEquals(2, appender.getShipped());
+    }
+
+    @Test
+    void shouldDropInsteadOfBlockingWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Logger logger = attach(text -> {
+            try {
+                release.await(); // server "visí"
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batches.add(text);
+        }, 16, 1, Duration.ofMillis(10));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            logger.info("line {}", i);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        release.countDown();
+
+        assertTrue(elapsedMs < 2000, "append blocked for " + elapsedMs + " ms");
+        assertTrue(appender.getDropped() > 9_000);
+        assertTrue(appender.getPending() <= 16);
+    }
+
+    private Logger attach(java.util.function.Consumer<String> sender, int capacity, int batchSize, Duration flush) {
+        appender = new RestLogAppender(sender, capacity, batchSize, flush, Level.INFO);
+        appender.setContext(context);
+        appender.start();
+        Logger logger = context.getLogger("kfs.sc.sms.modem");
+        Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+        root.setLevel(Level.DEBUG);
+        root.addAppender(appender);
+        return logger;
+    }
+}
@@ -0,0 +1,113 @@
+package kfs.sc.sms.routing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplyAffinityTest {
+
+    private static final NumberNormalizer CZ = new NumberNormalizer("420", 9);
+    private static final long NOW = 1_760_000_000_000L;
+
+    @Test
+    void shouldRememberModemAcrossNumberFormats() {
+        ReplyAffinity affinity = new ReplyAffinity(CZ, List.of("main", "o2a"), 1000, Duration.ofDays(1));
+
+        affinity.record("+420 601 123 456", 1, NOW);
+
+        assertEquals(1, affinity.lookup("601123456", NOW));
+        assertEquals(1, affinity.lookup("00420601123456", NOW));
+        assertEquals(ReplyAffinity.NONE, affinity.lookup("601123457", NOW));
+        assertEquals(2, affinity.getHits());
+        assertEquals(1, affinity.getMisses());
+    }
+
+    @Test
+    void latestConversationShouldWin() {
+        ReplyAffinity affinity = new ReplyAffinity(CZ, List.of("main", "o2a"), 1000, Duration.ofDays(1));
+
+        affinity.record("601123456", 1, NOW);
+        affinity.record("601123456", 0, NOW + 1000);
+
+        assertEquals(0, affinity.lookup("601123456", NOW + 2000));
+        assertEquals(1, affinity.size());
+    }
+
+    @Test
+    void shouldExpireAfterTtl() {
+        ReplyAffinity affinity = new ReplyAffinity(CZ, List.of("main"), 1000, Duration.ofHours(1));
+
+        affinity.record("601123456", 0, NOW);
+
+        assertEquals(0, affinity.lookup("601123456", NOW + 3_600_000));
+        assertEquals(ReplyAffinity.NONE, affinity.lookup("601123456", NOW + 3_602_000));
+    }
+
+    @Test
+    void shouldStayWithinCapacityAndKeepRecentNumbers() {
+        ReplyAffinity affinity = new ReplyAffinity(CZ, List.of("main"), 64, Duration.ofDays(1));
+
+        for (int i = 0; i < 10_000; i++) {
+            affinity.record("601" + (100_000 + i), 0, NOW + i * 1000L);
+        }
+
+        assertEquals(64, affinity.capacity());
+        assertEquals(64, affinity.size());
+        // nejnovější číslo se vyřadí nejpozději ze své sady
+        assertEquals(0, affinity.lookup("601109999", NOW + 10_000_000));
+    }
+
+    @Test
+    void snapshotShouldMapModemsByName(@TempDir Path dir) {
+        Path file = dir.resolve("affinity.dat");
+        ReplyAffinity before = new ReplyAffinity(CZ, List.of("main", "o2a", "vf"), 1000, Duration.ofDays(1));
+        before.record("601123456", 1, NOW);
+        before.record("608123456", 2, NOW);
+        before.record("777123456", 0, NOW - 2 * 86_400_000L); // už prošlé
+        before.save(file, NOW);
+
+        ReplyAffinity after = new ReplyAffinity(CZ, List.of("vf", "o2a"), 1000, Duration.ofDays(1));
+        after.load(file, NOW + 1000);
+
+        assertEquals(1, after.lookup("601123456", NOW + 1000));
+        assertEquals(0, after.lookup("608123456", NOW + 1000));
+        assertEquals(ReplyAffinity.NONE, after.lookup("777123456", NOW + 1000));
+        assertEquals(2, after.size());
+    }
+
+    @Test
+    void missingSnapshotShouldStartEmpty(@TempDir Path dir) {
+        ReplyAffinity affinity = new ReplyAffinity(CZ, List.of("main"), 1000, Duration.ofDays(1));
+
+        affinity.load(dir.resolve("none.dat"), NOW);
+
+        assertEquals(0, affinity.size());
+    }
+
+    @Test
+    void recordAndLookupShouldNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ReplyAffinity affinity = new ReplyAffinity(CZ, List.of("main", "o2a"), 1024, Duration.ofDays(1));
+        String[] numbers = {"+420 601 123 456", "601123457", "00420608123456", "+491701234567"};
+        long sink = 0;
+        for (int i = 0; i < 50_000; i++) { // zahřátí (JIT)
+            affinity.record(numbers[i & 3], i & 1, NOW);
+            sink += affinity.lookup(numbers[(i + 1) & 3], NOW);
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 200_000; i++) {
+            affinity.record(numbers[i & 3], i & 1, NOW);
+            sink += affinity.lookup(numbers[(i + 1) & 3], NOW);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(sink > 0);
+        assertTrue(allocated < 10_000, "allocated " + allocated + " B for 200k record+lookup");
+    }
+}
@@ -0,0 +1,86 @@
+package kfs.sc.sms.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteTableTest {
+
+    private static final List<String> MODEMS = List.of("main", "o2a", "o2b", "vf");
+
+    @Test
+    void shouldNormalizeNumbers() {
+        NumberNormalizer n = new NumberNormalizer("420", 9);
+        assertEquals("420601123456", n.normalize("+420 601 123 456"));
+        assertEquals("420601123456", n.normalize("00420601123456"));
+        assertEquals("420601123456", n.normalize("601-123-456"));
+        assertEquals("420601123456", n.normalize("0601123456")); // národní prefix 0
+        assertEquals("491701234567", n.normalize("+49 (170) 1234567"));
+        assertEquals("491701234567", n.normalize("491701234567"));
+        assertEquals("", n.normalize("abc"));
+    }
+
+    @Test
+    void shouldUseLongestPrefixAndDefault() {
+        RouteTable table = table();
+
+        assertEquals(List.of("o2", "main"), groups(table, "+420 601 123 456"));
+        assertEquals(List.of("o2", "main"), groups(table, "601123456"));
+        assertEquals(List.of("vf"), groups(table, "00420 608 123 456")); // delší prefix 420608 vyhrává
+        assertEquals(List.of("main", "o2"), groups(table, "+420 777 123 456"));
+        assertEquals(List.of("main", "o2"), groups(table, "+49 170 1234567"));
+    }
+
+    @Test
+    void shouldRejectUnknownNames() {
+        assertThrows(IllegalArgumentException.class, () -> RouteTable.build("420", 9,
+                Map.of("o2", List.of("o2x")), Map.of(), List.of(), MODEMS));
+        assertThrows(IllegalArgumentException.class, () -> RouteTable.build("420", 9,
+                Map.of(), Map.of("+420601", List.of("nobody")), List.of(), MODEMS));
+        assertThrows(IllegalArgumentException.class, () -> RouteTable.build("420", 9,
+                Map.of(), Map.of("abc", List.of("main")), List.of(), MODEMS));
+    }
+
+    @Test
+    void defaultRouteShouldFallBackToAllModems() {
+        RouteTable table = RouteTable.build("420", 9, Map.of(), Map.of(), List.of(), MODEMS);
+        assertEquals(MODEMS, groups(table, "+420601123456"));
+    }
+
+    @Test
+    void lookupShouldNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RouteTable table = table();
+        String[] numbers = {"+420 601 123 456", "601123456", "00420608123456", "+491701234567"};
+        long sink = 0;
+        for (int i = 0; i < 50_000; i++) { // zahřátí (JIT)
+            sink += table.chain(numbers[i & 3]).length;
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 200_000; i++) {
+            sink += table.chain(numbers[i & 3]).length;
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(sink > 0);
+        assertTrue(allocated < 10_000, "allocated " + allocated + " B for 200k lookups");
+    }
+
+    static RouteTable table() {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        groups.put("o2", List.of("o2a", "o2b"));
+        Map<String, List<String>> routes = new LinkedHashMap<>();
+        routes.put("+420601", List.of("o2", "main"));
+        routes.put("+420608", List.of("vf"));
+        return RouteTable.build("420", 9, groups, routes, List.of("main", "o2"), MODEMS);
+    }
+
+    private static List<String> groups(RouteTable table, String number) {
+        return java.util.Arrays.stream(table.chain(number)).mapToObj(table::groupName).toList();
+    }
+}
@@ -0,0 +1,144 @@
+package kfs.sc.sms.routing;
+
+import kfs.sc.sms.model.SmsGateway;
+import kfs.sc.sms.utils.ModemCommandException;
+import kfs.sc.sms.utils.ModemException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RoutingSmsGatewayTest {
+
+    SmsGateway main;
+    SmsGateway o2a;
+    SmsGateway o2b;
+    SmsGateway vf;
+    RoutingSmsGateway routing;
+
+    @BeforeEach
+    void setup() {
+        main = modem();
+        o2a = modem();
+        o2b = modem();
+        vf = modem();
+        routing = new RoutingSmsGateway(List.of(
+                new RoutingSmsGateway.Modem("main", main, 0),
+                new RoutingSmsGateway.Modem("o2a", o2a, 2),
+                new RoutingSmsGateway.Modem("o2b", o2b, 0),
+                new RoutingSmsGateway.Modem("vf", vf, 0)),
+                RouteTableTest.table());
+    }
+
+    private static SmsGateway modem() {
+        SmsGateway gateway = mock(SmsGateway.class);
+        when(gateway.isNetworkAvailable()).thenReturn(true);
+        return gateway;
+    }
+
+    @Test
+    void shouldAlternateWithinGroup() throws Exception {
+        routing.sendSms("+420601000001", "a");
+        routing.sendSms("+420601000002", "b");
+
+        verify(o2a).sendSms("+420601000001", "a");
+        verify(o2b).sendSms("+420601000002", "b");
+        verify(main, never()).sendSms(anyString(), anyString());
+    }
+
+    @Test
+    void shouldSkipSaturatedModem() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            routing.sendSms("+42060100000" + i, "x");
+        }
+        verify(o2a, times(2)).sendSms(anyString(), anyString()); // limit 2 za minutu
+        verify(o2b, times(4)).sendSms(anyString(), anyString());
+        assertEquals(0, routing.getFallbacks());
+    }
+
+    @Test
+    void shouldFallBackToNextGroupWhenDown() throws Exception {
+        when(o2a.isNetworkAvailable()).thenReturn(false);
+        when(o2b.isNetworkAvailable()).thenReturn(false);
+
+        routing.sendSms("601000001", "a");
+
+        verify(main).sendSms("601000001", "a");
+        assertEquals(1, routing.getFallbacks());
+    }
+
+    @Test
+    void shouldFailWhenWholeChainIsDown() {
+        when(vf.isNetworkAvailable()).thenReturn(false);
+
+        assertThrows(ModemException.class, () -> routing.sendSms("+420608000001", "a"));
+        assertTrue(routing.isNetworkAvailable());
+    }
+
+    @Test
+    void reloadedTableShouldApplyToNextSend() throws Exception {
+        routing.setTable(RouteTable.build("420", 9, Map.of(), Map.of("+420601", List.of("vf")), List.of(),
+                List.of("main", "o2a", "o2b", "vf")));
+
+        routing.sendSms("+420601000001", "a");
+
+        verify(vf).sendSms("+420601000001", "a");
+    }
+
+    @Test
+    void failedSendShouldNotMoveToAnotherModem() throws Exception {
+        doThrow(new ModemException("+CMS ERROR: 500")).when(o2a).sendSms(anyString(), anyString());
+
+        assertThrows(ModemException.class, () -> routing.sendSms("+420601000001", "a"));
+
+        verify(o2b, never()).sendSms(anyString(), anyString());
+        assertEquals(1, routing.getModems().get(1).getFailed());
+    }
+
+    @Test
+    void replyShouldUseConversationModem() throws Exception {
+        ReplyAffinity affinity = new ReplyAffinity(routing.getTable().getNormalizer(),
+                List.of("main", "o2a", "o2b", "vf"), 1000, Duration.ofDays(1));
+        routing.setAffinity(affinity);
+        affinity.record("+420601000001", 3, System.currentTimeMillis()); // psal na vf
+
+        routing.sendSms("601000001", "a");
+        when(vf.isNetworkAvailable()).thenReturn(false);
+        routing.sendSms("601000001", "b");
+
+        verify(vf).sendSms("601000001", "a");
+        verify(o2a).sendSms("601000001", "b");
+        assertEquals(1, routing.getSticky());
+        assertEquals(1, routing.getStickyUnavailable());
+    }
+
+    @Test
+    void burstRefusalShouldStayWithTheModem() throws Exception {
+        doThrow(new ModemCommandException("ERROR")).when(o2a).setBurst(true);
+        doThrow(new ModemException("Modem not ready (RECONNECTING)")).when(o2b).setBurst(true);
+
+        routing.setBurst(true); // ostatní modemy burst vzaly, chyby dvou se nešíří
+
+        verify(main).setBurst(true);
+        verify(vf).setBurst(true);
+        assertTrue(routing.getModems().get(1).isBurstRefused());
+        assertFalse(routing.getModems().get(2).isBurstRefused());
+
+        routing.setBurst(true);
+        verify(o2a, times(1)).setBurst(true); // odmítnutí se pamatuje
+        verify(o2b, times(2)).setBurst(true); // nepřipravený se zkouší znovu
+    }
+
+    @Test
+    void burstShouldFailDefinitivelyOnlyWhenEveryModemRefused() throws Exception {
+        for (SmsGateway gateway : List.of(main, o2a, o2b, vf)) {
+            doThrow(new ModemCommandException("+CME ERROR: 4")).when(gateway).setBurst(true);
+        }
+        assertThrows(ModemCommandException.class, () -> routing.setBurst(true));
+    }
+}
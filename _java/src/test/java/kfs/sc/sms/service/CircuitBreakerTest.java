@@ -0,0 +1,91 @@
+package kfs.sc.sms.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    final AtomicLong now = new AtomicLong();
+    final CircuitBreaker breaker = new CircuitBreaker(3, Duration.ofSeconds(10), now::get);
+
+    @Test
+    void shouldOpenAfterConsecutiveFailures() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(Duration.ofSeconds(10), breaker.remainingOpen());
+    }
+
+    @Test
+    void shouldLetSingleTrialThroughWhenHalfOpen() {
+        List<CircuitBreaker.State> seen = new ArrayList<>();
+        breaker.addListener(seen::add);
+        open();
+
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertEquals(List.of(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN,
+                CircuitBreaker.State.CLOSED), seen);
+    }
+
+    @Test
+    void shouldStopRejectingWhenOpenPeriodEndsWithoutAnyCall() {
+        open();
+        assertTrue(breaker.isRejecting());
+
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertFalse(breaker.isRejecting()); // stav je pořád OPEN, přechod až při allowRequest
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.isRejecting()); // zkušební volání běží
+        breaker.onSuccess();
+        assertFalse(breaker.isRejecting());
+    }
+
+    @Test
+    void failedTrialShouldReopen() {
+        open();
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void unreportedTrialShouldExpire() {
+        open();
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertTrue(breaker.allowRequest());
+
+        now.addAndGet(Duration.ofSeconds(10).toNanos());
+        assertTrue(breaker.allowRequest());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+    }
+}
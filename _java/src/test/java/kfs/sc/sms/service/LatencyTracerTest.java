@@ -0,0 +1,103 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.MessageTrace;
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.model.SmsStatus;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.OffsetDateTime;
+
+import static kfs.sc.sms.service.LatencyTracer.Direction.INBOUND;
+import static kfs.sc.sms.service.LatencyTracer.Direction.OUTBOUND;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyTracerTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    void histogramBucketsShouldCoverTheirValues() {
+        for (long micros : new long[]{0, 1, 7, 8, 15, 16, 17, 100, 1_000, 65_535, 3_600_000_000L}) {
+            int bucket = LatencyTracer.Histogram.bucket(micros);
+            long upper = LatencyTracer.Histogram.upperMicros(bucket);
+            assertTrue(upper >= micros, micros + " above its bucket bound " + upper);
+            assertTrue(upper <= micros * 1.125 + 1, micros + " bucket bound too coarse: " + upper);
+            if (bucket > 0) {
+                assertTrue(LatencyTracer.Histogram.upperMicros(bucket - 1) < micros);
+            }
+        }
+    }
+
+    @Test
+    void shouldSplitInboundLatencyIntoStages() {
+        LatencyTracer tracer = new LatencyTracer(0);
+        for (int i = 0; i < 100; i++) {
+            SmsMessage msg = new SmsMessage(1, SmsStatus.REC_UNREAD, "+420111111111",
+                    OffsetDateTime.now().minusSeconds(2), "Ahoj");
+            MessageTrace t = msg.trace();
+            long base = 1_000 * MS;
+            t.stamp(MessageTrace.Stage.LISTED, base);
+            t.stamp(MessageTrace.Stage.ENQUEUED, base + MS);
+            t.stamp(MessageTrace.Stage.DEQUEUED, base + (i < 99 ? 10 : 500) * MS); // jedna zpráva čekala ve frontě
+            t.stamp(MessageTrace.Stage.ATTEMPT, base + 501 * MS);
+            t.stamp(MessageTrace.Stage.ATTEMPT, base + 1_501 * MS);
+            t.stamp(MessageTrace.Stage.ACKED, base + 1_521 * MS);
+            tracer.completed(msg);
+            assertEquals(2, t.getAttempts());
+        }
+
+        assertEquals(100, tracer.count(INBOUND, LatencyTracer.Span.QUEUE));
+        assertEquals(9, tracer.percentileMs(INBOUND, LatencyTracer.Span.QUEUE, 0.5), 1.2);
+        assertEquals(499, tracer.percentileMs(INBOUND, LatencyTracer.Span.QUEUE, 0.999), 62);
+        assertEquals(1_000, tracer.percentileMs(INBOUND, LatencyTracer.Span.RETRY, 0.5), 125);
+        assertEquals(20, tracer.percentileMs(INBOUND, LatencyTracer.Span.SEND, 0.5), 2.5);
+        assertEquals(2_000, tracer.percentileMs(INBOUND, LatencyTracer.Span.SIM, 0.5), 300);
+        assertEquals(0, tracer.count(OUTBOUND, LatencyTracer.Span.TOTAL));
+        assertEquals(0, tracer.getSlowCount());
+    }
+
+    @Test
+    void shouldCountSlowMessagesButLogOnlySamples() {
+        LatencyTracer tracer = new LatencyTracer(100);
+        for (int i = 0; i < 5; i++) {
+            SmsRestClient.OutgoingSms sms = new SmsRestClient.OutgoingSms("id" + i, "+420111111111", "Text");
+            sms.trace().stamp(MessageTrace.Stage.LISTED, 1_000 * MS);
+            sms.trace().stamp(MessageTrace.Stage.ATTEMPT, 1_100 * MS);
+            sms.trace().stamp(MessageTrace.Stage.ACKED, 1_000 * MS + (i % 2 == 0 ? 5_000 : 50) * MS);
+            tracer.completed(sms);
+        }
+        assertEquals(3, tracer.getSlowCount());
+        assertEquals(5, tracer.count(OUTBOUND, LatencyTracer.Span.TOTAL));
+        // bez fronty ve směru ven se QUEUE nezaznamená
+        assertEquals(0, tracer.count(OUTBOUND, LatencyTracer.Span.QUEUE));
+    }
+
+    @Test
+    void stampingAndRecordingShouldNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LatencyTracer tracer = new LatencyTracer(0);
+        SmsRestClient.OutgoingSms sms = new SmsRestClient.OutgoingSms("1", "+420111111111", "Text");
+        MessageTrace t = sms.trace();
+        for (int i = 0; i < 20_000; i++) { // zahřátí (JIT)
+            stampAll(t);
+            tracer.completed(sms);
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            stampAll(t);
+            tracer.completed(sms);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated < 100_000, "allocated " + allocated + " B for 100k traced messages");
+    }
+
+    private static void stampAll(MessageTrace t) {
+        for (MessageTrace.Stage stage : STAGES) {
+            t.stamp(stage);
+        }
+    }
+
+    private static final MessageTrace.Stage[] STAGES = MessageTrace.Stage.values();
+}
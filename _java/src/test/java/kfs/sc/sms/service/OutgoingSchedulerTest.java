@@ -0,0 +1,86 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.MessageTrace;
+import kfs.sc.sms.model.SmsPriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutgoingSchedulerTest {
+
+    private static final long MS = 1_000_000;
+    private static final long T0 = 1_000_000 * MS;
+
+    @Test
+    void shouldTakeHigherClassFirstAndKeepFifoWithinClass() {
+        OutgoingScheduler scheduler = new OutgoingScheduler(100, 0);
+        scheduler.offer(sms("b1", SmsPriority.BULK, T0));
+        scheduler.offer(sms("n1", SmsPriority.NORMAL, T0));
+        scheduler.offer(sms("b2", SmsPriority.BULK, T0));
+        scheduler.offer(sms("o1", SmsPriority.OTP, T0));
+        scheduler.offer(sms("o2", SmsPriority.OTP, T0));
+
+        assertEquals(List.of("o1", "o2", "n1", "b1", "b2"), takeAll(scheduler, T0 + 10_000 * MS));
+        assertTrue(scheduler.isEmpty());
+    }
+
+    @Test
+    void agedBulkShouldOvertakeNormalButNotOtp() {
+        OutgoingScheduler scheduler = new OutgoingScheduler(100, 1_000);
+        scheduler.offer(sms("bulk", SmsPriority.BULK, T0));
+        scheduler.offer(sms("normal", SmsPriority.NORMAL, T0 + 2_400 * MS));
+        scheduler.offer(sms("otp", SmsPriority.OTP, T0 + 2_400 * MS));
+
+        // bulk čeká 2,5 s = o dvě úrovně výš, remíza s OTP → OTP
+        assertEquals(List.of("otp", "bulk", "normal"), takeAll(scheduler, T0 + 2_500 * MS));
+    }
+
+    @Test
+    void shouldDropExpiredBeforeSending() {
+        OutgoingScheduler scheduler = new OutgoingScheduler(100, 0);
+        long now = System.currentTimeMillis();
+        scheduler.offer(new SmsRestClient.OutgoingSms("old", "+420111111111", "kod 1234", SmsPriority.OTP, now - 1));
+        scheduler.offer(new SmsRestClient.OutgoingSms("new", "+420111111111", "kod 5678", SmsPriority.OTP, now + 60_000));
+
+        List<String> expired = new ArrayList<>();
+        SmsRestClient.OutgoingSms next = scheduler.next(System.nanoTime(), now, s -> expired.add(s.id()));
+
+        assertEquals("new", next.id());
+        assertEquals(List.of("old"), expired);
+        assertNull(scheduler.next(System.nanoTime(), now, s -> fail("nothing left to expire")));
+    }
+
+    @Test
+    void shouldRejectDuplicatesAndReportSoftCapacity() {
+        OutgoingScheduler scheduler = new OutgoingScheduler(2, 0);
+        assertTrue(scheduler.offer(sms("1", SmsPriority.NORMAL, T0)));
+        assertFalse(scheduler.offer(sms("1", SmsPriority.BULK, T0)));
+        assertFalse(scheduler.isFull());
+        assertTrue(scheduler.offer(sms("2", SmsPriority.BULK, T0)));
+        assertTrue(scheduler.offer(sms("3", SmsPriority.BULK, T0))); // dávka ze serveru se vždy přijme
+        assertTrue(scheduler.isFull());
+        assertEquals(2, scheduler.size(SmsPriority.BULK));
+
+        assertEquals(3, scheduler.drain().size());
+        assertEquals(0, scheduler.size());
+        assertTrue(scheduler.offer(sms("1", SmsPriority.NORMAL, T0)));
+    }
+
+    private static SmsRestClient.OutgoingSms sms(String id, SmsPriority priority, long listedNanos) {
+        SmsRestClient.OutgoingSms sms = new SmsRestClient.OutgoingSms(id, "+420111111111", "Zprava " + id, priority, 0);
+        sms.trace().stamp(MessageTrace.Stage.LISTED, listedNanos);
+        return sms;
+    }
+
+    private static List<String> takeAll(OutgoingScheduler scheduler, long nowNanos) {
+        List<String> ids = new ArrayList<>();
+        SmsRestClient.OutgoingSms sms;
+        while ((sms = scheduler.next(nowNanos, System.currentTimeMillis(), s -> fail("unexpected expiry"))) != null) {
+            ids.add(sms.id());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,244 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.SmsGateway;
+import kfs.sc.sms.model.SmsPriority;
+import kfs.sc.sms.utils.ModemCommandException;
+import kfs.sc.sms.utils.KfsSmsException;
+import kfs.sc.sms.utils.ModemException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class OutgoingSmsServiceTest {
+
+    @TempDir
+    Path dir;
+
+    SmsGateway gateway;
+    SmsRestClient client;
+    OutgoingSmsService service;
+
+    @BeforeEach
+    void setup() {
+        gateway = mock(SmsGateway.class);
+        client = mock(SmsRestClient.class);
+        when(gateway.isNetworkAvailable()).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.stop();
+        }
+    }
+
+    @Test
+    void shouldHoldLinkWhileBacklogLasts() throws Exception {
+        when(client.pollOutgoingBatch()).thenReturn(
+                List.of(sms("1"), sms("2"), sms("3")),
+                List.of(sms("4"), sms("5")),
+                List.of());
+
+        service = new OutgoingSmsService(gateway, client, 60_000, true);
+        service.start();
+
+        verify(gateway, timeout(2000)).setBurst(false);
+        InOrder order = inOrder(gateway);
+        order.verify(gateway).setBurst(true);
+        order.verify(gateway, times(5)).sendSms(anyString(), anyString());
+        order.verify(gateway).setBurst(false);
+        // backlog dočerpán hned, ne po intervalu, a po vyprázdnění ještě jeden dotaz
+        verify(client, times(4)).pollOutgoingBatch();
+        verify(client, times(5)).confirmSent(anyString());
+        assertEquals(5, service.getBurstLatency().count());
+        assertEquals(0, service.getSingleLatency().count());
+    }
+
+    @Test
+    void shouldSendSingleMessageWithoutBurst() throws Exception {
+        when(client.pollOutgoingBatch()).thenReturn(List.of(sms("1")), List.of());
+
+        service = new OutgoingSmsService(gateway, client, 60_000, true);
+        service.start();
+
+        verify(client, timeout(2000)).confirmSent("1");
+        verify(gateway, never()).setBurst(anyBoolean());
+        assertEquals(1, service.getSingleLatency().count());
+    }
+
+    @Test
+    void shouldRefetchWhenSchedulerRunsEmpty() throws Exception {
+        // "2" přijde na server až během odesílání "1"
+        when(client.pollOutgoingBatch()).thenReturn(List.of(sms("1")), List.of(), List.of(sms("2")), List.of());
+
+        service = new OutgoingSmsService(gateway, client, 60_000, false);
+        service.start();
+
+        verify(client, timeout(2000)).confirmSent("2"); // v tomtéž cyklu, ne po intervalu
+        // [1], [] / po vyprázdnění [2], [] / po vyprázdnění [] → konec
+        verify(client, timeout(2000).times(5)).pollOutgoingBatch();
+    }
+
+    @Test
+    void shouldStartSendingWhileServerKeepsFilling() throws Exception {
+        // každý dotaz vrátí jednu novou SMS, server se nikdy nevyprázdní
+        AtomicInteger next = new AtomicInteger();
+        when(client.pollOutgoingBatch()).thenAnswer(inv -> {
+            Thread.sleep(10);
+            return List.of(sms(Integer.toString(next.getAndIncrement())));
+        });
+
+        service = new OutgoingSmsService(gateway, client, 100, false);
+        service.start();
+
+        // bez omezení by fetch čerpal až do kapacity fronty (500 × 10 ms)
+        verify(client, timeout(1000)).confirmSent("0");
+    }
+
+    @Test
+    void shouldReportEveryUnsentSmsAtStopWhenServerFails() throws Exception {
+        stopDuringFirstSend(null);
+        doThrow(new KfsSmsException("server down")).when(client).reportFail(anyString(), anyString());
+
+        assertDoesNotThrow(() -> service.stop());
+
+        // první chyba smyčku nepřeruší
+        verify(client).reportFail(eq("2"), anyString());
+        verify(client).reportFail(eq("3"), anyString());
+        assertEquals(0, service.getQueued(SmsPriority.NORMAL));
+    }
+
+    @Test
+    void shouldResumeUnsentSmsAfterRestart() throws Exception {
+        OutgoingHandoffStore store = new OutgoingHandoffStore(dir.resolve("handoff-out.dat"));
+        stopDuringFirstSend(store);
+        doThrow(new KfsSmsException("server down")).when(client).reportFail(anyString(), anyString());
+
+        service.stop();
+        verify(client, never()).reportFail(anyString(), anyString());
+
+        // nový proces: SMS ze souboru jdou na modem dřív, než se zeptá serveru
+        SmsGateway next = mock(SmsGateway.class);
+        when(next.isNetworkAvailable()).thenReturn(true);
+        reset(client);
+        when(client.pollOutgoingBatch()).thenReturn(List.of());
+        service = new OutgoingSmsService(next, client, 60_000, false);
+        service.setHandoffStore(store);
+        service.start();
+
+        verify(client, timeout(2000)).confirmSent("3");
+        verify(next).sendSms("+420111111111", "Zprava 2");
+        assertTrue(store.loadAndClear().isEmpty(), "file is removed after load");
+    }
+
+    private void stopDuringFirstSend(OutgoingHandoffStore store) throws Exception {
+        when(client.pollOutgoingBatch()).thenReturn(List.of(sms("1"), sms("2"), sms("3")), List.of());
+        doAnswer(inv -> {
+            Thread.sleep(300);
+            return null;
+        }).when(gateway).sendSms(anyString(), anyString());
+
+        service = new OutgoingSmsService(gateway, client, 60_000, false);
+        service.setHandoffStore(store);
+        service.start();
+        verify(gateway, timeout(2000)).sendSms(anyString(), anyString());
+    }
+
+    @Test
+    void shouldDisableBurstWhenModemRejectsIt() throws Exception {
+        when(client.pollOutgoingBatch()).thenReturn(List.of(sms("1"), sms("2")), List.of());
+        doThrow(new ModemCommandException("ERROR")).when(gateway).setBurst(true);
+
+        service = new OutgoingSmsService(gateway, client, 60_000, true);
+        service.start();
+
+        verify(client, timeout(2000)).confirmSent("2");
+        assertFalse(service.isBurstEnabled());
+        verify(gateway, never()).setBurst(false);
+        assertEquals(2, service.getSingleLatency().count());
+    }
+
+    @Test
+    void shouldKeepBurstWhenModemIsOnlyUnavailable() throws Exception {
+        when(client.pollOutgoingBatch()).thenReturn(List.of(sms("1"), sms("2")), List.of());
+        doThrow(new ModemException("Timeout waiting for: OK. Got: ")).when(gateway).setBurst(true);
+
+        service = new OutgoingSmsService(gateway, client, 60_000, true);
+        service.start();
+
+        verify(client, timeout(2000)).confirmSent("2");
+        assertTrue(service.isBurstEnabled()); // timeout není odmítnutí, příští dávka to zkusí znovu
+        assertEquals(2, service.getSingleLatency().count());
+    }
+
+    @Test
+    void otpShouldOvertakeQueuedBulk() throws Exception {
+        List<SmsRestClient.OutgoingSms> bulk = List.of(
+                bulk("b1"), bulk("b2"), bulk("b3"), bulk("b4"), bulk("b5"));
+        when(client.pollOutgoingBatch()).thenReturn(bulk, List.of(),
+                List.of(new SmsRestClient.OutgoingSms("otp", "+420999999999", "Kod 1234", SmsPriority.OTP, 0)),
+                List.of());
+        doAnswer(inv -> {
+            Thread.sleep(30); // odeslání trvá déle než interval → mezi SMS se znovu ptá serveru
+            return null;
+        }).when(gateway).sendSms(anyString(), anyString());
+
+        service = new OutgoingSmsService(gateway, client, 10, false);
+        service.start();
+
+        verify(client, timeout(3000).times(6)).confirmSent(anyString());
+        InOrder order = inOrder(gateway);
+        order.verify(gateway).sendSms(eq("+420100000000"), anyString());
+        order.verify(gateway).sendSms(eq("+420999999999"), anyString());
+        order.verify(gateway, times(4)).sendSms(eq("+420100000000"), anyString());
+    }
+
+    @Test
+    void shouldReportExpiredInsteadOfSending() throws Exception {
+        long now = System.currentTimeMillis();
+        when(client.pollOutgoingBatch()).thenReturn(List.of(
+                new SmsRestClient.OutgoingSms("late", "+420111111111", "Kod 1", SmsPriority.OTP, now - 1_000),
+                new SmsRestClient.OutgoingSms("ok", "+420111111111", "Kod 2", SmsPriority.OTP, now + 60_000)),
+                List.of());
+
+        service = new OutgoingSmsService(gateway, client, 60_000, false);
+        service.start();
+
+        verify(client, timeout(2000)).confirmSent("ok");
+        verify(client).reportFail("late", "expired");
+        verify(gateway, times(1)).sendSms(anyString(), anyString());
+    }
+
+    private static SmsRestClient.OutgoingSms bulk(String id) {
+        return new SmsRestClient.OutgoingSms(id, "+420100000000", "Akce " + id, SmsPriority.BULK, 0);
+    }
+
+    private static SmsRestClient.OutgoingSms sms(String id) {
+        return new SmsRestClient.OutgoingSms(id, "+420111111111", "Zprava " + id);
+    }
+
+    @Test
+    void shouldDeferWhileNetworkIsLost() throws Exception {
+        when(gateway.isNetworkAvailable()).thenReturn(false);
+        when(client.pollOutgoingBatch()).thenReturn(List.of(sms("1")), List.of());
+
+        service = new OutgoingSmsService(gateway, client, 50, true);
+        service.start();
+        Thread.sleep(200);
+
+        verify(client, never()).pollOutgoingBatch(); // SMS zůstanou na serveru
+        verify(client, never()).reportFail(anyString(), anyString());
+
+        when(gateway.isNetworkAvailable()).thenReturn(true);
+        verify(client, timeout(2000)).confirmSent("1");
+    }
+}
@@ -0,0 +1,98 @@
+package kfs.sc.sms.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferQueueTest {
+
+    @Test
+    void shouldKeepFifoAndRejectWhenFull() {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(4, RingBufferQueue.WaitStrategy.BLOCKING);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(99));
+        assertEquals(4, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals(0, queue.peek());
+
+        assertEquals(0, queue.poll());
+        assertTrue(queue.offer(4)); // přes hranici ringu
+        List<Integer> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        assertEquals(List.of(1, 2, 3, 4), rest);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void shouldRoundCapacityToPowerOfTwo() {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(1000, RingBufferQueue.WaitStrategy.PARKING);
+        assertEquals(1024, queue.remainingCapacity());
+    }
+
+    @Test
+    void shouldTimeOutOnEmptyAndFull() throws Exception {
+        for (RingBufferQueue.WaitStrategy strategy : RingBufferQueue.WaitStrategy.values()) {
+            RingBufferQueue<Integer> queue = new RingBufferQueue<>(2, strategy);
+            assertNull(queue.poll(20, TimeUnit.MILLISECONDS), strategy.name());
+            queue.put(1);
+            queue.put(2);
+            assertFalse(queue.offer(3, 20, TimeUnit.MILLISECONDS), strategy.name());
+        }
+    }
+
+    @Test
+    void shouldDeliverEveryItemExactlyOnceToManyConsumers() throws Exception {
+        for (RingBufferQueue.WaitStrategy strategy : RingBufferQueue.WaitStrategy.values()) {
+            RingBufferQueue<Integer> queue = new RingBufferQueue<>(16, strategy);
+            int total = 20_000;
+            List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(total);
+            List<Thread> consumers = new ArrayList<>();
+            for (int c = 0; c < 3; c++) {
+                Thread t = new Thread(() -> {
+                    try {
+                        while (true) {
+                            received.add(queue.take());
+                            done.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        // konec testu
+                    }
+                });
+                t.start();
+                consumers.add(t);
+            }
+
+            for (int i = 0; i < total; i++) {
+                queue.put(i); // plný ring blokuje producenta
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS), strategy.name());
+            consumers.forEach(Thread::interrupt);
+
+            assertEquals(total, received.size());
+            assertEquals(total, received.stream().distinct().count());
+        }
+    }
+
+    @Test
+    void shouldWakeBlockedConsumer() throws Exception {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(8, RingBufferQueue.WaitStrategy.BLOCKING);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                queue.put(7);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        producer.start();
+        assertEquals(7, queue.poll(5, TimeUnit.SECONDS));
+    }
+}
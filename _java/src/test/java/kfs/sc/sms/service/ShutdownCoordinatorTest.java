@@ -0,0 +1,156 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.SmsGateway;
+import kfs.sc.sms.model.SmsMessage;
+import kfs.sc.sms.model.SmsStatus;
+import kfs.sc.sms.utils.KfsSmsException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ShutdownCoordinatorTest {
+
+    @TempDir
+    Path dir;
+
+    SmsGateway gateway;
+    SmsRestClient client;
+    BlockingQueue<SmsMessage> queue;
+    HandoffStore store;
+
+    @BeforeEach
+    void setup() throws Exception {
+        gateway = mock(SmsGateway.class);
+        when(gateway.readAll()).thenReturn(List.of());
+        client = mock(SmsRestClient.class);
+        queue = new ArrayBlockingQueue<>(100);
+        store = new HandoffStore(dir.resolve("handoff.dat"));
+    }
+
+    @Test
+    void shouldRoundTripHandoffFile() {
+        SmsMessage full = new SmsMessage(3, SmsStatus.REC_UNREAD, "+420111111111",
+                OffsetDateTime.parse("2024-02-12T09:41:22+04:00"), "Příliš žluťoučký kůň\nřádek 2");
+        SmsMessage sparse = new SmsMessage(-1, null, "+420222222222", null, "");
+
+        store.save(List.of(full, sparse));
+        List<SmsMessage> loaded = store.loadAndClear();
+
+        assertEquals(List.of(full, sparse), loaded);
+        assertTrue(store.loadAndClear().isEmpty(), "file is removed after load");
+    }
+
+    @Test
+    void shouldSetAsideUnreadableHandoffFile() throws Exception {
+        SmsMessage msg = new SmsMessage(1, SmsStatus.REC_UNREAD, "+420111111111", null, "text");
+        store.save(List.of(msg, msg));
+        Path file = dir.resolve("handoff.dat");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3)); // useknutý zápis
+
+        assertTrue(store.loadAndClear().isEmpty());
+        assertFalse(Files.exists(file));
+        assertTrue(Files.exists(dir.resolve("handoff.dat.bad")));
+
+        Files.write(file, new byte[]{0x4b, 0x46, 0x53, 0x48, 0, 0, 0, 99}); // budoucí VERSION
+        assertTrue(store.loadAndClear().isEmpty());
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void shouldHandOffMessagesNotDeliveredBeforeDeadline() throws Exception {
+        doThrow(new KfsSmsException("server down")).when(client).reportIncoming(any(), any(), any());
+
+        SmsDispatchService dispatch = new SmsDispatchService(queue, client, 3, 10_000);
+        SmsPollingService polling = new SmsPollingService(gateway, Duration.ofMillis(50), queue, 1, 10);
+        OutgoingSmsService outgoing = new OutgoingSmsService(gateway, client, 50);
+
+        for (int i = 1; i <= 5; i++) {
+            queue.put(new SmsMessage(i, SmsStatus.REC_UNREAD, "+42000000000" + i, null, "msg " + i));
+        }
+        dispatch.start();
+        polling.start();
+        outgoing.start();
+        Thread.sleep(100);
+
+        long start = System.currentTimeMillis();
+        new ShutdownCoordinator(polling, outgoing, dispatch, gateway, store, Duration.ofSeconds(2)).shutdown();
+
+        assertTrue(System.currentTimeMillis() - start < 4000, "global deadline respected");
+        List<SmsMessage> handedOff = store.loadAndClear();
+        assertEquals(5, handedOff.size());
+        assertEquals(1, handedOff.get(0).index());
+        verify(gateway).close();
+    }
+
+    @Test
+    void shouldHandOffEvenWhenOutgoingStopFails() throws Exception {
+        doThrow(new KfsSmsException("server down")).when(client).reportIncoming(any(), any(), any());
+        OutgoingSmsService outgoing = mock(OutgoingSmsService.class);
+        doThrow(new KfsSmsException("server down")).when(outgoing).stop(any());
+
+        SmsDispatchService dispatch = new SmsDispatchService(queue, client, 3, 10_000);
+        SmsPollingService polling = new SmsPollingService(gateway, Duration.ofMillis(50), queue, 1, 10);
+        for (int i = 1; i <= 3; i++) {
+            queue.put(new SmsMessage(i, SmsStatus.REC_UNREAD, "+42000000000" + i, null, "msg " + i));
+        }
+        dispatch.start();
+        polling.start();
+
+        new ShutdownCoordinator(polling, outgoing, dispatch, gateway, store, Duration.ofSeconds(1)).shutdown();
+
+        assertEquals(3, store.loadAndClear().size());
+        verify(gateway).close();
+    }
+
+    @Test
+    void shouldHandOffSmsAcknowledgedAfterLastPoll() throws Exception {
+        SmsMessage late = new SmsMessage(-1, SmsStatus.REC_UNREAD, "+420111111111", null, "during send");
+        SmsDispatchService dispatch = new SmsDispatchService(queue, client, 1, 10);
+        SmsPollingService polling = new SmsPollingService(gateway, Duration.ofMillis(50), queue, 1, 10);
+        OutgoingSmsService outgoing = new OutgoingSmsService(gateway, client, 50);
+        when(gateway.drainReceived()).thenReturn(List.of(late));
+        dispatch.start();
+        polling.start();
+        outgoing.start();
+
+        new ShutdownCoordinator(polling, outgoing, dispatch, gateway, store, Duration.ofSeconds(2)).shutdown();
+
+        assertEquals(List.of(late), store.loadAndClear());
+        InOrder order = inOrder(gateway);
+        order.verify(gateway).drainReceived();
+        order.verify(gateway).close();
+    }
+
+    @Test
+    void shouldDrainQueueBeforeExit() throws Exception {
+        SmsDispatchService dispatch = new SmsDispatchService(queue, client, 1, 10);
+        SmsPollingService polling = new SmsPollingService(gateway, Duration.ofMillis(50), queue, 1, 10);
+        OutgoingSmsService outgoing = new OutgoingSmsService(gateway, client, 50);
+
+        for (int i = 1; i <= 20; i++) {
+            queue.put(new SmsMessage(i, SmsStatus.REC_UNREAD, "+420111111111", null, "msg " + i));
+        }
+        dispatch.start();
+        polling.start();
+        outgoing.start();
+
+        new ShutdownCoordinator(polling, outgoing, dispatch, gateway, store, Duration.ofSeconds(5)).shutdown();
+
+        verify(client, times(20)).reportIncoming(any(), any(), any());
+        assertTrue(store.loadAndClear().isEmpty());
+    }
+}
@@ -0,0 +1,168 @@
+package kfs.sc.sms.service;
+
+import com.sun.net.httpserver.HttpServer;
+import kfs.sc.sms.model.SmsMessage;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SmsDispatchServiceTest {
+
+    static final int SENDERS = 8;
+    static final int PER_SENDER = 6;
+
+    final BlockingQueue<SmsMessage> queue = new ArrayBlockingQueue<>(100);
+    final Map<String, List<String>> delivered = new ConcurrentHashMap<>();
+    final AtomicInteger concurrent = new AtomicInteger();
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(SENDERS * PER_SENDER);
+    final SmsRestClient client = mock(SmsRestClient.class);
+
+    SmsDispatchServiceTest() {
+        doAnswer(inv -> {
+            int now = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(now, Math::max);
+            Thread.sleep(20); // REST round-trip
+            delivered.computeIfAbsent(inv.getArgument(0), k -> new ArrayList<>()).add(inv.getArgument(1));
+            concurrent.decrementAndGet();
+            done.countDown();
+            return null;
+        }).when(client).reportIncoming(anyString(), anyString(), any());
+    }
+
+    @Test
+    void shouldKeepPerSenderOrderWithParallelWorkers() throws Exception {
+        SmsDispatchService dispatch = new SmsDispatchService(queue, client, 0, 10, 4, 10);
+        fill();
+
+        long start = System.nanoTime();
+        dispatch.start();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        dispatch.stop(Duration.ofSeconds(2));
+
+        assertOrdered();
+        assertTrue(maxConcurrent.get() > 1, "max concurrent " + maxConcurrent.get());
+        // sekvenčně 48 × 20 ms ≈ 960 ms
+        assertTrue(elapsedMs < 900, "elapsed " + elapsedMs + " ms");
+    }
+
+    @Test
+    void shouldResizeWorkersWithoutBreakingOrder() throws Exception {
+        SmsDispatchService dispatch = new SmsDispatchService(queue, client, 0, 10, 1, 2);
+        fill();
+        dispatch.start();
+        dispatch.setWorkers(3);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(3, dispatch.getWorkers());
+        dispatch.stop(Duration.ofSeconds(2));
+
+        assertOrdered();
+    }
+
+    /**
+     * Outgoing is paused (modem down), so only dispatch talks to the server: after the breaker opens the
+     * parked worker must notice the open period ending by itself.
+     */
+    @Test
+    void shouldDeliverAfterServerRecoversWithOutgoingPaused() throws Exception {
+        List<String> received = new java.util.concurrent.CopyOnWriteArrayList<>();
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/sms/i", ex -> {
+            String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            boolean fail = requests.incrementAndGet() <= 2; // první pokus a první trial
+            if (!fail) {
+                received.add(body);
+            }
+            ex.sendResponseHeaders(fail ? 503 : 200, -1);
+            ex.close();
+        });
+        server.start();
+        try {
+            SmsRestClient rest = new SmsRestClient("http://127.0.0.1:" + server.getAddress().getPort(), "u", "p",
+                    SmsRestClient.WireMode.FORM, 512, SmsRestClient.Timeouts.DEFAULT,
+                    new CircuitBreaker(1, Duration.ofMillis(300)));
+            // první selhání + nejvýš jeden neúspěšný trial
+            SmsDispatchService dispatch = new SmsDispatchService(queue, rest, 2, 50, 1, 10);
+            for (int s = 0; s < SENDERS; s++) {
+                queue.add(new SmsMessage(s, null, "+42077700000" + s, null, "x" + s));
+            }
+
+            dispatch.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (received.size() < SENDERS && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            dispatch.stop(Duration.ofSeconds(2));
+
+            assertEquals(SENDERS, received.size(), "delivered " + received);
+            assertEquals(CircuitBreaker.State.CLOSED, rest.getCircuitBreaker().getState());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void callRefusedDuringTrialShouldNotCountAsAttempt() throws Exception {
+        SmsRestClient rest = mock(SmsRestClient.class);
+        when(rest.getCircuitBreaker()).thenReturn(new CircuitBreaker(1, Duration.ofMillis(10)));
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch delivered = new CountDownLatch(1);
+        doAnswer(inv -> {
+            if (calls.incrementAndGet() <= 3) {
+                throw new kfs.sc.sms.utils.CircuitOpenException("POST /sms/i rejected, REST circuit HALF_OPEN");
+            }
+            delivered.countDown();
+            return null;
+        }).when(rest).reportIncoming(anyString(), anyString(), any());
+        SmsDispatchService dispatch = new SmsDispatchService(queue, rest, 0, 10, 1, 10);
+        queue.add(new SmsMessage(1, null, "+420777000001", null, "x"));
+
+        dispatch.start();
+        assertTrue(delivered.await(5, TimeUnit.SECONDS), "dropped after " + calls.get() + " calls");
+        dispatch.stop(Duration.ofSeconds(2));
+    }
+
+    @Test
+    void sameSenderShouldAlwaysMapToSameStripe() {
+        SmsMessage a = new SmsMessage(1, null, "+420777123456", null, "a");
+        SmsMessage b = new SmsMessage(2, null, "+420777123456", null, "b");
+        SmsMessage noSender = new SmsMessage(3, null, null, null, "c");
+
+        assertEquals(SmsDispatchService.stripeOf(a, 5), SmsDispatchService.stripeOf(b, 5));
+        assertEquals(0, SmsDispatchService.stripeOf(noSender, 5));
+    }
+
+    private void fill() {
+        for (int i = 0; i < PER_SENDER; i++) {
+            for (int s = 0; s < SENDERS; s++) {
+                queue.add(new SmsMessage(i, null, "+42077700000" + s, null, String.valueOf(i)));
+            }
+        }
+    }
+
+    private void assertOrdered() {
+        assertEquals(SENDERS, delivered.size());
+        for (List<String> texts : delivered.values()) {
+            assertEquals(List.of("0", "1", "2", "3", "4", "5"), texts);
+        }
+    }
+}
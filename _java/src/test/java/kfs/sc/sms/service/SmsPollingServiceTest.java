@@ -129,4 +129,17 @@ class SmsPollingServiceTest {
         verify(failingQueue, atLeast(3)).put(msg);
         verify(gateway, atLeast(1)).delete(msg.getIndex());
     }
+
+    @Test
+    void shouldApplyNewIntervalWhileRunning() throws Exception {
+        when(gateway.readAll()).thenReturn(List.of());
+
+        pollingService = new SmsPollingService(gateway, Duration.ofMinutes(10), queue, 1, 50);
+        pollingService.start();
+        verify(gateway, timeout(1000).times(1)).readAll();
+
+        pollingService.setInterval(Duration.ofMillis(20));
+        verify(gateway, timeout(1000).atLeast(4)).readAll();
+        pollingService.stop();
+    }
 }
@@ -0,0 +1,276 @@
+package kfs.sc.sms.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import kfs.sc.sms.model.SmsPriority;
+import kfs.sc.sms.utils.KfsSmsException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmsRestClientTest {
+
+    static final String CZECH = "Dobrý den, potvrzujeme termín prohlídky zítra ve 14:30. "
+            + "Při zrušení odpovězte NE. Děkujeme, Správa nemovitostí Žižkov";
+
+    HttpServer server;
+    String baseUrl;
+    volatile boolean formOnly;
+    final List<String> contentTypes = new CopyOnWriteArrayList<>();
+    final List<String> encodings = new CopyOnWriteArrayList<>();
+    final List<Integer> wireBytes = new CopyOnWriteArrayList<>();
+    final List<String> payloads = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        server.createContext("/health", ex -> respond(ex, 200, new byte[0]));
+        server.createContext("/sms/i", this::receive);
+        server.createContext("/sms/o", this::outgoingGzip);
+        server.createContext("/sms/c", ex -> respond(ex, 503, new byte[0]));
+        server.createContext("/sms/f", ex -> {
+            try {
+                Thread.sleep(2000); // half-open spojení: server neodpovídá
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(ex, 200, new byte[0]);
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void rawJsonShouldBeSmallerOnWireThanFormForCzechText() {
+        new SmsRestClient(baseUrl, "u", "p").reportIncoming("+420777123456", CZECH, null);
+        new SmsRestClient(baseUrl, "u", "p", SmsRestClient.WireMode.JSON, 4096)
+                .reportIncoming("+420777123456", CZECH, null);
+
+        assertEquals(payloads.get(0), payloads.get(1));
+        int form = wireBytes.get(0);
+        int json = wireBytes.get(1);
+        // každý český znak ve formu = %C3%BD (6 B), v UTF-8 JSON 2 B
+        assertTrue(json * 10 < form * 7, "json=" + json + " form=" + form);
+    }
+
+    @Test
+    void shouldGzipJsonAboveThreshold() {
+        SmsRestClient client = new SmsRestClient(baseUrl, "u", "p", SmsRestClient.WireMode.JSON, 64);
+        String text = CZECH.repeat(4);
+        client.reportIncoming("+420777123456", text, null);
+
+        assertTrue(payloads.get(0).contains(text));
+        assertTrue(wireBytes.get(0) < payloads.get(0).getBytes(StandardCharsets.UTF_8).length);
+        assertEquals((long) wireBytes.get(0), client.getBytesSent());
+    }
+
+    @Test
+    void autoShouldFallBackToFormWhenServerRejectsJson() {
+        formOnly = true;
+        SmsRestClient client = new SmsRestClient(baseUrl, "u", "p", SmsRestClient.WireMode.AUTO, 512);
+
+        client.reportIncoming("+420777123456", "ahoj", null);
+        client.reportIncoming("+420777123456", "znovu", null);
+
+        assertEquals(SmsRestClient.WireMode.FORM, client.getEffectiveWireMode());
+        assertEquals(List.of("application/json; charset=utf-8",
+                "application/x-www-form-urlencoded",
+                "application/x-www-form-urlencoded"), contentTypes);
+        assertEquals(2, payloads.size());
+    }
+
+    @Test
+    void autoShouldKeepJsonWhenServerAcceptsIt() {
+        SmsRestClient client = new SmsRestClient(baseUrl, "u", "p", SmsRestClient.WireMode.AUTO, 512);
+
+        client.reportIncoming("+420777123456", "ahoj", null);
+
+        assertEquals(SmsRestClient.WireMode.JSON, client.getEffectiveWireMode());
+        assertEquals(1, payloads.size());
+    }
+
+    @Test
+    void shouldDecodeGzippedPollResponse() {
+        List<SmsRestClient.OutgoingSms> list = new SmsRestClient(baseUrl, "u", "p").pollOutgoingBatch();
+
+        assertEquals(List.of(new SmsRestClient.OutgoingSms("7", "+420111111111", "Žluťoučký kůň")), list);
+    }
+
+    @Test
+    void breakerShouldOpenOnServerErrorsAndFailFast() {
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMinutes(1));
+        SmsRestClient client = new SmsRestClient(baseUrl, "u", "p", SmsRestClient.WireMode.FORM, 512,
+                SmsRestClient.Timeouts.DEFAULT, breaker);
+
+        assertThrows(KfsSmsException.class, () -> client.confirmSent("1"));
+        assertFalse(client.isCircuitOpen());
+        assertThrows(KfsSmsException.class, () -> client.confirmSent("2"));
+        assertTrue(client.isCircuitOpen());
+
+        // otevřený breaker: žádný request na server
+        KfsSmsException e = assertThrows(KfsSmsException.class,
+                () -> client.reportIncoming("+420777123456", "x", null));
+        assertTrue(e.getMessage().contains("circuit"));
+        assertTrue(client.pollOutgoingBatch().isEmpty());
+        assertTrue(payloads.isEmpty());
+    }
+
+    @Test
+    void plainHttpShouldNotAttemptH2cUpgrade() {
+        List<String> upgrades = new CopyOnWriteArrayList<>();
+        server.createContext("/log", ex -> {
+            ex.getRequestBody().readAllBytes();
+            upgrades.add(String.valueOf(ex.getRequestHeaders().getFirst("Upgrade")));
+            respond(ex, 200, new byte[0]);
+        });
+        SmsRestClient client = new SmsRestClient(baseUrl, "u", "p");
+
+        client.sendLog("a");
+        client.sendLog("b");
+
+        // h2c upgrade server odmítne a spojení se po každém requestu zavře
+        assertEquals(List.of("null", "null"), upgrades);
+    }
+
+    @Test
+    void logFailuresShouldNotOpenSmsBreaker() {
+        server.createContext("/log", ex -> respond(ex, 503, new byte[0]));
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMinutes(1));
+        SmsRestClient client = new SmsRestClient(baseUrl, "u", "p", SmsRestClient.WireMode.FORM, 512,
+                SmsRestClient.Timeouts.DEFAULT, breaker);
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(KfsSmsException.class, () -> client.sendLog("line"));
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, client.getLogCircuitBreaker().getState());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        client.reportIncoming("+420777123456", "x", null);
+        assertEquals(1, payloads.size());
+    }
+
+    @Test
+    void formModeShouldNeverGzip() {
+        SmsRestClient client = new SmsRestClient(baseUrl, "u", "p", SmsRestClient.WireMode.FORM, 16);
+
+        client.reportIncoming("+420777123456", CZECH, null);
+
+        assertEquals(List.of("application/x-www-form-urlencoded"), contentTypes);
+        assertFalse(encodings.contains("gzip"));
+        assertTrue(payloads.get(0).contains("Správa nemovitostí"));
+    }
+
+        @Test
+    void shouldTimeOutHangingRequest() {
+        SmsRestClient.Timeouts timeouts = new SmsRestClient.Timeouts(Duration.ofSeconds(1),
+                Duration.ofSeconds(1), Duration.ofMillis(300), Duration.ofMinutes(1));
+        SmsRestClient client = new SmsRestClient(baseUrl, "u", "p", SmsRestClient.WireMode.FORM, 512,
+                timeouts, new CircuitBreaker(5, Duration.ofMinutes(1)));
+
+        long start = System.nanoTime();
+        assertThrows(KfsSmsException.class, () -> client.reportFail("1", "x"));
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1500);
+        assertEquals(1, client.getCircuitBreaker().getConsecutiveFailures());
+    }
+
+    private void receive(HttpExchange ex) throws IOException {
+        byte[] body = ex.getRequestBody().readAllBytes();
+        String type = ex.getRequestHeaders().getFirst("Content-Type");
+        contentTypes.add(type);
+        encodings.add(String.valueOf(ex.getRequestHeaders().getFirst("Content-Encoding")));
+        if (formOnly && !type.startsWith("application/x-www-form-urlencoded")) {
+            respond(ex, 415, new byte[0]);
+            return;
+        }
+        wireBytes.add(body.length);
+        if ("gzip".equals(ex.getRequestHeaders().getFirst("Content-Encoding"))) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = in.readAllBytes();
+            }
+        }
+        String text = new String(body, StandardCharsets.UTF_8);
+        payloads.add(text.startsWith("data=") ? URLDecoder.decode(text.substring(5), StandardCharsets.UTF_8) : text);
+        respond(ex, 200, new byte[0]);
+    }
+
+    private void outgoingGzip(HttpExchange ex) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gz = new GZIPOutputStream(out)) {
+            gz.write("{\"id\":\"7\",\"numb\":\"+420111111111\",\"text\":\"Žluťoučký kůň\"}"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        ex.getResponseHeaders().add("Content-Encoding", "gzip");
+        respond(ex, 200, out.toByteArray());
+    }
+
+    private static void respond(HttpExchange ex, int status, byte[] body) throws IOException {
+        ex.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    void shouldParseSingleOutgoingSms() {
+        List<SmsRestClient.OutgoingSms> list = SmsRestClient.parseOutgoing(
+                "{\"id\":\"42\",\"numb\":\"+420111111111\",\"text\":\"Ahoj \\\"svete\\\" \\u010cau\"}");
+
+        assertEquals(List.of(new SmsRestClient.OutgoingSms("42", "+420111111111", "Ahoj \"svete\" Čau")), list);
+    }
+
+    @Test
+    void shouldParseOutgoingArray() {
+        List<SmsRestClient.OutgoingSms> list = SmsRestClient.parseOutgoing("""
+                [{"id":"1","numb":"+420111111111","text":"a","extra":{"x":1}},
+                 {"id":"2","numb":"+420222222222","text":"b"}]
+                """);
+
+        assertEquals(2, list.size());
+        assertEquals("2", list.get(1).id());
+    }
+
+    @Test
+    void shouldParsePriorityAndExpiry() {
+        List<SmsRestClient.OutgoingSms> list = SmsRestClient.parseOutgoing("""
+                [{"id":"1","numb":"+420111111111","text":"a","priority":"OTP","expires":"2026-01-01T12:00:00+01:00"},
+                 {"id":"2","numb":"+420222222222","text":"b","priority":"bulk","expires":"zitra"},
+                 {"id":"3","numb":"+420333333333","text":"c","priority":"urgent"}]
+                """);
+
+        assertEquals(SmsPriority.OTP, list.get(0).priority());
+        assertEquals(OffsetDateTime.parse("2026-01-01T11:00:00Z").toInstant().toEpochMilli(), list.get(0).expiresAt());
+        assertEquals(SmsPriority.BULK, list.get(1).priority());
+        assertEquals(0, list.get(1).expiresAt()); // neplatné datum SMS nezahodí
+        assertEquals(SmsPriority.NORMAL, list.get(2).priority());
+    }
+
+    @Test
+    void shouldReturnEmptyForNothingPending() {
+        assertTrue(SmsRestClient.parseOutgoing("{}").isEmpty());
+        assertTrue(SmsRestClient.parseOutgoing("[]").isEmpty());
+        assertTrue(SmsRestClient.parseOutgoing("{\"id\":\"\"}").isEmpty());
+    }
+}
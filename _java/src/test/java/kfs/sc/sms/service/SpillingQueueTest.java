@@ -0,0 +1,114 @@
+package kfs.sc.sms.service;
+
+import kfs.sc.sms.model.SmsMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillingQueueTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void shouldKeepFifoOrderAcrossSpillWithBoundedMemory() throws Exception {
+        SpillingQueue queue = new SpillingQueue(4, dir, 3);
+
+        for (int i = 0; i < 20; i++) {
+            queue.put(msg(i));
+            assertTrue(queue.memorySize() <= 4);
+        }
+        assertEquals(20, queue.size());
+        assertEquals(16, queue.getSpilled());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, queue.take().index());
+            assertTrue(queue.memorySize() <= 4);
+        }
+        // nové zprávy za spillnuté
+        queue.put(msg(20));
+        List<Integer> rest = new ArrayList<>();
+        SmsMessage m;
+        while ((m = queue.poll()) != null) {
+            rest.add(m.index());
+        }
+        assertEquals(List.of(10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20), rest);
+        assertEquals(0, queue.getSpilled());
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void shouldResumeInOrderAfterPersist() {
+        SpillingQueue queue = new SpillingQueue(4, dir, 3);
+        for (int i = 0; i < 12; i++) {
+            queue.put(msg(i));
+        }
+        assertEquals(0, queue.poll().index());
+        assertEquals(1, queue.poll().index());
+        assertEquals(2, queue.poll().index()); // první segment je rozečtený
+
+        queue.persist();
+
+        SpillingQueue next = new SpillingQueue(4, dir, 3);
+        assertEquals(9, next.size());
+        List<Integer> order = new ArrayList<>();
+        next.drainTo(new ArrayList<>() {
+            @Override
+            public boolean add(SmsMessage m) {
+                order.add(m.index());
+                return true;
+            }
+        });
+        assertEquals(List.of(3, 4, 5, 6, 7, 8, 9, 10, 11), order);
+    }
+
+    @Test
+    void shouldIgnoreTruncatedRecordAfterCrash() throws Exception {
+        SpillingQueue queue = new SpillingQueue(1, dir, 100);
+        for (int i = 0; i < 4; i++) {
+            queue.put(msg(i));
+        }
+        Path segment;
+        try (var files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        byte[] data = Files.readAllBytes(segment);
+        Files.write(segment, java.util.Arrays.copyOf(data, data.length - 3));
+
+        SpillingQueue recovered = new SpillingQueue(1, dir, 100);
+        assertEquals(2, recovered.size());
+        assertEquals(1, recovered.poll().index());
+        assertEquals(2, recovered.poll().index());
+        assertNull(recovered.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void takeShouldWaitForOffer() throws Exception {
+        SpillingQueue queue = new SpillingQueue(2, dir, 10);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.offer(msg(7));
+        });
+        producer.start();
+
+        assertEquals(7, queue.poll(5, TimeUnit.SECONDS).index());
+        producer.join();
+    }
+
+    private static SmsMessage msg(int i) {
+        return new SmsMessage(i, null, "+420777000" + String.format("%03d", i), null, "Zpráva č. " + i);
+    }
+}
@@ -0,0 +1,122 @@
+package kfs.sc.sms.updater;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import kfs.sc.sms.utils.KfsSmsException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GitHubUpdaterTest {
+
+    static final byte[] JAR = "fake jar content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dir;
+
+    HttpServer server;
+    String baseUrl;
+    String digest;
+    AtomicInteger releaseCalls = new AtomicInteger();
+    AtomicInteger notModified = new AtomicInteger();
+
+    @BeforeEach
+    void setup() throws Exception {
+        digest = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(JAR));
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        server.createContext("/repos/k0fis/kfsSms/releases/latest", this::release);
+        server.createContext("/download/SmsApp-1.2.0.jar", ex -> respond(ex, 200, JAR));
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void shouldDownloadAndVerifyNewerRelease() throws Exception {
+        Path target = dir.resolve("SmsApp-new.jar");
+        GitHubUpdater updater = new GitHubUpdater("k0fis", "kfsSms", "1.1.0", baseUrl, target);
+
+        assertTrue(updater.updateIfAvailable());
+        assertArrayEquals(JAR, Files.readAllBytes(target));
+        assertFalse(Files.exists(dir.resolve("SmsApp-new.jar.part")));
+    }
+
+    @Test
+    void shouldUseEtagForRepeatedChecks() {
+        GitHubUpdater updater = new GitHubUpdater("k0fis", "kfsSms", "1.2.0", baseUrl, dir.resolve("x.jar"));
+
+        assertFalse(updater.updateIfAvailable());
+        assertFalse(updater.updateIfAvailable());
+        assertFalse(updater.updateIfAvailable());
+
+        assertEquals(3, releaseCalls.get());
+        assertEquals(2, notModified.get());
+    }
+
+    @Test
+    void shouldRejectChecksumMismatch() {
+        digest = "0".repeat(64);
+        Path target = dir.resolve("SmsApp-new.jar");
+        GitHubUpdater updater = new GitHubUpdater("k0fis", "kfsSms", "1.1.0", baseUrl, target);
+
+        assertThrows(KfsSmsException.class, updater::updateIfAvailable);
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void shouldSkipReleaseWithoutDigestUnlessAllowed() {
+        digest = null;
+        Path target = dir.resolve("SmsApp-new.jar");
+        GitHubUpdater updater = new GitHubUpdater("k0fis", "kfsSms", "1.1.0", baseUrl, target);
+
+        assertFalse(updater.updateIfAvailable());
+        assertFalse(Files.exists(target));
+
+        updater.setAllowUnverified(true);
+        assertTrue(updater.updateIfAvailable());
+        assertTrue(Files.exists(target));
+    }
+
+    private void release(HttpExchange ex) throws IOException {
+        releaseCalls.incrementAndGet();
+        if ("\"abc\"".equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.incrementAndGet();
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+        String body = """
+                {"tag_name":"v1.2.0","assets":[{"name":"SmsApp-1.2.0.jar","uploader":{"login":"k0fis"},
+                "size":16,%s"download_count":1,
+                "browser_download_url":"%s/download/SmsApp-1.2.0.jar"}]}
+                """.formatted(digest == null ? "" : "\"digest\":\"sha256:" + digest + "\",", baseUrl);
+        ex.getResponseHeaders().add("ETag", "\"abc\"");
+        respond(ex, 200, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange ex, int status, byte[] body) throws IOException {
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}